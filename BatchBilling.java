@@ -0,0 +1,145 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+/**
+ * Non-interactive batch billing for a whole billing cycle.
+ *
+ * Reads a meter-reading file with one "customerId,month,units" row per line,
+ * calculates the bills on a fork-join pool, stores them in the repository
+ * and journals them, so a session opened meanwhile replays them rather than
+ * reusing their IDs. The journal is not compacted during the run; the caller
+ * saves one snapshot at the end, in whatever format the storage uses.
+ *
+ * Readings are processed in fixed-size blocks: while one block is being
+ * calculated the previous one is stored, so only two blocks of readings are
+ * in flight at a time. The bills themselves stay in the repository until
+ * that snapshot, so memory grows with the bills billed, as it does when the
+ * same bills are loaded.
+ *
+ * Bill IDs are handed out by the repository in input order, one block at a
+ * time, so the result is identical for any number of threads.
+ */
+public class BatchBilling {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_REPORTED_SKIPS = 20;
+
+    /** Summary of one batch run. */
+    static class Result {
+        long read;
+        long billed;
+        long skipped;
+
+        @Override
+        public String toString() {
+            return String.format("Readings: %d, billed: %d, skipped: %d", read, billed, skipped);
+        }
+    }
+
+    /**
+     * Bills every valid reading in {@code readings}, stores the bills in
+     * {@code repo} and journals them to {@code storage} if it has a journal
+     * open. Rows that cannot be parsed or that reference an unknown customer
+     * are skipped and reported on stderr; they do not consume a bill ID.
+     */
+    static Result run(Path readings, BillingRepository repo, BillingStorage storage, int threads) throws IOException {
+        try (Metrics.Timing t = Metrics.BATCH.time()) {
+            Result result = new Result();
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            try (BufferedReader in = Files.newBufferedReader(readings, StandardCharsets.UTF_8)) {
+                Future<?> pendingWrite = null;
+                long lineNo = 0;
+                String line;
+                Bill[] block = new Bill[BLOCK_SIZE];
+                int n = 0;
+                while ((line = in.readLine()) != null) {
+                    lineNo++;
+                    line = line.trim();
+                    if (line.isEmpty() || (lineNo == 1 && !Character.isDigit(line.charAt(0)))) continue; // header
+                    result.read++;
+                    Bill b = parseReading(line, repo);
+                    if (b == null) {
+                        if (++result.skipped <= MAX_REPORTED_SKIPS) System.err.println("Skipping line " + lineNo + ": " + line);
+                        continue;
+                    }
+                    block[n++] = b;
+                    if (n == BLOCK_SIZE) {
+                        pendingWrite = submitBlock(pool, writer, pendingWrite, block, n, repo, storage);
+                        result.billed += n;
+                        block = new Bill[BLOCK_SIZE];
+                        n = 0;
+                    }
+                }
+                if (n > 0) {
+                    pendingWrite = submitBlock(pool, writer, pendingWrite, block, n, repo, storage);
+                    result.billed += n;
+                }
+                await(pendingWrite);
+                t.rows(result.billed);
+            } finally {
+                writer.shutdown();
+                pool.shutdown();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Calculates one block in parallel, waits for the previous block to be stored and
+     * queues this one for storing and journaling. At most one block is in flight on the writer.
+     */
+    private static Future<?> submitBlock(ForkJoinPool pool, ExecutorService writer, Future<?> previous,
+                                         Bill[] block, int n, BillingRepository repo,
+                                         BillingStorage storage) throws IOException {
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> block[i].calculate())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Bill calculation failed", e.getCause());
+        }
+        await(previous);
+        return writer.submit(() -> {
+            List<Bill> bills = Arrays.asList(block).subList(0, n);
+            repo.addBills(bills);
+            storage.recordBulk(repo, bills);
+            return null;
+        });
+    }
+
+    private static void await(Future<?> f) throws IOException {
+        if (f == null) return;
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException("Failed to store bills", c);
+        }
+    }
+
+    private static Bill parseReading(String line, BillingRepository repo) {
+        String[] t = line.split(",", -1);
+        if (t.length < 3) return null;
+        try {
+            int cid = Integer.parseInt(t[0].trim());
+            int units = Integer.parseInt(t[2].trim());
+            String month = t[1].trim();
+            if (month.isEmpty() || units < 0 || repo.customer(cid) == null) return null;
+            return new Bill(0, cid, month, units); // ID assigned when stored
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.math.BigDecimal;
+
+/**
+ * A bill for one customer and month.
+ *
+ * Like {@link Customer}, bills held by a {@link BillingRepository} are
+ * replaced rather than edited in place.
+ */
+class Bill {
+    static final String CSV_HEADER = "billId,customerId,month,units,energyCharge,fixedCharge,meterRent,tax,total";
+
+    // paisa amounts from TariffTable.evaluate, one array per thread so pricing allocates only the results
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[5]);
+
+    int billId;
+    int customerId;
+    String month; // e.g., "2025-09" or "September 2025"
+    int units;
+    BigDecimal energyCharge;
+    BigDecimal fixedCharge;
+    BigDecimal meterRent;
+    BigDecimal tax;
+    BigDecimal total;
+
+    Bill(int billId, int customerId, String month, int units) {
+        this.billId = billId;
+        this.customerId = customerId;
+        this.month = month;
+        this.units = units;
+    }
+
+    /** Prices the bill with the tariff in force for its month. */
+    void calculate() {
+        calculate(Tariff.schedule().tableFor(month));
+    }
+
+    void calculate(TariffTable tariff) {
+        long[] p = SCRATCH.get();
+        tariff.evaluate(units, p);
+        energyCharge = TariffTable.toAmount(p[0]);
+        fixedCharge = TariffTable.toAmount(p[1]);
+        meterRent = TariffTable.toAmount(p[2]);
+        tax = TariffTable.toAmount(p[3]);
+        total = TariffTable.toAmount(p[4]);
+        Metrics.CALCULATIONS.increment();
+    }
+
+    String toCSV() {
+        return billId + "," + customerId + "," + Customer.escape(month) + "," + units + "," +
+                energyCharge.toPlainString() + "," + fixedCharge.toPlainString() + "," +
+                meterRent.toPlainString() + "," + tax.toPlainString() + "," + total.toPlainString();
+    }
+
+    static Bill fromCSV(String line) {
+        String[] t = line.split(",", -1);
+        Bill b = new Bill(Integer.parseInt(t[0]), Integer.parseInt(t[1]), t[2], Integer.parseInt(t[3]));
+        b.energyCharge = new BigDecimal(t[4]);
+        b.fixedCharge = new BigDecimal(t[5]);
+        b.meterRent = new BigDecimal(t[6]);
+        b.tax = new BigDecimal(t[7]);
+        b.total = new BigDecimal(t[8]);
+        return b;
+    }
+
+    static Bill fromFields(MappedCsv.Fields f) {
+        Bill b = new Bill(f.nextInt(), f.nextInt(), f.nextString(), f.nextInt());
+        b.energyCharge = f.nextDecimal();
+        b.fixedCharge = f.nextDecimal();
+        b.meterRent = f.nextDecimal();
+        b.tax = f.nextDecimal();
+        b.total = f.nextDecimal();
+        return b;
+    }
+
+    /** The invoice as printed; recently viewed ones come from {@link InvoiceCache}. */
+    String toInvoiceText(Customer c) {
+        return InvoiceCache.DEFAULT.render(this, c);
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Checks stored bills against the tariff engine.
+ *
+ * Every bill is recalculated with the schedule in force for its month and
+ * compared amount by amount with what was loaded, so hand-edited files,
+ * bills priced by an older build and bills for customers that no longer
+ * exist all show up. Months are audited one at a time, oldest first, with
+ * the bills of a month spread over the pool; each month's findings are
+ * written to the report before the next month is read, so the report grows
+ * while the run is going and a repository with months still on disk only
+ * reads one at a time.
+ *
+ * With repair on, a bill whose amounts are wrong is replaced by the
+ * recalculated one and journaled, as {@link Rerating} does; a bill edited
+ * while the audit runs keeps the edit. Bills of unknown customers are only
+ * reported.
+ */
+final class BillAudit {
+
+    static final String REPORT_HEADER = "billId,customerId,month,units,problem,storedTotal,expectedTotal,difference";
+
+    /** One bill that failed the audit. */
+    static final class Mismatch {
+        final Bill stored;
+        final Bill expected;
+        final String problem; // amounts that differ and/or "unknownCustomer", space-separated
+
+        Mismatch(Bill stored, Bill expected, String problem) {
+            this.stored = stored;
+            this.expected = expected;
+            this.problem = problem;
+        }
+
+        boolean amountsWrong() {
+            return !sameAmounts(stored, expected);
+        }
+
+        String toCSV() {
+            return stored.billId + "," + stored.customerId + "," + Customer.escape(stored.month) + "," + stored.units + ","
+                    + problem + "," + stored.total.toPlainString() + "," + expected.total.toPlainString() + ","
+                    + expected.total.subtract(stored.total).toPlainString();
+        }
+    }
+
+    /** Summary of one run. */
+    static final class Result {
+        final int months;
+        final int examined;
+        final int mismatches;
+        final int repaired;
+        final BigDecimal difference; // expected minus stored, over the bills with wrong amounts
+
+        Result(int months, int examined, int mismatches, int repaired, BigDecimal difference) {
+            this.months = months;
+            this.examined = examined;
+            this.mismatches = mismatches;
+            this.repaired = repaired;
+            this.difference = difference;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Months: %d, bills examined: %d, mismatches: %d, repaired: %d, net difference: %s",
+                    months, examined, mismatches, repaired, difference.toPlainString());
+        }
+    }
+
+    private BillAudit() {
+    }
+
+    /**
+     * Audits every bill in {@code repo} against {@code schedule}, writing one
+     * report line per mismatch to {@code report} after {@link #REPORT_HEADER}.
+     * With {@code repair}, wrong bills are replaced in {@code repo} and
+     * recorded in {@code storage}.
+     */
+    static Result run(BillingRepository repo, BillingStorage storage, TariffSchedule schedule, int threads,
+                      Writer report, boolean repair) throws IOException {
+        try (Metrics.Timing t = Metrics.AUDIT.time()) {
+            List<String> months = repo.billMonths();
+            months.sort(Comparator.comparingInt(TariffSchedule::monthKey).thenComparing(Comparator.naturalOrder()));
+            report.write(REPORT_HEADER);
+            report.write('\n');
+
+            int examined = 0, mismatches = 0, repaired = 0;
+            BigDecimal difference = BigDecimal.ZERO;
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+            try {
+                for (String month : months) {
+                    List<Bill> bills = repo.billsForMonth(month);
+                    TariffTable table = schedule.tableFor(month);
+                    List<Mismatch> found = pool.submit(() -> bills.parallelStream()
+                            .map(b -> check(repo, table, b))
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList())).get();
+                    found.sort(Comparator.comparingInt(m -> m.stored.billId));
+                    for (Mismatch m : found) {
+                        report.write(m.toCSV());
+                        report.write('\n');
+                        if (!m.amountsWrong()) continue;
+                        difference = difference.add(m.expected.total.subtract(m.stored.total));
+                        if (repair && repo.replaceBill(m.stored, m.expected)) {
+                            storage.record(repo, m.expected);
+                            repaired++;
+                        }
+                    }
+                    report.flush();
+                    examined += bills.size();
+                    mismatches += found.size();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Audit interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Audit failed: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            t.rows(examined);
+            return new Result(months.size(), examined, mismatches, repaired, difference);
+        }
+    }
+
+    private static Mismatch check(BillingRepository repo, TariffTable table, Bill b) {
+        Bill n = new Bill(b.billId, b.customerId, b.month, b.units);
+        n.calculate(table);
+        StringBuilder problem = new StringBuilder();
+        if (!same(b.energyCharge, n.energyCharge)) problem.append(" energyCharge");
+        if (!same(b.fixedCharge, n.fixedCharge)) problem.append(" fixedCharge");
+        if (!same(b.meterRent, n.meterRent)) problem.append(" meterRent");
+        if (!same(b.tax, n.tax)) problem.append(" tax");
+        if (!same(b.total, n.total)) problem.append(" total");
+        if (repo.customer(b.customerId) == null) problem.append(" unknownCustomer");
+        return problem.length() == 0 ? null : new Mismatch(b, n, problem.substring(1));
+    }
+
+    private static boolean same(BigDecimal stored, BigDecimal expected) {
+        return stored.compareTo(expected) == 0;
+    }
+
+    private static boolean sameAmounts(Bill a, Bill b) {
+        return same(a.energyCharge, b.energyCharge) && same(a.fixedCharge, b.fixedCharge)
+                && same(a.meterRent, b.meterRent) && same(a.tax, b.tax) && same(a.total, b.total);
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Bills stored as one file per billing month under bills/, plus a manifest,
+ * bills/manifest.csv, giving each month's file, row count, units, total and
+ * bill ID range.
+ *
+ * Loading reads only the manifest and registers every month with the
+ * repository ({@link BillingRepository#putLazy}), so a month's file is read
+ * the first time something needs it. Saving rewrites only the months whose
+ * bills changed since their file was read or written and leaves the months
+ * never read alone; the manifest is replaced last. A month counts as
+ * unchanged while the repository holds exactly the Bill instances of its
+ * file, which works because stored bills are replaced, never edited.
+ *
+ * Next to each month's file, "&lt;file&gt;.idx" holds its bill IDs and distinct
+ * customer IDs, both sorted, so a lookup by bill or customer reads only the
+ * months that have it. A month's index is read the first time such a lookup
+ * asks about it. The index records the size of the file it describes and is
+ * ignored if that no longer matches, e.g. after a crash between the two
+ * writes; the month is then read whenever it might hold what is looked for.
+ * A month saved without an index gets one the next time it is saved.
+ */
+final class BillPartitions {
+
+    static final String DIR = "bills";
+    static final String MANIFEST_FILE = "manifest.csv";
+    static final String MANIFEST_HEADER = "month,file,rows,units,total,minBillId,maxBillId";
+
+    /** One manifest row. */
+    static final class Entry {
+        final String month;
+        final String file;
+        final int rows;
+        final long units;
+        final BigDecimal total;
+        final int minBillId;
+        final int maxBillId;
+
+        Entry(String month, String file, int rows, long units, BigDecimal total, int minBillId, int maxBillId) {
+            this.month = month;
+            this.file = file;
+            this.rows = rows;
+            this.units = units;
+            this.total = total;
+            this.minBillId = minBillId;
+            this.maxBillId = maxBillId;
+        }
+
+        static Entry of(String month, String file, Bill[] bills) {
+            long units = 0;
+            BigDecimal total = BigDecimal.ZERO;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (Bill b : bills) {
+                units += b.units;
+                total = total.add(b.total);
+                min = Math.min(min, b.billId);
+                max = Math.max(max, b.billId);
+            }
+            return new Entry(month, file, bills.length, units, total, min, max);
+        }
+
+        String toCSV() {
+            return Customer.escape(month) + "," + file + "," + rows + "," + units + "," + total.toPlainString() + ","
+                    + minBillId + "," + maxBillId;
+        }
+
+        static Entry fromCSV(String line) {
+            String[] t = line.split(",", -1);
+            return new Entry(t[0], t[1], Integer.parseInt(t[2]), Long.parseLong(t[3]), new BigDecimal(t[4]),
+                    Integer.parseInt(t[5]), Integer.parseInt(t[6]));
+        }
+    }
+
+    /** A month's bill IDs and distinct customer IDs, both sorted. */
+    static final class Index {
+        final int[] billIds;
+        final int[] customerIds;
+
+        Index(int[] billIds, int[] customerIds) {
+            this.billIds = billIds;
+            this.customerIds = customerIds;
+        }
+
+        static Index of(Bill[] bills) {
+            int[] ids = new int[bills.length];
+            int[] customers = new int[bills.length];
+            for (int i = 0; i < bills.length; i++) {
+                ids[i] = bills[i].billId;
+                customers[i] = bills[i].customerId;
+            }
+            Arrays.sort(ids);
+            Arrays.sort(customers);
+            int n = 0;
+            for (int i = 0; i < customers.length; i++) {
+                if (n == 0 || customers[i] != customers[n - 1]) customers[n++] = customers[i];
+            }
+            return new Index(ids, Arrays.copyOf(customers, n));
+        }
+
+        boolean hasBill(int billId) {
+            return Arrays.binarySearch(billIds, billId) >= 0;
+        }
+
+        boolean hasCustomer(int customerId) {
+            return Arrays.binarySearch(customerIds, customerId) >= 0;
+        }
+    }
+
+    private final Path dir;
+    // all guarded by this
+    private Map<String, Entry> manifest = new HashMap<>();
+    private boolean manifestRead; // by register() or save()
+    private final Map<String, Bill[]> onDisk = new HashMap<>(); // by month, in ID order; months read or written
+
+    BillPartitions(Path dataDir) {
+        this.dir = dataDir.resolve(DIR);
+    }
+
+    Path manifestFile() {
+        return dir.resolve(MANIFEST_FILE);
+    }
+
+    /** The manifest as last read or written. */
+    synchronized List<Entry> entries() {
+        List<Entry> out = new ArrayList<>(manifest.values());
+        out.sort(Comparator.comparingInt((Entry e) -> TariffSchedule.monthKey(e.month)).thenComparing(e -> e.month));
+        return out;
+    }
+
+    /** Reads the manifest and registers every month in it with {@code repo}, unread. */
+    void register(BillingRepository repo) throws IOException {
+        Map<String, Entry> m = readManifest();
+        synchronized (this) {
+            manifest = m;
+            manifestRead = true;
+            onDisk.clear();
+        }
+        List<BillingRepository.Partition> partitions = new ArrayList<>(m.size());
+        for (Entry e : m.values()) partitions.add(new LazyMonth(e));
+        repo.putLazy(partitions);
+    }
+
+    /** A month registered unread; its index is read on the first lookup that asks. */
+    private final class LazyMonth implements BillingRepository.Partition {
+        private final Entry entry;
+        private Index index; // guarded by this
+        private boolean indexRead; // guarded by this
+
+        LazyMonth(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String month() {
+            return entry.month;
+        }
+
+        @Override
+        public int minBillId() {
+            return entry.minBillId;
+        }
+
+        @Override
+        public int maxBillId() {
+            return entry.maxBillId;
+        }
+
+        @Override
+        public boolean mayHoldBill(int billId) {
+            if (billId < entry.minBillId || billId > entry.maxBillId) return false;
+            Index i = index();
+            return i == null || i.hasBill(billId);
+        }
+
+        @Override
+        public boolean mayHoldCustomer(int customerId) {
+            Index i = index();
+            return i == null || i.hasCustomer(customerId);
+        }
+
+        @Override
+        public List<Bill> load() throws IOException {
+            return read(entry);
+        }
+
+        private synchronized Index index() {
+            if (!indexRead) {
+                index = readIndex(entry);
+                indexRead = true;
+            }
+            return index;
+        }
+    }
+
+    private Map<String, Entry> readManifest() throws IOException {
+        Map<String, Entry> m = new HashMap<>();
+        if (!Files.exists(manifestFile())) return m;
+        try (BufferedReader in = Files.newBufferedReader(manifestFile(), StandardCharsets.UTF_8)) {
+            String line = in.readLine(); // header
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Entry e = Entry.fromCSV(line);
+                m.put(e.month, e);
+            }
+        }
+        return m;
+    }
+
+    private List<Bill> read(Entry e) throws IOException {
+        List<Bill> bills = MappedCsv.load(dir.resolve(e.file), Bill::fromFields);
+        Bill[] sorted = bills.toArray(new Bill[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(b -> b.billId));
+        synchronized (this) {
+            onDisk.put(e.month, sorted);
+        }
+        return bills;
+    }
+
+    /**
+     * Writes the months of {@code s} whose bills changed, then the manifest,
+     * then deletes the files of months left without bills. Months in
+     * {@code s.unloadedMonths} keep their files. Returns the bytes written.
+     */
+    synchronized long save(BillingRepository.Snapshot s) throws IOException {
+        Files.createDirectories(dir);
+        if (!manifestRead) { // the repository was loaded some other way: keep what is on disk, rewrite what is loaded
+            manifest = readManifest();
+            manifestRead = true;
+        }
+        Map<String, List<Bill>> byMonth = new HashMap<>();
+        for (Bill b : s.bills) byMonth.computeIfAbsent(b.month, k -> new ArrayList<>()).add(b); // s.bills is in ID order
+
+        Map<String, Entry> next = new HashMap<>();
+        Set<String> files = new HashSet<>();
+        for (Entry e : manifest.values()) files.add(e.file);
+        long written = 0;
+        for (Map.Entry<String, List<Bill>> m : byMonth.entrySet()) {
+            String month = m.getKey();
+            Bill[] bills = m.getValue().toArray(new Bill[0]);
+            Entry old = manifest.get(month);
+            if (old != null && sameInstances(onDisk.get(month), bills)) {
+                next.put(month, old);
+                if (!Files.exists(indexFile(old))) written += writeIndex(old, bills); // saved before there were indexes
+                continue;
+            }
+            String file = old != null ? old.file : fileName(month, files);
+            files.add(file);
+            List<String> lines = new ArrayList<>(bills.length + 1);
+            lines.add(Bill.CSV_HEADER);
+            for (Bill b : bills) lines.add(b.toCSV());
+            Path path = dir.resolve(file);
+            WriteAheadLog.writeAtomically(path, lines);
+            written += Files.size(path);
+            Entry e = Entry.of(month, file, bills);
+            written += writeIndex(e, bills);
+            next.put(month, e);
+            onDisk.put(month, bills);
+        }
+        List<Entry> emptied = new ArrayList<>();
+        for (Entry e : manifest.values()) {
+            if (next.containsKey(e.month)) continue;
+            if (s.unloadedMonths.contains(e.month)) next.put(e.month, e);
+            else emptied.add(e);
+        }
+
+        manifest = next;
+        List<String> lines = new ArrayList<>(next.size() + 1);
+        lines.add(MANIFEST_HEADER);
+        for (Entry e : entries()) lines.add(e.toCSV());
+        WriteAheadLog.writeAtomically(manifestFile(), lines);
+        written += Files.size(manifestFile());
+
+        for (Entry e : emptied) {
+            Files.deleteIfExists(dir.resolve(e.file));
+            Files.deleteIfExists(indexFile(e));
+            onDisk.remove(e.month);
+        }
+        return written;
+    }
+
+    private Path indexFile(Entry e) {
+        return dir.resolve(e.file + ".idx");
+    }
+
+    /** Writes the month's index after its file; returns the bytes written. */
+    private long writeIndex(Entry e, Bill[] bills) throws IOException {
+        Index index = Index.of(bills);
+        ByteBuffer buf = ByteBuffer.allocate(8 + 4 + 4 + 4 * index.billIds.length + 4 + 4 * index.customerIds.length);
+        buf.putLong(Files.size(dir.resolve(e.file))).putInt(e.rows);
+        buf.putInt(index.billIds.length);
+        for (int id : index.billIds) buf.putInt(id);
+        buf.putInt(index.customerIds.length);
+        for (int id : index.customerIds) buf.putInt(id);
+        buf.flip();
+
+        Path file = indexFile(e);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return buf.limit();
+    }
+
+    /** The month's index, or null if it is missing, unreadable or written for another version of the file. */
+    private Index readIndex(Entry e) {
+        try {
+            Path file = indexFile(e);
+            if (!Files.exists(file)) return null;
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buf.getLong() != Files.size(dir.resolve(e.file)) || buf.getInt() != e.rows) return null;
+            int[] billIds = new int[buf.getInt()];
+            for (int i = 0; i < billIds.length; i++) billIds[i] = buf.getInt();
+            int[] customerIds = new int[buf.getInt()];
+            for (int i = 0; i < customerIds.length; i++) customerIds[i] = buf.getInt();
+            return new Index(billIds, customerIds);
+        } catch (IOException | RuntimeException ex) { // e.g. cut short: read the month instead
+            System.out.println("Ignoring the index of " + e.month + ": " + ex);
+            return null;
+        }
+    }
+
+    private static boolean sameInstances(Bill[] a, Bill[] b) {
+        if (a == null || a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    /** "2025-09.csv" for "2025-09"; other characters become '_', and a clash gets a suffix. */
+    private static String fileName(String month, Set<String> taken) {
+        StringBuilder sb = new StringBuilder(month.length());
+        for (int i = 0; i < month.length(); i++) {
+            char ch = month.charAt(i);
+            sb.append(ch < 128 && (Character.isLetterOrDigit(ch) || ch == '-') ? ch : '_');
+        }
+        String base = sb.toString();
+        String name = base + ".csv";
+        for (int n = 2; taken.contains(name) || name.equalsIgnoreCase(MANIFEST_FILE); n++) name = base + "~" + n + ".csv";
+        return name;
+    }
+}
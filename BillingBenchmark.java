@@ -0,0 +1,435 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Micro and macro benchmarks for the billing hot paths.
+ *
+ * Usage: java BillingBenchmark [-sizes 10000,1000000,10000000] [-f 1] [-wi 3] [-i 5] [-dir path] [filter]
+ *
+ * Each benchmark runs in a fresh JVM of its own (-f forks of it, 0 to run
+ * in this JVM), so code compiled for one benchmark does not skew the next.
+ * A fork prepares the benchmark's state, runs the warmup iterations, then
+ * the measured ones, and reports throughput in the style of JMH's thrpt
+ * mode: mean and standard deviation over the measured iterations of all
+ * forks. Results go into a {@link Blackhole} so the JIT cannot drop the work.
+ *
+ * Row-count dependent benchmarks (load, save, lookup) run once per size on
+ * synthetic data, through {@link BillingStorage} and
+ * {@link ConcurrentBillingRepository} as the front ends use them. The data
+ * is written to -dir (default: a temporary directory, deleted afterwards)
+ * by the first fork that needs it. Only benchmarks whose name contains the
+ * filter are run.
+ */
+public class BillingBenchmark {
+
+    /** One benchmark iteration; returns the number of operations it performed. */
+    interface Op {
+        long run(Blackhole bh) throws Exception;
+    }
+
+    /** Builds a benchmark's state in the JVM that runs it. */
+    interface Setup {
+        Op prepare() throws Exception;
+    }
+
+    private static final class Benchmark {
+        final String name;
+        final String param;
+        final Setup setup;
+
+        Benchmark(String name, String param, Setup setup) {
+            this.name = name;
+            this.param = param;
+            this.setup = setup;
+        }
+
+        String id() {
+            return name + "@" + param;
+        }
+    }
+
+    /**
+     * Consumes results the way JMH's Blackhole does: the checks read plain
+     * fields the JIT cannot prove constant, so the value must be computed,
+     * yet nothing is written on the common path.
+     */
+    static final class Blackhole {
+        private long l1 = System.nanoTime();
+        private long l2 = ~l1;
+        private int seed = (int) l1;
+        private int mask = 1;
+        private Object kept;
+
+        void consume(long v) {
+            if (v == l1 & v == l2) throw new IllegalStateException("Blackhole failed"); // l1 != l2
+        }
+
+        void consume(Object o) {
+            int r = seed = seed * 1664525 + 1013904223;
+            if ((r & mask) == 0) { // now and then, ever more rarely, keep a reference
+                kept = o;
+                mask = (mask << 1) + 1;
+            }
+        }
+    }
+
+    private static final String READY = ".ready";
+    private static final String SCORE = "score ";
+
+    private static int forks = 1;
+    private static int warmups = 3;
+    private static int iterations = 5;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10_000};
+        String filter = "";
+        String run = null; // set in a fork: the one benchmark to run
+        Path dir = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-sizes":
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "-f":
+                    forks = Integer.parseInt(args[++i]);
+                    break;
+                case "-wi":
+                    warmups = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-dir":
+                    dir = Paths.get(args[++i]);
+                    break;
+                case "-run":
+                    run = args[++i];
+                    break;
+                default:
+                    filter = args[i];
+            }
+        }
+
+        boolean tempDir = dir == null;
+        if (tempDir) dir = Files.createTempDirectory("billing-bench");
+        List<Benchmark> all = new ArrayList<>();
+        calculationBenchmarks(all);
+        csvBenchmarks(all);
+        for (int size : sizes) storageBenchmarks(all, dir, size);
+
+        if (run != null) {
+            for (Benchmark b : all) {
+                if (b.id().equals(run)) {
+                    for (double s : measure(b)) System.out.println(SCORE + s);
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("No benchmark " + run);
+        }
+
+        try {
+            System.out.printf("%-40s %10s %5s %16s %12s  %s%n", "Benchmark", "(rows)", "Cnt", "Score", "Error", "Units");
+            for (Benchmark b : all) {
+                if (!b.name.contains(filter)) continue;
+                double[] scores = new double[0];
+                if (forks <= 0) {
+                    scores = measure(b);
+                } else {
+                    for (int f = 0; f < forks; f++) scores = concat(scores, fork(b, dir, sizes));
+                }
+                report(b, scores);
+            }
+        } finally {
+            if (tempDir) deleteTree(dir);
+        }
+    }
+
+    // ---- Benchmarks ----
+
+    private static void calculationBenchmarks(List<Benchmark> out) {
+        for (SyntheticData.Distribution d : SyntheticData.Distribution.values()) {
+            String suffix = d.name().toLowerCase();
+            out.add(new Benchmark("calculate.bill." + suffix, "-", () -> {
+                int[] units = SyntheticData.unitsArray(1 << 16, d, 7);
+                return bh -> {
+                    for (int u : units) {
+                        Bill b = new Bill(1, 1, "2025-09", u);
+                        b.calculate();
+                        bh.consume(b);
+                    }
+                    return units.length;
+                };
+            }));
+            out.add(new Benchmark("calculate.tariffTable." + suffix, "-", () -> {
+                int[] units = SyntheticData.unitsArray(1 << 16, d, 7);
+                long[] p = new long[5];
+                return bh -> {
+                    for (int u : units) {
+                        Tariff.TABLE.evaluate(u, p);
+                        bh.consume(p[4]);
+                    }
+                    return units.length;
+                };
+            }));
+        }
+        out.add(new Benchmark("calculate.repository.generateBill", "-", () -> {
+            int customers = 1000;
+            int[] units = SyntheticData.unitsArray(1 << 14, SyntheticData.Distribution.MIXED, 7);
+            ConcurrentBillingRepository repo = new ConcurrentBillingRepository();
+            repo.putAll(SyntheticData.customers(customers, 7), Collections.emptyList());
+            return bh -> {
+                for (int i = 0; i < units.length; i++) bh.consume(repo.generateBill(i % customers + 1, "2025-09", units[i]));
+                return units.length;
+            };
+        }));
+    }
+
+    private static void csvBenchmarks(List<Benchmark> out) {
+        int n = 1 << 15;
+        out.add(new Benchmark("csv.bill.parse", "-", () -> {
+            String[] lines = SyntheticData.bills(n, 1000, 11).stream().map(Bill::toCSV).toArray(String[]::new);
+            return bh -> {
+                for (String l : lines) bh.consume(Bill.fromCSV(l));
+                return lines.length;
+            };
+        }));
+        out.add(new Benchmark("csv.bill.serialize", "-", () -> {
+            List<Bill> bills = SyntheticData.bills(n, 1000, 11);
+            return bh -> {
+                for (Bill b : bills) bh.consume(b.toCSV());
+                return bills.size();
+            };
+        }));
+        out.add(new Benchmark("csv.customer.parse", "-", () -> {
+            String[] lines = SyntheticData.customers(n, 11).stream().map(Customer::toCSV).toArray(String[]::new);
+            return bh -> {
+                for (String l : lines) bh.consume(Customer.fromCSV(l));
+                return lines.length;
+            };
+        }));
+        out.add(new Benchmark("csv.customer.serialize", "-", () -> {
+            List<Customer> customers = SyntheticData.customers(n, 11);
+            return bh -> {
+                for (Customer c : customers) bh.consume(c.toCSV());
+                return customers.size();
+            };
+        }));
+    }
+
+    private static void storageBenchmarks(List<Benchmark> out, Path dir, int rows) {
+        String size = String.valueOf(rows);
+        Path data = dir.resolve("rows-" + rows);
+        int customers = customerCount(rows);
+
+        for (BillingStorage.Format format : BillingStorage.Format.values()) {
+            String name = format.name().toLowerCase();
+            out.add(new Benchmark("load.storage." + name, size, () -> {
+                BillingStorage storage = storage(data, format);
+                return bh -> {
+                    ConcurrentBillingRepository repo = new ConcurrentBillingRepository();
+                    storage.load(repo, stage -> { });
+                    bh.consume(repo.billCount()); // reads the months a partitioned load leaves on disk
+                    return rows;
+                };
+            }));
+            out.add(new Benchmark("save.storage." + name, size, () -> {
+                ConcurrentBillingRepository repo = loaded(data);
+                Path target = data.resolve("out-" + name);
+                return bh -> {
+                    deleteTree(target);
+                    Files.createDirectories(target);
+                    new BillingStorage(target, format).save(repo).get(); // no journal: written before this returns
+                    return rows;
+                };
+            }));
+        }
+        out.add(new Benchmark("load.storage.partitioned.lazy", size, () -> {
+            BillingStorage storage = storage(data, BillingStorage.Format.PARTITIONED);
+            return bh -> {
+                ConcurrentBillingRepository repo = new ConcurrentBillingRepository();
+                storage.load(repo, stage -> { });
+                bh.consume(repo);
+                return 1;
+            };
+        }));
+        out.add(new Benchmark("load.bills.mapped", size, () -> {
+            Path csv = storage(data, BillingStorage.Format.CSV).billsFile();
+            return bh -> {
+                List<Bill> bills = MappedCsv.load(csv, Bill::fromFields);
+                bh.consume(bills);
+                return bills.size();
+            };
+        }));
+
+        out.add(new Benchmark("lookup.repository.bill", size, () -> {
+            ConcurrentBillingRepository repo = loaded(data);
+            int[] probes = probes(rows);
+            return bh -> {
+                for (int id : probes) bh.consume(repo.bill(id));
+                return probes.length;
+            };
+        }));
+        out.add(new Benchmark("lookup.repository.billsOfCustomer", size, () -> {
+            ConcurrentBillingRepository repo = loaded(data);
+            int[] probes = probes(customers);
+            return bh -> {
+                for (int i = 0; i < 1024; i++) bh.consume(repo.billsOfCustomer(probes[i]));
+                return 1024;
+            };
+        }));
+        out.add(new Benchmark("lookup.repository.customer", size, () -> {
+            ConcurrentBillingRepository repo = loaded(data);
+            int[] probes = probes(customers);
+            return bh -> {
+                for (int id : probes) bh.consume(repo.customer(id));
+                return probes.length;
+            };
+        }));
+        out.add(new Benchmark("lookup.repository.customersByMeter", size, () -> {
+            ConcurrentBillingRepository repo = loaded(data);
+            int[] probes = probes(customers);
+            String[] meters = new String[1024];
+            for (int i = 0; i < meters.length; i++) meters[i] = repo.customer(probes[i]).meterNumber;
+            return bh -> {
+                for (String m : meters) bh.consume(repo.customersByMeter(m));
+                return meters.length;
+            };
+        }));
+        out.add(new Benchmark("lookup.columnar.byId", size, () -> {
+            ColumnarBillStore columnar = ColumnarBillStore.load(storage(data, BillingStorage.Format.CSV).billsFile());
+            int[] probes = probes(rows);
+            return bh -> {
+                for (int id : probes) bh.consume(columnar.units(columnar.rowOf(id)));
+                return probes.length;
+            };
+        }));
+        out.add(new Benchmark("lookup.linearScan.byId", size, () -> { // the list scan the repository replaced
+            List<Bill> bills = loaded(data).bills();
+            int[] probes = probes(rows);
+            int scanProbes = Math.max(1, (int) Math.min(1024, 100_000_000L / rows));
+            return bh -> {
+                for (int i = 0; i < scanProbes; i++) {
+                    int id = probes[i];
+                    for (Bill b : bills) {
+                        if (b.billId == id) {
+                            bh.consume(b);
+                            break;
+                        }
+                    }
+                }
+                return scanProbes;
+            };
+        }));
+    }
+
+    // ---- Data ----
+
+    private static int customerCount(int rows) {
+        return Math.max(1, rows / 12);
+    }
+
+    private static int[] probes(int maxId) {
+        return new SplittableRandom(5).ints(1 << 16, 1, maxId + 1).toArray();
+    }
+
+    /** Storage over the synthetic data in {@code format}, written first if this is the first fork to need it. */
+    private static BillingStorage storage(Path data, BillingStorage.Format format) throws Exception {
+        if (!Files.exists(data.resolve(READY))) writeData(data);
+        return new BillingStorage(data.resolve(format.name().toLowerCase()), format);
+    }
+
+    private static ConcurrentBillingRepository loaded(Path data) throws Exception {
+        ConcurrentBillingRepository repo = new ConcurrentBillingRepository();
+        storage(data, BillingStorage.Format.CSV).load(repo, stage -> { });
+        return repo;
+    }
+
+    /** The same customers and bills as CSV files, a binary snapshot and month partitions. */
+    private static void writeData(Path data) throws Exception {
+        int rows = Integer.parseInt(data.getFileName().toString().substring("rows-".length()));
+        int customers = customerCount(rows);
+        BillingStorage csv = new BillingStorage(data.resolve("csv"), BillingStorage.Format.CSV);
+        Files.createDirectories(csv.dir());
+        SyntheticData.writeCustomersCsv(csv.customersFile(), customers, 3);
+        SyntheticData.writeBillsCsv(csv.billsFile(), rows, customers, 3);
+
+        ConcurrentBillingRepository repo = new ConcurrentBillingRepository();
+        csv.load(repo, stage -> { });
+        for (BillingStorage.Format format : EnumSet.of(BillingStorage.Format.BINARY, BillingStorage.Format.PARTITIONED)) {
+            Path target = data.resolve(format.name().toLowerCase());
+            Files.createDirectories(target);
+            new BillingStorage(target, format).save(repo).get();
+        }
+        Files.createFile(data.resolve(READY));
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> s = Files.walk(root)) {
+            s.forEach(paths::add);
+        }
+        Collections.reverse(paths); // children first
+        for (Path p : paths) Files.deleteIfExists(p);
+    }
+
+    // ---- Running ----
+
+    /** Prepares {@code b} and runs it in this JVM; returns the scores of the measured iterations. */
+    private static double[] measure(Benchmark b) throws Exception {
+        Op op = b.setup.prepare();
+        Blackhole bh = new Blackhole();
+        for (int i = 0; i < warmups; i++) op.run(bh);
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long ops = op.run(bh);
+            long elapsed = System.nanoTime() - start;
+            scores[i] = ops * 1e9 / Math.max(1, elapsed);
+        }
+        return scores;
+    }
+
+    /** Runs {@code b} in a child JVM with this JVM's options and returns its scores. */
+    private static double[] fork(Benchmark b, Path dir, int[] sizes) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ProcessHandle.current().info().command()
+                .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(BillingBenchmark.class.getName());
+        cmd.addAll(Arrays.asList("-sizes", Arrays.toString(sizes).replaceAll("[\\[\\] ]", ""),
+                "-wi", String.valueOf(warmups), "-i", String.valueOf(iterations),
+                "-dir", dir.toString(), "-run", b.id()));
+        Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        p.getOutputStream().close();
+        double[] scores = new double[0];
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(SCORE)) scores = concat(scores, new double[]{Double.parseDouble(line.substring(SCORE.length()))});
+                else System.out.println(line);
+            }
+        }
+        if (p.waitFor() != 0) throw new IOException("Fork of " + b.id() + " exited with " + p.exitValue());
+        return scores;
+    }
+
+    private static void report(Benchmark b, double[] scores) {
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double var = Arrays.stream(scores).map(s -> (s - mean) * (s - mean)).sum() / Math.max(1, scores.length - 1);
+        System.out.printf("%-40s %10s %5d %16.3f +- %10.3f  ops/s%n", b.name, b.param, scores.length, mean, Math.sqrt(var));
+    }
+
+    private static double[] concat(double[] a, double[] b) {
+        double[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}
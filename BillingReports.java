@@ -0,0 +1,389 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Aggregation queries over the whole bill history: revenue and tax by month,
+ * units by slab band, top consumers and consumption percentiles.
+ *
+ * Queries run on a {@link ColumnarBillStore} copy of the repository's bills,
+ * split across the common fork-join pool with one accumulator per worker.
+ * The copy is built by the first query. After that the repository hands
+ * every bill it stores to a {@link BillingRepository.BillListener}, which
+ * queues it, and the next query applies the queued bills to the copy, so a
+ * report after a few writes costs those writes rather than the whole
+ * history. Results of the last {@link #MAX_RESULTS} distinct queries are
+ * kept until a bill is applied, so repeated reports on unchanged data cost
+ * nothing; query parameters come from clients, so older results are evicted
+ * rather than kept without bound. A query runs outside the results' lock,
+ * so concurrent first requests for one report may each compute it.
+ *
+ * Amounts are in paisa. Thread-safe; queries run concurrently, and only
+ * wait while bills are being applied to the copy.
+ */
+final class BillingReports {
+
+    /** Folds one row into an accumulator. */
+    private interface RowAdder {
+        void add(long[] acc, int row);
+    }
+
+    private static final int MIN_ROWS_PER_PART = 16_384;
+    private static final int MAX_QUEUED = 1 << 20; // more writes than this between queries rebuild the copy instead
+    private static final int MAX_RESULTS = 64; // distinct queries whose results are kept
+
+    /** Totals for one billing month. */
+    static final class MonthTotals {
+        final String month;
+        final int bills;
+        final long units;
+        final long energy;
+        final long tax;
+        final long total;
+
+        MonthTotals(String month, int bills, long units, long energy, long tax, long total) {
+            this.month = month;
+            this.bills = bills;
+            this.units = units;
+            this.energy = energy;
+            this.tax = tax;
+            this.total = total;
+        }
+    }
+
+    /** Units billed within one slab, and bills whose consumption ends in it. */
+    static final class SlabBand {
+        final int from;
+        final int to; // inclusive, Integer.MAX_VALUE for the open top band
+        final long units;
+        final int bills;
+
+        SlabBand(int from, int to, long units, int bills) {
+            this.from = from;
+            this.to = to;
+            this.units = units;
+            this.bills = bills;
+        }
+
+        String label() {
+            return to == Integer.MAX_VALUE ? from + "+" : from + "-" + to;
+        }
+    }
+
+    /** One customer's consumption over the bills considered. */
+    static final class Consumer {
+        final int customerId;
+        final long units;
+        final long total;
+        final int bills;
+
+        Consumer(int customerId, long units, long total, int bills) {
+            this.customerId = customerId;
+            this.units = units;
+            this.total = total;
+            this.bills = bills;
+        }
+    }
+
+    /** Units-per-bill distribution. */
+    static final class Percentiles {
+        final int count;
+        final double mean;
+        final double[] percentiles;
+        final int[] values; // values[i] is the units at percentiles[i]
+        final int max;
+
+        Percentiles(int count, double mean, double[] percentiles, int[] values, int max) {
+            this.count = count;
+            this.mean = mean;
+            this.percentiles = percentiles;
+            this.values = values;
+            this.max = max;
+        }
+    }
+
+    /** How many bills have each units value, for combining percentiles across shards. */
+    static final class Distribution {
+        final int[] units;   // ascending, distinct
+        final long[] counts; // bills with units[i]
+
+        Distribution(int[] units, long[] counts) {
+            this.units = units;
+            this.counts = counts;
+        }
+    }
+
+    private final BillingRepository repo;
+    private final Map<String, Object> results = new LinkedHashMap<String, Object>(16, 0.75f, true) { // guarded by itself
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_RESULTS;
+        }
+    };
+    private final ReadWriteLock columnsLock = new ReentrantReadWriteLock(); // queries share it, updates exclude them
+    private final Queue<Bill> queued = new ConcurrentLinkedQueue<>(); // stored since the copy was updated
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private volatile boolean stale = true; // no copy yet, or it has to be rebuilt
+    private ColumnarBillStore columns;
+
+    BillingReports(BillingRepository repo) {
+        this.repo = repo;
+        repo.addBillListener(new BillingRepository.BillListener() {
+            @Override
+            public void stored(Bill b) {
+                if (stale) return; // the rebuild copies it
+                queued.add(b);
+                if (queuedCount.incrementAndGet() > MAX_QUEUED) stale = true;
+            }
+
+            @Override
+            public void cleared() {
+                stale = true;
+            }
+        });
+    }
+
+    /** Every month with bills, oldest first where the month can be parsed. */
+    List<MonthTotals> revenueByMonth() {
+        return cached("revenue", c -> {
+            int months = c.months().size();
+            long[] acc = sum(c.size(), months * 5, (a, row) -> {
+                int i = c.monthCode(row) * 5;
+                a[i]++;
+                a[i + 1] += c.units(row);
+                a[i + 2] += c.amount(row, ColumnarBillStore.ENERGY);
+                a[i + 3] += c.amount(row, ColumnarBillStore.TAX);
+                a[i + 4] += c.amount(row, ColumnarBillStore.TOTAL);
+            });
+            List<MonthTotals> out = new ArrayList<>(months);
+            for (int m = 0; m < months; m++) {
+                int i = m * 5;
+                if (acc[i] == 0) continue;
+                out.add(new MonthTotals(c.months().get(m), (int) acc[i], acc[i + 1], acc[i + 2], acc[i + 3], acc[i + 4]));
+            }
+            out.sort(Comparator.comparingInt((MonthTotals t) -> TariffSchedule.monthKey(t.month))
+                    .thenComparing(t -> t.month));
+            return Collections.unmodifiableList(out);
+        });
+    }
+
+    /** Tax over all months; the per-month split is in {@link #revenueByMonth}. */
+    long taxCollected() {
+        long tax = 0;
+        for (MonthTotals t : revenueByMonth()) tax += t.tax;
+        return tax;
+    }
+
+    /** Revenue over all months. */
+    long revenue() {
+        long total = 0;
+        for (MonthTotals t : revenueByMonth()) total += t.total;
+        return total;
+    }
+
+    /**
+     * Consumption split across the slabs of the newest tariff: a 180-unit
+     * bill adds 50, 100 and 30 units to the first three bands.
+     */
+    List<SlabBand> unitsBySlabBand() {
+        TariffSchedule.Version tariff = Tariff.schedule().latest();
+        return cached("slabs:" + tariff.rates, c -> {
+            int[] widths = tariff.slabLimits;
+            int bands = widths.length + 1;
+            int[] lower = new int[bands]; // units before band b
+            for (int b = 1; b < bands; b++) lower[b] = lower[b - 1] + widths[b - 1];
+            long[] acc = sum(c.size(), bands * 2, (a, row) -> {
+                int u = c.units(row);
+                int b = 0;
+                while (b + 1 < bands && u > lower[b + 1]) {
+                    a[b * 2] += widths[b];
+                    b++;
+                }
+                a[b * 2] += Math.max(0, u - lower[b]);
+                a[b * 2 + 1]++;
+            });
+            List<SlabBand> out = new ArrayList<>(bands);
+            for (int b = 0; b < bands; b++) {
+                int to = b + 1 < bands ? lower[b + 1] : Integer.MAX_VALUE;
+                out.add(new SlabBand(lower[b] + 1, to, acc[b * 2], (int) acc[b * 2 + 1]));
+            }
+            return Collections.unmodifiableList(out);
+        });
+    }
+
+    /** The {@code n} customers with the most units, for one month or all of them if month is null. */
+    List<Consumer> topConsumers(int n, String month) {
+        return cached("top:" + n + ":" + month, c -> {
+            int code = month == null ? -1 : c.codeOfMonth(month);
+            if (n <= 0 || month != null && code < 0) return Collections.<Consumer>emptyList();
+            // rows sorted by customer ID, then summed one customer at a time; no array sized by the largest ID
+            long[] keys = IntStream.range(0, c.size()).parallel()
+                    .filter(row -> code < 0 || c.monthCode(row) == code)
+                    .mapToLong(row -> (long) c.customerId(row) << 32 | row).toArray();
+            Arrays.parallelSort(keys);
+            Comparator<Consumer> order = Comparator.comparingLong((Consumer x) -> x.units)
+                    .thenComparing(x -> -x.customerId);
+            PriorityQueue<Consumer> top = new PriorityQueue<>(order); // smallest of the current top n first
+            for (int i = 0; i < keys.length; ) {
+                int id = (int) (keys[i] >> 32);
+                long units = 0, total = 0;
+                int bills = 0;
+                for (; i < keys.length && (int) (keys[i] >> 32) == id; i++) {
+                    int row = (int) keys[i];
+                    units += c.units(row);
+                    total += c.amount(row, ColumnarBillStore.TOTAL);
+                    bills++;
+                }
+                if (top.size() == n && units <= top.peek().units) continue;
+                top.add(new Consumer(id, units, total, bills));
+                if (top.size() > n) top.poll();
+            }
+            List<Consumer> out = new ArrayList<>(top);
+            out.sort(order.reversed());
+            return Collections.unmodifiableList(out);
+        });
+    }
+
+    /** Exact units-per-bill percentiles (nearest rank), for one month or all of them if month is null. */
+    Percentiles consumptionPercentiles(String month, double... percentiles) {
+        return cached("pct:" + month + ":" + Arrays.toString(percentiles), c -> {
+            int code = month == null ? -1 : c.codeOfMonth(month);
+            int[] units;
+            if (month == null) {
+                units = IntStream.range(0, c.size()).parallel().map(c::units).toArray();
+            } else {
+                units = IntStream.range(0, c.size()).parallel()
+                        .filter(row -> c.monthCode(row) == code).map(c::units).toArray();
+            }
+            Arrays.parallelSort(units);
+            int[] values = new int[percentiles.length];
+            for (int i = 0; i < percentiles.length; i++) {
+                if (units.length == 0) break;
+                int rank = (int) Math.ceil(percentiles[i] / 100.0 * units.length);
+                values[i] = units[Math.min(units.length - 1, Math.max(0, rank - 1))];
+            }
+            double mean = units.length == 0 ? 0 : Arrays.stream(units).asLongStream().sum() / (double) units.length;
+            return new Percentiles(units.length, mean, percentiles.clone(), values,
+                    units.length == 0 ? 0 : units[units.length - 1]);
+        });
+    }
+
+    /** Bills per units value, for one month or all of them if month is null. */
+    Distribution unitDistribution(String month) {
+        return cached("dist:" + month, c -> {
+            int code = month == null ? -1 : c.codeOfMonth(month);
+            int[] units = IntStream.range(0, c.size()).parallel()
+                    .filter(row -> month == null || c.monthCode(row) == code).map(c::units).sorted().toArray();
+            int distinct = 0;
+            for (int i = 0; i < units.length; i++) if (i == 0 || units[i] != units[i - 1]) distinct++;
+            int[] values = new int[distinct];
+            long[] counts = new long[distinct];
+            for (int i = 0, d = -1; i < units.length; i++) {
+                if (i == 0 || units[i] != units[i - 1]) values[++d] = units[i];
+                counts[d]++;
+            }
+            return new Distribution(values, counts);
+        });
+    }
+
+    /** Percentiles of a distribution, ranked as {@link #consumptionPercentiles} ranks them. */
+    static Percentiles percentiles(Distribution d, double... percentiles) {
+        long count = 0, sum = 0;
+        for (int i = 0; i < d.units.length; i++) {
+            count += d.counts[i];
+            sum += d.units[i] * d.counts[i];
+        }
+        int[] values = new int[percentiles.length];
+        for (int p = 0; p < percentiles.length && count > 0; p++) {
+            long rank = Math.min(count, Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * count)));
+            int i = 0;
+            long seen = d.counts[0];
+            while (seen < rank) seen += d.counts[++i];
+            values[p] = d.units[i];
+        }
+        return new Percentiles((int) count, count == 0 ? 0 : sum / (double) count, percentiles.clone(), values,
+                count == 0 ? 0 : d.units[d.units.length - 1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String key, Function<ColumnarBillStore, T> query) {
+        update();
+        columnsLock.readLock().lock();
+        try { // results are cleared only under the write lock, so what is found or put here matches the copy
+            synchronized (results) {
+                Object hit = results.get(key);
+                if (hit != null) return (T) hit;
+            }
+            T result;
+            try (Metrics.Timing t = Metrics.REPORT.time()) {
+                t.rows(columns.size());
+                result = query.apply(columns);
+            }
+            synchronized (results) {
+                results.put(key, result);
+            }
+            return result;
+        } finally {
+            columnsLock.readLock().unlock();
+        }
+    }
+
+    /** Applies the queued bills to the copy, building it afresh if there is none or it went stale. */
+    private void update() {
+        if (!stale && queued.isEmpty()) return;
+        columnsLock.writeLock().lock();
+        try {
+            if (stale) {
+                // Writes store bills while holding the repository's shared snapshot lock and bills() takes it
+                // exclusively, so each write is either in the copy or, seeing stale false, in the queue
+                stale = false;
+                queuedCount.set(0);
+                queued.clear();
+                ColumnarBillStore c = new ColumnarBillStore();
+                for (Bill b : repo.bills()) c.add(b);
+                columns = c;
+                synchronized (results) {
+                    results.clear();
+                }
+            }
+            Bill b;
+            int applied = 0;
+            while ((b = queued.poll()) != null) { // per bill in the order stored; add() overwrites by ID
+                columns.add(b);
+                applied++;
+            }
+            if (applied > 0) {
+                queuedCount.addAndGet(-applied);
+                synchronized (results) {
+                    results.clear();
+                }
+            }
+        } finally {
+            columnsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs {@code adder} over every row with one accumulator per fork-join
+     * worker, each over a contiguous range, and adds the accumulators up.
+     * Per-worker rather than per-split accumulators keep wide ones, such as
+     * five slots per month, affordable.
+     */
+    private static long[] sum(int rows, int width, RowAdder adder) {
+        int parts = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), rows / MIN_ROWS_PER_PART));
+        return IntStream.range(0, parts).parallel().mapToObj(p -> {
+            long[] acc = new long[width];
+            int to = (int) ((long) rows * (p + 1) / parts);
+            for (int row = (int) ((long) rows * p / parts); row < to; row++) adder.add(acc, row);
+            return acc;
+        }).reduce((a, b) -> {
+            for (int i = 0; i < a.length; i++) a[i] += b[i];
+            return a;
+        }).orElseGet(() -> new long[width]);
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Customers and bills as seen by the front ends.
+ *
+ * The repository owns ID allocation and bill calculation, so every front end
+ * bills the same way. Stored {@link Customer} and {@link Bill} instances are
+ * never modified: updates store a new instance under the same ID, which lets
+ * callers keep and share the objects they are handed without copying.
+ *
+ * Implementations must be safe for use from several threads.
+ */
+interface BillingRepository {
+
+    /** Customers and bills captured at one instant, both in ID order. */
+    final class Snapshot {
+        final List<Customer> customers;
+        final List<Bill> bills;
+        final Collection<String> unloadedMonths; // months left out, see loadedSnapshot()
+
+        Snapshot(List<Customer> customers, List<Bill> bills) {
+            this(customers, bills, Collections.emptyList());
+        }
+
+        Snapshot(List<Customer> customers, List<Bill> bills, Collection<String> unloadedMonths) {
+            this.customers = customers;
+            this.bills = bills;
+            this.unloadedMonths = unloadedMonths;
+        }
+    }
+
+    /** The bills of one month, kept on disk until first needed; see {@link #putLazy}. */
+    interface Partition {
+        String month();
+
+        /** Lowest bill ID in the partition, so lookups by ID know where to look. */
+        int minBillId();
+
+        int maxBillId();
+
+        /** False only if the partition certainly has no bill with this ID, so lookups by ID can skip it. */
+        boolean mayHoldBill(int billId);
+
+        /** False only if the partition certainly has no bill of this customer. */
+        boolean mayHoldCustomer(int customerId);
+
+        /** Reads the bills; called at most once unless it fails. */
+        List<Bill> load() throws IOException;
+    }
+
+    /** Told about every bill stored, e.g. to keep derived data up to date; see {@link #addBillListener}. */
+    interface BillListener {
+        /**
+         * A bill was stored, by any method. Called on the writing thread with
+         * the repository's locks for that bill held, in the order the writes
+         * to one bill happen, so it must be quick and must not call back.
+         */
+        void stored(Bill b);
+
+        /** Every bill was dropped by {@link #clear}. */
+        void cleared();
+    }
+
+    /** Creates a customer under the next free ID. */
+    Customer addCustomer(String name, String address, String meterNumber, String phone);
+
+    /** Replaces a customer's details; returns the new instance, or null if there is no such customer. */
+    Customer updateCustomer(int id, String name, String address, String meterNumber, String phone);
+
+    /**
+     * Removes a customer; returns false if there is no such customer.
+     *
+     * @throws IllegalStateException if the customer still has bills
+     */
+    boolean removeCustomer(int id);
+
+    /** Stores a customer under its own ID (loading and journal replay). */
+    void putCustomer(Customer c);
+
+    /** Customer with the given ID, or null. */
+    Customer customer(int id);
+
+    /** All customers in ID order. */
+    List<Customer> customers();
+
+    /** IDs of all customers in ID order, without blocking writers; for reading customers one at a time. */
+    int[] customerIds();
+
+    int customerCount();
+
+    /** Customers with this meter number, ignoring case, spaces and dashes; normally at most one. */
+    List<Customer> customersByMeter(String meterNumber);
+
+    /**
+     * Up to {@code limit} customers matching {@code query} by meter number,
+     * phone number, or part of the name or address; see CustomerIndex.
+     */
+    List<Customer> searchCustomers(String query, int limit);
+
+    /**
+     * Calculates and stores a bill under the next free bill ID.
+     *
+     * @throws IllegalArgumentException if the customer does not exist
+     */
+    Bill generateBill(int customerId, String month, int units);
+
+    /**
+     * Stores bills already calculated by the caller under the next free bill
+     * IDs, in list order, and sets each bill's ID; for batch billing. The IDs
+     * are the ones {@link #generateBill} would hand out, so a sharded
+     * repository keeps to its own residue.
+     *
+     * @throws IllegalArgumentException if a customer does not exist; none of the bills is stored then
+     */
+    void addBills(List<Bill> bills);
+
+    /**
+     * Recalculates a bill with new inputs; returns the new instance, or null
+     * if there is no such bill.
+     *
+     * @throws IllegalArgumentException if the customer does not exist
+     */
+    Bill updateBill(int billId, int customerId, String month, int units);
+
+    /** Stores an already calculated bill under its own ID (loading and journal replay). */
+    void putBill(Bill b);
+
+    /**
+     * Stores {@code replacement} only if {@code expected} (same instance) is
+     * still the stored bill with that ID, so a concurrent edit is never overwritten.
+     */
+    boolean replaceBill(Bill expected, Bill replacement);
+
+    /** Stores many customers and bills at once; same as calling the put methods in turn. */
+    void putAll(Iterable<Customer> customers, Iterable<Bill> bills);
+
+    /**
+     * Registers months whose bills are read only when first needed: when the
+     * month is queried, a bill in its ID range is read or written, a bill is
+     * stored into it, or a query spans all bills. A month is therefore either
+     * fully loaded or not at all. Bills already stored under an ID win over
+     * the partition's copy. A partition that cannot be read fails the call
+     * that needed it with an UncheckedIOException, and is tried again next time.
+     */
+    void putLazy(Collection<Partition> partitions);
+
+    /** Bill with the given ID, or null. */
+    Bill bill(int billId);
+
+    /** Bills of one customer, in insertion order. */
+    List<Bill> billsOfCustomer(int customerId);
+
+    /** Bills for one billing month, in insertion order. */
+    List<Bill> billsForMonth(String month);
+
+    /** One of the customer's bills for the month, or null; reads only that month. */
+    Bill billOf(int customerId, String month);
+
+    /** Distinct months that have at least one bill. */
+    List<String> billMonths();
+
+    /** All bills in insertion order. */
+    List<Bill> bills();
+
+    /** Bill at the given position in insertion order. */
+    Bill billAt(int index);
+
+    /** Position of the bill in insertion order, or -1. */
+    int indexOfBill(int billId);
+
+    int billCount();
+
+    /**
+     * Calls {@code l} for every bill stored from now on. Bills are stored
+     * while holding the shared side of the lock that {@link #bills} and
+     * {@link #snapshot} take exclusively, so each write is either in such a
+     * copy or reported to the listener after it.
+     */
+    void addBillListener(BillListener l);
+
+    /** Changes whenever a bill is stored or the repository is cleared; for caching derived data. */
+    long billVersion();
+
+    /** Changes whenever a customer is stored or removed or the repository is cleared. */
+    long customerVersion();
+
+    /** A consistent copy of everything, e.g. for saving. */
+    Snapshot snapshot();
+
+    /** Like {@link #snapshot}, but without reading the months registered by {@link #putLazy} that are still on disk. */
+    Snapshot loadedSnapshot();
+
+    void clear();
+}
@@ -0,0 +1,419 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded HTTP/JSON API over the billing core, bound to localhost.
+ *
+ * Start with: java ElectricityBillSystem --serve [port]  (default 8080)
+ * <pre>
+ *   GET    /customers              all customers
+ *   GET    /customers?q=..[&amp;limit=50]  customers matching a meter number, phone, or part of a name or address
+ *   POST   /customers              {"name","address","meterNumber","phone"}, 201 with the new customer
+ *   GET    /customers/{id}
+ *   PUT    /customers/{id}         same body as POST
+ *   DELETE /customers/{id}         409 while the customer has bills
+ *   GET    /customers/{id}/bills
+ *   GET    /bills[?month=2025-09]  all bills, or the bills of one month
+ *   POST   /bills                  {"customerId","month","units"}, 201 with the calculated bill
+ *   GET    /bills/{id}
+ *   PUT    /bills/{id}             same body as POST; the bill is recalculated
+ *   GET    /bills/{id}/invoice     {"billId":..,"invoice":"..."} rendered by Bill.toInvoiceText
+ *   GET    /reports/revenue        revenue and tax by month
+ *   GET    /reports/slabs          units by slab band
+ *   GET    /reports/top[?n=10&amp;month=2025-09]   top consumers by units
+ *   GET    /reports/percentiles[?month=2025-09]  units-per-bill percentiles
+ *   GET    /reports/units[?month=2025-09]        bills per units value, ascending
+ *   GET    /metrics                plain-text dump of Metrics
+ * </pre>
+ * Report amounts are in paisa; see BillingReports.
+ * Errors are returned as {"error":"..."} with status 400, 404, 405, 409,
+ * 413 (a body over {@link #MAX_BODY} bytes) or 500; behind a ShardCoordinator
+ * also 503 when a shard cannot be reached.
+ *
+ * Each request runs on its own virtual thread when the JDK has them (21+);
+ * older JDKs fall back to a fixed pool. Handlers never block on disk, since
+ * changes go to the repository and the group-committed journal, so either
+ * way thousands of concurrent connections are served from a few carriers.
+ */
+final class BillingServer {
+
+    static final int DEFAULT_PORT = 8080;
+    static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+    static final int SEARCH_LIMIT = 50;
+
+    private static final int BACKLOG = 4096;
+    static final int MAX_BODY = 64 * 1024;
+
+    private final BillingRepository repo;
+    private final BillingStorage storage;
+    private final BillingReports reports;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    BillingServer(BillingRepository repo, BillingStorage storage, int port) throws IOException {
+        this.repo = repo;
+        this.storage = storage;
+        this.reports = new BillingReports(repo);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /** Stops accepting requests, waiting up to a second for those in progress. */
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Virtual-thread-per-task executor where available, looked up reflectively so this builds on Java 17. */
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "http-worker-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (Metrics.Timing t = Metrics.HTTP.time()) {
+            t.bytes(respond(ex));
+        }
+    }
+
+    /** Serves one request and returns the size of the response body. */
+    private long respond(HttpExchange ex) throws IOException {
+        int status;
+        String body;
+        String contentType = "application/json; charset=utf-8";
+        try {
+            String[] path = segments(ex.getRequestURI().getRawPath());
+            String method = ex.getRequestMethod();
+            if (path.length == 1 && path[0].equals("metrics")) {
+                if (!method.equals("GET")) throw notAllowed();
+                ByteArrayOutputStream text = new ByteArrayOutputStream();
+                Metrics.dump(new PrintStream(text, true, StandardCharsets.UTF_8));
+                body = text.toString(StandardCharsets.UTF_8);
+                contentType = "text/plain; charset=utf-8";
+            } else if (path.length >= 1 && path[0].equals("customers")) {
+                body = customers(method, path, ex);
+            } else if (path.length >= 1 && path[0].equals("bills")) {
+                body = bills(method, path, ex);
+            } else if (path.length == 2 && path[0].equals("reports")) {
+                if (!method.equals("GET")) throw notAllowed();
+                body = report(path[1], ex);
+            } else {
+                throw new HttpError(404, "No such resource");
+            }
+            status = method.equals("POST") ? 201 : 200;
+        } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) { // includes NumberFormatException
+            status = 400;
+            body = error(e.getMessage());
+        } catch (IllegalStateException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+            body = error(String.valueOf(e.getMessage()));
+        }
+        if (status >= 400) Metrics.HTTP_ERRORS.increment();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+        return bytes.length;
+    }
+
+    private String customers(String method, String[] path, HttpExchange ex) throws IOException {
+        if (path.length == 1) {
+            switch (method) {
+                case "GET":
+                    String q = queryParam(ex, "q");
+                    String limit = queryParam(ex, "limit");
+                    List<String> out = new ArrayList<>();
+                    for (Customer c : q == null ? repo.customers()
+                            : repo.searchCustomers(q, limit == null ? SEARCH_LIMIT : Integer.parseInt(limit))) {
+                        out.add(toJson(c));
+                    }
+                    return Json.array(out);
+                case "POST":
+                    Map<String, Object> in = readBody(ex);
+                    Customer c = repo.addCustomer(string(in, "name"), string(in, "address"),
+                            string(in, "meterNumber"), string(in, "phone"));
+                    storage.record(repo, c);
+                    return toJson(c);
+                default:
+                    throw notAllowed();
+            }
+        }
+        int id = id(path[1]);
+        if (path.length == 3 && path[2].equals("bills")) {
+            if (!method.equals("GET")) throw notAllowed();
+            if (repo.customer(id) == null) throw notFound("customer", id);
+            List<String> out = new ArrayList<>();
+            for (Bill b : repo.billsOfCustomer(id)) out.add(toJson(b));
+            return Json.array(out);
+        }
+        if (path.length != 2) throw new HttpError(404, "No such resource");
+        switch (method) {
+            case "GET": {
+                Customer c = repo.customer(id);
+                if (c == null) throw notFound("customer", id);
+                return toJson(c);
+            }
+            case "PUT": {
+                Map<String, Object> in = readBody(ex);
+                Customer c = repo.updateCustomer(id, string(in, "name"), string(in, "address"),
+                        string(in, "meterNumber"), string(in, "phone"));
+                if (c == null) throw notFound("customer", id);
+                storage.record(repo, c);
+                return toJson(c);
+            }
+            case "DELETE": {
+                Customer c = repo.customer(id);
+                if (c == null || !repo.removeCustomer(id)) throw notFound("customer", id);
+                storage.recordCustomerRemoved(repo, id);
+                return toJson(c);
+            }
+            default:
+                throw notAllowed();
+        }
+    }
+
+    private String bills(String method, String[] path, HttpExchange ex) throws IOException {
+        if (path.length == 1) {
+            switch (method) {
+                case "GET":
+                    String month = queryParam(ex, "month");
+                    List<String> out = new ArrayList<>();
+                    for (Bill b : month == null ? repo.bills() : repo.billsForMonth(month)) out.add(toJson(b));
+                    return Json.array(out);
+                case "POST":
+                    Map<String, Object> in = readBody(ex);
+                    Bill b = repo.generateBill(integer(in, "customerId"), string(in, "month"), units(in));
+                    storage.record(repo, b);
+                    return toJson(b);
+                default:
+                    throw notAllowed();
+            }
+        }
+        int id = id(path[1]);
+        if (path.length == 3 && path[2].equals("invoice")) {
+            if (!method.equals("GET")) throw notAllowed();
+            Bill b = repo.bill(id);
+            if (b == null) throw notFound("bill", id);
+            Customer c = repo.customer(b.customerId);
+            String text = b.toInvoiceText(c != null ? c : new Customer(0, "Unknown", "", "", ""));
+            return new Json.Builder().field("billId", id).field("invoice", text).build();
+        }
+        if (path.length != 2) throw new HttpError(404, "No such resource");
+        switch (method) {
+            case "GET": {
+                Bill b = repo.bill(id);
+                if (b == null) throw notFound("bill", id);
+                return toJson(b);
+            }
+            case "PUT": {
+                Map<String, Object> in = readBody(ex);
+                Bill b = repo.updateBill(id, integer(in, "customerId"), string(in, "month"), units(in));
+                if (b == null) throw notFound("bill", id);
+                storage.record(repo, b);
+                return toJson(b);
+            }
+            default:
+                throw notAllowed();
+        }
+    }
+
+    private String report(String name, HttpExchange ex) {
+        String month = queryParam(ex, "month");
+        switch (name) {
+            case "revenue":
+                return revenueJson(reports.revenueByMonth());
+            case "slabs":
+                return slabsJson(reports.unitsBySlabBand());
+            case "top":
+                String n = queryParam(ex, "n");
+                return topJson(reports.topConsumers(n == null ? 10 : Integer.parseInt(n), month));
+            case "percentiles":
+                return percentilesJson(reports.consumptionPercentiles(month, PERCENTILES));
+            case "units":
+                return unitsJson(reports.unitDistribution(month));
+            default:
+                throw new HttpError(404, "No such report: " + name);
+        }
+    }
+
+    // ---- Report encoding, shared with ShardCoordinator, which merges the shards' reports ----
+
+    static String revenueJson(List<BillingReports.MonthTotals> months) {
+        List<String> out = new ArrayList<>();
+        long tax = 0, total = 0;
+        for (BillingReports.MonthTotals t : months) {
+            out.add(new Json.Builder().field("month", t.month).field("bills", t.bills).field("units", t.units)
+                    .field("energy", t.energy).field("tax", t.tax).field("total", t.total).build());
+            tax += t.tax;
+            total += t.total;
+        }
+        return new Json.Builder().field("tax", tax).field("total", total).raw("months", Json.array(out)).build();
+    }
+
+    static String slabsJson(List<BillingReports.SlabBand> bands) {
+        List<String> out = new ArrayList<>();
+        for (BillingReports.SlabBand b : bands) {
+            out.add(new Json.Builder().field("band", b.label()).field("units", b.units).field("bills", b.bills).build());
+        }
+        return Json.array(out);
+    }
+
+    static String topJson(List<BillingReports.Consumer> top) {
+        List<String> out = new ArrayList<>();
+        for (BillingReports.Consumer c : top) {
+            out.add(new Json.Builder().field("customerId", c.customerId).field("units", c.units)
+                    .field("total", c.total).field("bills", c.bills).build());
+        }
+        return Json.array(out);
+    }
+
+    static String percentilesJson(BillingReports.Percentiles p) {
+        Json.Builder values = new Json.Builder();
+        for (int i = 0; i < p.percentiles.length; i++) {
+            values.field("p" + BigDecimal.valueOf(p.percentiles[i]).stripTrailingZeros().toPlainString(), p.values[i]);
+        }
+        return new Json.Builder().field("count", p.count).field("mean", BigDecimal.valueOf(p.mean).setScale(1, RoundingMode.HALF_UP))
+                .field("max", p.max).raw("units", values.build()).build();
+    }
+
+    /** {"units":[[value,bills],...]} in ascending units. */
+    static String unitsJson(BillingReports.Distribution d) {
+        List<String> out = new ArrayList<>(d.units.length);
+        for (int i = 0; i < d.units.length; i++) out.add("[" + d.units[i] + "," + d.counts[i] + "]");
+        return new Json.Builder().raw("units", Json.array(out)).build();
+    }
+
+    static String toJson(Customer c) {
+        return new Json.Builder().field("id", c.id).field("name", c.name).field("address", c.address)
+                .field("meterNumber", c.meterNumber).field("phone", c.phone).build();
+    }
+
+    static String toJson(Bill b) {
+        return new Json.Builder().field("billId", b.billId).field("customerId", b.customerId)
+                .field("month", b.month).field("units", b.units)
+                .field("energyCharge", b.energyCharge).field("fixedCharge", b.fixedCharge)
+                .field("meterRent", b.meterRent).field("tax", b.tax).field("total", b.total).build();
+    }
+
+    private static Map<String, Object> readBody(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) throw new HttpError(413, "Request body too large");
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String string(Map<String, Object> in, String field) {
+        Object v = in.get(field);
+        if (!(v instanceof String)) throw new IllegalArgumentException("\"" + field + "\" must be a string");
+        return (String) v;
+    }
+
+    private static int integer(Map<String, Object> in, String field) {
+        Object v = in.get(field);
+        if (!(v instanceof Long) || (Long) v != ((Long) v).intValue()) {
+            throw new IllegalArgumentException("\"" + field + "\" must be an integer");
+        }
+        return ((Long) v).intValue();
+    }
+
+    private static int units(Map<String, Object> in) {
+        int units = integer(in, "units");
+        if (units < 0) throw new IllegalArgumentException("\"units\" must not be negative");
+        return units;
+    }
+
+    static String queryParam(HttpExchange ex, String name) {
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            if (key.equals(name)) return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    static String[] segments(String rawPath) {
+        List<String> out = new ArrayList<>();
+        for (String s : rawPath.split("/")) {
+            if (!s.isEmpty()) out.add(URLDecoder.decode(s, StandardCharsets.UTF_8));
+        }
+        return out.toArray(new String[0]);
+    }
+
+    static int id(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new HttpError(404, "No such resource");
+        }
+    }
+
+    static String error(String message) {
+        return new Json.Builder().field("error", message).build();
+    }
+
+    private static HttpError notFound(String what, int id) {
+        return new HttpError(404, "No " + what + " with id " + id);
+    }
+
+    static HttpError notAllowed() {
+        return new HttpError(405, "Method not allowed");
+    }
+
+    /** Ends a request with the given status. */
+    static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+}
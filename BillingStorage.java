@@ -0,0 +1,261 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Files behind a {@link BillingRepository}: a snapshot (customers.csv and
+ * bills.csv, billing.snap in binary mode, or customers.csv and one bills file
+ * per month in partitioned mode; see {@link BillPartitions}) plus the
+ * {@link WriteAheadLog} of changes made since.
+ *
+ * Front ends change the repository first and then {@link #record} the
+ * change. Recording journals the instance the repository holds at that
+ * moment, one record at a time, so when two threads change the same
+ * customer or bill the journal ends with the newer version whichever of
+ * them records first. A snapshot taken by {@link #save} with the journal
+ * open is captured on the journal's writer thread after the journal
+ * generation it replaces is closed, so it includes every change journaled
+ * there; saving never holds up recording.
+ *
+ * A tariffs.csv in the directory is installed as the tariff schedule on load.
+ *
+ * In partitioned mode loading leaves the bills on disk until a month is
+ * needed, and saving rewrites only the months that changed, and
+ * customers.csv only if a customer did.
+ *
+ * Settings: -Dbilling.dir=&lt;dir&gt; (default: working directory) and
+ * -Dbilling.snapshot=binary|partitioned.
+ */
+final class BillingStorage implements Closeable {
+
+    static final String CUSTOMERS_FILE = "customers.csv";
+    static final String BILLS_FILE = "bills.csv";
+    static final String SNAPSHOT_FILE = "billing.snap";
+
+    /** How the snapshot is stored. */
+    enum Format { CSV, BINARY, PARTITIONED }
+
+    private final Path dir;
+    private final Format format;
+    private final BillPartitions partitions;
+    private volatile long customersOnDisk = -1; // partitioned mode: repo.customerVersion() as last read or written
+    private WriteAheadLog journal;
+
+    BillingStorage(Path dir, boolean binary) {
+        this(dir, binary ? Format.BINARY : Format.CSV);
+    }
+
+    BillingStorage(Path dir, Format format) {
+        this.dir = dir;
+        this.format = format;
+        this.partitions = new BillPartitions(dir);
+    }
+
+    static BillingStorage fromSystemProperties() {
+        String snapshot = System.getProperty("billing.snapshot", "csv");
+        return new BillingStorage(Paths.get(System.getProperty("billing.dir", ".")),
+                "binary".equals(snapshot) ? Format.BINARY
+                        : "partitioned".equals(snapshot) ? Format.PARTITIONED : Format.CSV);
+    }
+
+    Path customersFile() { return dir.resolve(CUSTOMERS_FILE); }
+    /** The CSV format's bills; the other formats only touch it when converting, and writes go through save. */
+    Path billsFile() { return dir.resolve(BILLS_FILE); }
+    Path snapshotFile() { return dir.resolve(SNAPSHOT_FILE); }
+    Path tariffsFile() { return dir.resolve(TariffSchedule.FILE); }
+    Path dir() { return dir; }
+
+    /** Installs the directory's tariffs and replaces the repository's contents with the newest snapshot plus the journal. */
+    void load(BillingRepository repo, Consumer<String> stage) throws IOException {
+        WriteAheadLog j = journal;
+        if (j != null) j.flush(); // so replay sees every change recorded so far
+        if (Files.exists(tariffsFile())) Tariff.install(TariffSchedule.load(tariffsFile()));
+        try (Metrics.Timing t = Metrics.LOAD.time()) {
+            repo.clear();
+            if (format == Format.BINARY && Files.exists(snapshotFile())) {
+                stage.accept("Loading snapshot...");
+                readSnapshot(repo);
+                t.bytes(sizeOf(snapshotFile()));
+            } else if (format == Format.PARTITIONED && Files.exists(partitions.manifestFile())) {
+                stage.accept("Loading customers...");
+                List<Customer> cs = Files.exists(customersFile())
+                        ? MappedCsv.load(customersFile(), Customer::fromFields) : new ArrayList<>();
+                repo.putAll(cs, Collections.emptyList());
+                customersOnDisk = repo.customerVersion();
+                partitions.register(repo);
+                t.bytes(sizeOf(customersFile()) + sizeOf(partitions.manifestFile()));
+            } else {
+                readCsv(repo, stage);
+                t.bytes(sizeOf(customersFile()) + sizeOf(billsFile()));
+            }
+            stage.accept("Replaying journal...");
+            replayJournal(repo);
+            // billCount() would read every month still on disk
+            t.rows(repo.customerCount() + (format == Format.PARTITIONED ? repo.loadedSnapshot().bills.size() : repo.billCount()));
+        }
+    }
+
+    /** Adds the contents of customers.csv and bills.csv, if present. */
+    void readCsv(BillingRepository repo, Consumer<String> stage) throws IOException {
+        List<Customer> cs = new ArrayList<>();
+        List<Bill> bs = new ArrayList<>();
+        if (Files.exists(customersFile())) {
+            stage.accept("Loading customers...");
+            cs = MappedCsv.load(customersFile(), Customer::fromFields);
+        }
+        if (Files.exists(billsFile())) {
+            stage.accept("Loading bills...");
+            bs = MappedCsv.load(billsFile(), Bill::fromFields);
+        }
+        repo.putAll(cs, bs);
+    }
+
+    /** Adds the contents of the binary snapshot. */
+    void readSnapshot(BillingRepository repo) throws IOException {
+        BinarySnapshot.Data data = BinarySnapshot.read(snapshotFile());
+        List<Bill> bs = new ArrayList<>(data.bills.size());
+        ColumnarBillStore.Row r = data.bills.cursor();
+        while (r.next()) bs.add(r.toBill());
+        repo.putAll(data.customers, bs);
+    }
+
+    /** Applies journal records on top of what is loaded; records are upserts by id. */
+    int replayJournal(BillingRepository repo) throws IOException {
+        return WriteAheadLog.replay(dir, (type, csv) -> {
+            if (type == WriteAheadLog.CUSTOMER) repo.putCustomer(Customer.fromCSV(csv));
+            else if (type == WriteAheadLog.BILL) repo.putBill(Bill.fromCSV(csv));
+            else if (type == WriteAheadLog.CUSTOMER_REMOVED) repo.removeCustomer(Integer.parseInt(csv));
+        });
+    }
+
+    void writeCsv(BillingRepository.Snapshot s) throws IOException {
+        List<String> customerLines = new ArrayList<>(s.customers.size() + 1);
+        customerLines.add(Customer.CSV_HEADER);
+        for (Customer c : s.customers) customerLines.add(c.toCSV());
+        WriteAheadLog.writeAtomically(customersFile(), customerLines);
+
+        List<String> billLines = new ArrayList<>(s.bills.size() + 1);
+        billLines.add(Bill.CSV_HEADER);
+        for (Bill b : s.bills) billLines.add(b.toCSV());
+        WriteAheadLog.writeAtomically(billsFile(), billLines);
+    }
+
+    /** Writes customers.csv if a customer changed and the bills files of the months that changed. */
+    private long writePartitioned(BillingRepository.Snapshot s, long customerVersion) throws IOException {
+        long written = 0;
+        if (customersOnDisk != customerVersion) {
+            List<String> lines = new ArrayList<>(s.customers.size() + 1);
+            lines.add(Customer.CSV_HEADER);
+            for (Customer c : s.customers) lines.add(c.toCSV());
+            WriteAheadLog.writeAtomically(customersFile(), lines);
+            written += sizeOf(customersFile());
+            customersOnDisk = customerVersion;
+        }
+        return written + partitions.save(s);
+    }
+
+    void writeSnapshot(BillingRepository.Snapshot s) throws IOException {
+        ColumnarBillStore columns = new ColumnarBillStore();
+        for (Bill b : s.bills) columns.add(b);
+        BinarySnapshot.write(snapshotFile(), s.customers, columns);
+    }
+
+    /** Stores {@code s} as the directory's tariffs.csv and installs it. */
+    void installTariffs(TariffSchedule s) throws IOException {
+        s.write(tariffsFile());
+        Tariff.install(s);
+    }
+
+    /** Starts journaling changes; until then {@link #record} does nothing. */
+    synchronized void openJournal() throws IOException {
+        if (journal == null) journal = new WriteAheadLog(dir);
+    }
+
+    synchronized boolean journaling() {
+        return journal != null;
+    }
+
+    /** Journals the customer as now stored in {@code repo}, compacting in the background once the journal is large. */
+    synchronized void record(BillingRepository repo, Customer c) throws IOException {
+        if (journal == null) return;
+        Customer stored = repo.customer(c.id);
+        if (stored != null) record(repo, WriteAheadLog.CUSTOMER, stored.toCSV()); // else removed, and that is journaled next
+    }
+
+    /** Journals the bill as now stored in {@code repo}, compacting in the background once the journal is large. */
+    synchronized void record(BillingRepository repo, Bill b) throws IOException {
+        if (journal == null) return;
+        Bill stored = repo.bill(b.billId);
+        if (stored != null) record(repo, WriteAheadLog.BILL, stored.toCSV());
+    }
+
+    /**
+     * Journals bills a bulk load such as batch billing has just stored, as
+     * now stored in {@code repo}. It never compacts, however large the
+     * journal grows, so the caller saves once when the load is done.
+     */
+    synchronized void recordBulk(BillingRepository repo, List<Bill> bills) throws IOException {
+        if (journal == null) return;
+        for (Bill b : bills) {
+            Bill stored = repo.bill(b.billId);
+            if (stored != null) journal.append(WriteAheadLog.BILL, stored.toCSV());
+        }
+    }
+
+    /** Journals the removal of a customer. */
+    synchronized void recordCustomerRemoved(BillingRepository repo, int customerId) throws IOException {
+        record(repo, WriteAheadLog.CUSTOMER_REMOVED, String.valueOf(customerId));
+    }
+
+    /**
+     * Writes a snapshot of {@code repo}. With a journal open it is captured
+     * and written on the journal's writer thread and this returns at once;
+     * otherwise it is written before this returns.
+     */
+    synchronized Future<?> save(BillingRepository repo) throws IOException {
+        WriteAheadLog.SnapshotWriter writer = () -> {
+            long customerVersion = repo.customerVersion(); // before the snapshot: a write in between only costs a rewrite
+            BillingRepository.Snapshot s = format == Format.PARTITIONED ? repo.loadedSnapshot() : repo.snapshot();
+            try (Metrics.Timing t = Metrics.SAVE.time()) {
+                t.rows(s.customers.size() + s.bills.size());
+                if (format == Format.BINARY) {
+                    writeSnapshot(s);
+                    t.bytes(sizeOf(snapshotFile()));
+                } else if (format == Format.PARTITIONED) {
+                    t.bytes(writePartitioned(s, customerVersion));
+                } else {
+                    writeCsv(s);
+                    t.bytes(sizeOf(customersFile()) + sizeOf(billsFile()));
+                }
+            }
+        };
+        if (journal == null) {
+            writer.write();
+            return CompletableFuture.completedFuture(null);
+        }
+        return journal.compact(writer);
+    }
+
+    /** Waits for pending snapshots and flushes and closes the journal; safe to call twice. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal == null) return;
+        journal.close();
+    }
+
+    private void record(BillingRepository repo, char type, String csv) throws IOException {
+        if (journal == null) return;
+        journal.append(type, csv);
+        if (journal.needsCompaction()) save(repo);
+    }
+
+    private static long sizeOf(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Versioned binary snapshot of customers and bills.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   magic "EBSN", int version, int customerCount, int monthCount, int billCount
+ *   customers: int id, then name, address, meter, phone as (int length, UTF-8 bytes)
+ *   months:    (int length, UTF-8 bytes), index = month code
+ *   bills:     fixed 56-byte records: int billId, customerId, monthCode, units,
+ *              long energy, fixed, meterRent, tax, total (paisa)
+ *   trailer:   long CRC32C of every byte before it
+ * </pre>
+ * Nothing is formatted or parsed as text, so save and load cost little more
+ * than the I/O. Files are written to a temporary name and moved into place.
+ */
+final class BinarySnapshot {
+
+    static final int VERSION = 1;
+    private static final int MAGIC = 0x4542534E; // "EBSN"
+    private static final int BILL_RECORD = 4 * 4 + 5 * 8;
+    private static final int BUFFER = 1 << 20;
+
+    /** Contents of a snapshot file. */
+    static final class Data {
+        final List<Customer> customers;
+        final ColumnarBillStore bills;
+
+        Data(List<Customer> customers, ColumnarBillStore bills) {
+            this.customers = customers;
+            this.bills = bills;
+        }
+    }
+
+    private BinarySnapshot() {
+    }
+
+    static void write(Path file, Collection<Customer> customers, ColumnarBillStore bills) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        List<String> months = bills.months();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = new Writer(ch);
+            w.putInt(MAGIC);
+            w.putInt(VERSION);
+            w.putInt(customers.size());
+            w.putInt(months.size());
+            w.putInt(bills.size());
+            for (Customer c : customers) {
+                w.putInt(c.id);
+                w.putString(c.name);
+                w.putString(c.address);
+                w.putString(c.meterNumber);
+                w.putString(c.phone);
+            }
+            for (String m : months) w.putString(m);
+            ColumnarBillStore.Row r = bills.cursor();
+            while (r.next()) {
+                w.ensure(BILL_RECORD);
+                w.buf.putInt(r.billId()).putInt(r.customerId()).putInt(bills.monthCode(r.row())).putInt(r.units())
+                        .putLong(r.energyPaisa()).putLong(r.fixedPaisa()).putLong(r.meterRentPaisa())
+                        .putLong(r.taxPaisa()).putLong(r.totalPaisa());
+            }
+            w.finish();
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Data read(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            Reader rd = new Reader(ch, ch.size() - 8);
+            if (rd.getInt() != MAGIC) throw new IOException(file + " is not a billing snapshot");
+            int version = rd.getInt();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+            int customerCount = rd.getInt();
+            int monthCount = rd.getInt();
+            int billCount = rd.getInt();
+
+            List<Customer> customers = new ArrayList<>(customerCount);
+            for (int i = 0; i < customerCount; i++) {
+                int id = rd.getInt();
+                customers.add(new Customer(id, rd.getString(), rd.getString(),
+                        rd.getString(), rd.getString()));
+            }
+            String[] months = new String[monthCount];
+            for (int i = 0; i < monthCount; i++) months[i] = rd.getString();
+
+            ColumnarBillStore bills = new ColumnarBillStore();
+            for (int i = 0; i < billCount; i++) {
+                rd.ensure(BILL_RECORD);
+                ByteBuffer b = rd.buf;
+                int billId = b.getInt(), customerId = b.getInt(), monthCode = b.getInt(), units = b.getInt();
+                if (monthCode < 0 || monthCode >= monthCount) throw new IOException("Bad month code in bill " + billId);
+                bills.add(billId, customerId, months[monthCode], units,
+                        b.getLong(), b.getLong(), b.getLong(), b.getLong(), b.getLong());
+            }
+            rd.verifyChecksum();
+            return new Data(customers, bills);
+        }
+    }
+
+    /** Buffered channel writer that checksums everything it writes. */
+    private static final class Writer {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        final CRC32C crc = new CRC32C();
+
+        Writer(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void ensure(int n) throws IOException {
+            if (buf.remaining() < n) drain();
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            int off = 0;
+            while (off < bytes.length) {
+                if (!buf.hasRemaining()) drain();
+                int n = Math.min(buf.remaining(), bytes.length - off);
+                buf.put(bytes, off, n);
+                off += n;
+            }
+        }
+
+        void finish() throws IOException {
+            drain();
+            buf.putLong(crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    /** Buffered channel reader over the checksummed part of the file. */
+    private static final class Reader {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        final CRC32C crc = new CRC32C();
+        final long payloadEnd;
+        long pos;
+
+        Reader(FileChannel ch, long payloadEnd) throws IOException {
+            if (payloadEnd < 0) throw new IOException("Snapshot truncated");
+            this.ch = ch;
+            this.payloadEnd = payloadEnd;
+            buf.limit(0);
+        }
+
+        void ensure(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            buf.compact();
+            while (buf.position() < n) {
+                int want = (int) Math.min(buf.remaining(), payloadEnd - pos);
+                if (want <= 0) throw new IOException("Snapshot truncated");
+                ByteBuffer slice = buf.duplicate();
+                slice.limit(slice.position() + want);
+                int read = ch.read(slice, pos);
+                if (read <= 0) throw new IOException("Snapshot truncated");
+                ByteBuffer fresh = buf.duplicate();
+                fresh.limit(fresh.position() + read);
+                crc.update(fresh);
+                buf.position(buf.position() + read);
+                pos += read;
+            }
+            buf.flip();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buf.getInt();
+        }
+
+        String getString() throws IOException {
+            int len = getInt();
+            if (len < 0) throw new IOException("Bad string length " + len);
+            byte[] bytes = new byte[len];
+            int off = 0;
+            while (off < len) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), len - off);
+                buf.get(bytes, off, n);
+                off += n;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void verifyChecksum() throws IOException {
+            if (buf.hasRemaining() || pos != payloadEnd) throw new IOException("Trailing data in snapshot");
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            while (trailer.hasRemaining()) {
+                if (ch.read(trailer, payloadEnd + trailer.position()) <= 0) throw new IOException("Snapshot truncated");
+            }
+            trailer.flip();
+            if (trailer.getLong() != crc.getValue()) throw new IOException("Snapshot checksum mismatch");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Bill history kept as parallel primitive arrays instead of Bill objects.
+ *
+ * Each bill costs four ints (id, customer, units, month code) and five
+ * longs of paisa amounts, about 56 bytes, against several hundred for a
+ * Bill with its BigDecimals and month String. Months are dictionary-encoded:
+ * every distinct month string is stored once and bills refer to it by code.
+ *
+ * Bills are read through {@link Row}, a flyweight that only holds a row
+ * number; use {@link #at} for a fresh view or {@link #cursor} to walk rows
+ * without allocating. A full Bill can be materialised on demand with
+ * {@link Row#toBill}.
+ *
+ * Not thread-safe for writes; concurrent readers are fine once loading is done.
+ */
+final class ColumnarBillStore {
+
+    /** Amount columns, used with {@link #amount}. */
+    static final int ENERGY = 0, FIXED = 1, METER_RENT = 2, TAX = 3, TOTAL = 4;
+    private static final int AMOUNTS = 5;
+
+    private int size;
+    private int[] billIds = new int[16];
+    private int[] customerIds = new int[16];
+    private int[] units = new int[16];
+    private int[] monthCodes = new int[16];
+    private long[] amounts = new long[16 * AMOUNTS]; // row-major, paisa
+
+    private final List<String> months = new ArrayList<>();
+    private final Map<String, Integer> monthCodeOf = new HashMap<>();
+
+    // open-addressing billId -> row index; slots hold row + 1, 0 means empty
+    private int[] idSlots = new int[32];
+
+    /** Appends a bill and returns its row number; an existing bill ID is overwritten in place. */
+    int add(int billId, int customerId, String month, int unitCount,
+            long energy, long fixed, long meterRent, long tax, long total) {
+        int row = rowOf(billId);
+        if (row < 0) {
+            ensureCapacity(size + 1);
+            row = size++;
+            billIds[row] = billId;
+            insertId(billId, row);
+        }
+        customerIds[row] = customerId;
+        units[row] = unitCount;
+        monthCodes[row] = monthCode(month);
+        int a = row * AMOUNTS;
+        amounts[a + ENERGY] = energy;
+        amounts[a + FIXED] = fixed;
+        amounts[a + METER_RENT] = meterRent;
+        amounts[a + TAX] = tax;
+        amounts[a + TOTAL] = total;
+        return row;
+    }
+
+    /** Copies a calculated Bill into the store. */
+    int add(Bill b) {
+        return add(b.billId, b.customerId, b.month, b.units, toPaisa(b.energyCharge), toPaisa(b.fixedCharge),
+                toPaisa(b.meterRent), toPaisa(b.tax), toPaisa(b.total));
+    }
+
+    /** Appends every row of {@code other}, re-encoding its months. */
+    void addAll(ColumnarBillStore other) {
+        ensureCapacity(size + other.size);
+        for (int r = 0; r < other.size; r++) {
+            int a = r * AMOUNTS;
+            add(other.billIds[r], other.customerIds[r], other.months.get(other.monthCodes[r]), other.units[r],
+                    other.amounts[a], other.amounts[a + 1], other.amounts[a + 2], other.amounts[a + 3], other.amounts[a + 4]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Row number of the given bill ID, or -1. */
+    int rowOf(int billId) {
+        int mask = idSlots.length - 1;
+        for (int i = mix(billId) & mask; ; i = (i + 1) & mask) {
+            int slot = idSlots[i];
+            if (slot == 0) return -1;
+            if (billIds[slot - 1] == billId) return slot - 1;
+        }
+    }
+
+    int billId(int row) { return billIds[checked(row)]; }
+    int customerId(int row) { return customerIds[checked(row)]; }
+    int units(int row) { return units[checked(row)]; }
+    int monthCode(int row) { return monthCodes[checked(row)]; }
+    String month(int row) { return months.get(monthCodes[checked(row)]); }
+
+    /** One of ENERGY, FIXED, METER_RENT, TAX or TOTAL for a row, in paisa. */
+    long amount(int row, int column) {
+        return amounts[checked(row) * AMOUNTS + column];
+    }
+
+    /** Distinct months in first-seen order; index is the month code. */
+    List<String> months() {
+        return Collections.unmodifiableList(months);
+    }
+
+    /** Code of a month already in the store, or -1. */
+    int codeOfMonth(String month) {
+        Integer code = monthCodeOf.get(month);
+        return code == null ? -1 : code;
+    }
+
+    /** A new flyweight view of one row. */
+    Row at(int row) {
+        return new Row(this, checked(row));
+    }
+
+    /** A reusable view positioned before the first row; see {@link Row#next}. */
+    Row cursor() {
+        return new Row(this, -1);
+    }
+
+    /** Loads bills.csv straight into columns, parsing chunks in parallel. */
+    static ColumnarBillStore load(Path billsCsv) throws IOException {
+        List<ColumnarBillStore> parts = MappedCsv.loadChunks(billsCsv, ColumnarBillStore::new, (st, f) ->
+                st.add(f.nextInt(), f.nextInt(), f.nextString(), f.nextInt(), f.nextScaled(2), f.nextScaled(2),
+                        f.nextScaled(2), f.nextScaled(2), f.nextScaled(2)));
+        if (parts.size() == 1) return parts.get(0);
+        ColumnarBillStore store = new ColumnarBillStore();
+        for (ColumnarBillStore part : parts) store.addAll(part);
+        return store;
+    }
+
+    static long toPaisa(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /** Flyweight over one row of the store. */
+    static final class Row {
+        private final ColumnarBillStore store;
+        private int row;
+
+        private Row(ColumnarBillStore store, int row) {
+            this.store = store;
+            this.row = row;
+        }
+
+        /** Moves to the next row; false once past the end. */
+        boolean next() {
+            return ++row < store.size;
+        }
+
+        Row moveTo(int row) {
+            this.row = store.checked(row);
+            return this;
+        }
+
+        int row() { return row; }
+        int billId() { return store.billIds[row]; }
+        int customerId() { return store.customerIds[row]; }
+        int units() { return store.units[row]; }
+        String month() { return store.months.get(store.monthCodes[row]); }
+        long energyPaisa() { return store.amounts[row * AMOUNTS + ENERGY]; }
+        long fixedPaisa() { return store.amounts[row * AMOUNTS + FIXED]; }
+        long meterRentPaisa() { return store.amounts[row * AMOUNTS + METER_RENT]; }
+        long taxPaisa() { return store.amounts[row * AMOUNTS + TAX]; }
+        long totalPaisa() { return store.amounts[row * AMOUNTS + TOTAL]; }
+
+        /** Materialises a standalone Bill with the same values. */
+        Bill toBill() {
+            Bill b = new Bill(billId(), customerId(), month(), units());
+            b.energyCharge = TariffTable.toAmount(energyPaisa());
+            b.fixedCharge = TariffTable.toAmount(fixedPaisa());
+            b.meterRent = TariffTable.toAmount(meterRentPaisa());
+            b.tax = TariffTable.toAmount(taxPaisa());
+            b.total = TariffTable.toAmount(totalPaisa());
+            return b;
+        }
+    }
+
+    private int monthCode(String month) {
+        Integer code = monthCodeOf.get(month);
+        if (code == null) {
+            code = months.size();
+            month = month.intern();
+            months.add(month);
+            monthCodeOf.put(month, code);
+        }
+        return code;
+    }
+
+    private int checked(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        return row;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > billIds.length) {
+            int cap = Math.max(n, billIds.length + (billIds.length >> 1));
+            billIds = Arrays.copyOf(billIds, cap);
+            customerIds = Arrays.copyOf(customerIds, cap);
+            units = Arrays.copyOf(units, cap);
+            monthCodes = Arrays.copyOf(monthCodes, cap);
+            amounts = Arrays.copyOf(amounts, cap * AMOUNTS);
+        }
+        if (n * 2 > idSlots.length) rehash(Integer.highestOneBit(n * 2 - 1) << 1);
+    }
+
+    private void rehash(int capacity) {
+        idSlots = new int[capacity];
+        for (int r = 0; r < size; r++) insertId(billIds[r], r);
+    }
+
+    private void insertId(int billId, int row) {
+        int mask = idSlots.length - 1;
+        int i = mix(billId) & mask;
+        while (idSlots[i] != 0) i = (i + 1) & mask;
+        idSlots[i] = row + 1;
+    }
+
+    private static int mix(int x) {
+        x *= 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+}
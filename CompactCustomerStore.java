@@ -0,0 +1,476 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * Customers kept as one small byte array each instead of Customer objects.
+ *
+ * A Customer with its four Strings costs around 250 bytes, and a
+ * ConcurrentHashMap entry with a boxed key adds 50 more. Here a customer is
+ * typically 30-40 bytes of encoding plus a 4-byte slot, so ten million fit
+ * in well under a gigabyte:
+ * <ul>
+ *   <li>Name and address are split at spaces and each word is stored as a
+ *       code into a dictionary shared by all customers, so "Mirpur" or
+ *       "Rahman" is held once however many customers use it. Words that are
+ *       plain numbers, like house numbers, are stored inline instead.</li>
+ *   <li>Meter and phone numbers are split into a short prefix, held in the
+ *       same dictionary, and a run of up to 18 trailing digits packed into a
+ *       varint with its length, so "MTR000123" and "01712345678" each take a
+ *       few bytes and keep their leading zeros. Anything else is kept as
+ *       UTF-8.</li>
+ * </ul>
+ * Every string round-trips exactly, spaces and nulls included.
+ *
+ * Slots are indexed by customer ID in fixed-size chunks, so IDs are expected
+ * to be dense, as handed out by the repository. A Customer is materialised
+ * on each read; it is a fresh instance every time, so compare customers by
+ * ID and fields, not identity. The dictionary only grows: words of removed
+ * or edited customers stay in it.
+ *
+ * Thread-safe. Reads take no lock; writes to one ID are serialized on one of
+ * {@link #STRIPES} locks. Encoded rows are never modified, so a copy of the
+ * slots is a consistent snapshot as long as no write runs meanwhile.
+ */
+final class CompactCustomerStore {
+
+    private static final int STRIPES = 64;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MAX_DIGITS = 18; // fits a long
+    private static final int MAX_PREFIX = 8;  // longer prefixes would flood the dictionary
+    // flag bits in a row's first byte
+    private static final int NULL_NAME = 1, NULL_ADDRESS = 2, NULL_METER = 4, NULL_PHONE = 8;
+
+    private final Object[] locks = new Object[STRIPES];
+    private final Object growLock = new Object();
+    private volatile AtomicReferenceArray<byte[]>[] chunks = newDirectory(0);
+    private final AtomicInteger size = new AtomicInteger();
+    private final Dictionary words = new Dictionary();
+
+    CompactCustomerStore() {
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    }
+
+    /** Customer with the given ID, or null. */
+    Customer get(int id) {
+        byte[] row = row(id);
+        return row == null ? null : decode(id, row);
+    }
+
+    boolean contains(int id) {
+        return row(id) != null;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Stores {@code update.apply(old)} under {@code id}, where old is the
+     * customer stored now or null; a null result removes it. Calls for one ID
+     * run one at a time, like ConcurrentHashMap.compute. Returns the result.
+     *
+     * @throws IllegalArgumentException if the result's ID is not {@code id}
+     */
+    Customer compute(int id, UnaryOperator<Customer> update) {
+        if (id < 0) throw new IllegalArgumentException("Negative customer ID: " + id);
+        synchronized (lockFor(id)) {
+            byte[] row = row(id);
+            Customer c = update.apply(row == null ? null : decode(id, row));
+            if (c == null) {
+                if (row != null) {
+                    slots(id).set(id & (CHUNK - 1), null);
+                    size.decrementAndGet();
+                }
+                return null;
+            }
+            if (c.id != id) throw new IllegalArgumentException("Customer " + c.id + " stored under ID " + id);
+            slotsForWrite(id).set(id & (CHUNK - 1), encode(c));
+            if (row == null) size.incrementAndGet();
+            return c;
+        }
+    }
+
+    /**
+     * The customers stored now in ID order, materialised as they are read;
+     * the list itself holds only references to the encoded rows. The caller
+     * keeps writers out while it is taken.
+     */
+    List<Customer> snapshot() {
+        int[] ids = new int[size.get()];
+        byte[][] rows = new byte[ids.length][];
+        int n = 0;
+        AtomicReferenceArray<byte[]>[] dir = chunks;
+        for (int c = 0; c < dir.length; c++) {
+            if (dir[c] == null) continue;
+            for (int i = 0; i < CHUNK; i++) {
+                byte[] row = dir[c].get(i);
+                if (row == null) continue;
+                if (n == ids.length) { // a write slipped in
+                    ids = Arrays.copyOf(ids, n * 2 + 1);
+                    rows = Arrays.copyOf(rows, ids.length);
+                }
+                ids[n] = (c << CHUNK_BITS) | i;
+                rows[n++] = row;
+            }
+        }
+        return new RowList(n, ids, rows);
+    }
+
+    /** IDs stored now, in order; takes no lock, so a write running meanwhile may or may not be seen. */
+    int[] ids() {
+        int[] ids = new int[size.get()];
+        int n = 0;
+        AtomicReferenceArray<byte[]>[] dir = chunks;
+        for (int c = 0; c < dir.length; c++) {
+            if (dir[c] == null) continue;
+            for (int i = 0; i < CHUNK; i++) {
+                if (dir[c].get(i) == null) continue;
+                if (n == ids.length) ids = Arrays.copyOf(ids, n * 2 + 1);
+                ids[n++] = (c << CHUNK_BITS) | i;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /** Live view of every stored customer, in ID order, materialised while iterating. */
+    Collection<Customer> values() {
+        return new AbstractCollection<Customer>() {
+            @Override
+            public Iterator<Customer> iterator() {
+                return new Iterator<Customer>() {
+                    private final AtomicReferenceArray<byte[]>[] dir = chunks;
+                    private int id = -1; // of the next row, once advance() found it
+                    private byte[] next;
+                    private boolean done;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (next == null && !done) advance();
+                        return next != null;
+                    }
+
+                    @Override
+                    public Customer next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        byte[] row = next;
+                        next = null;
+                        return decode(id, row);
+                    }
+
+                    private void advance() {
+                        for (int i = id + 1; (i >>> CHUNK_BITS) < dir.length; i++) {
+                            AtomicReferenceArray<byte[]> chunk = dir[i >>> CHUNK_BITS];
+                            if (chunk == null) { // skip the whole chunk
+                                i |= CHUNK - 1;
+                                continue;
+                            }
+                            byte[] row = chunk.get(i & (CHUNK - 1));
+                            if (row != null) {
+                                id = i;
+                                next = row;
+                                return;
+                            }
+                        }
+                        done = true;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size.get();
+            }
+        };
+    }
+
+    /** Removes every customer but keeps the dictionary, which a reload mostly needs again. The caller keeps writers out. */
+    void clear() {
+        synchronized (growLock) {
+            chunks = newDirectory(0);
+            size.set(0);
+        }
+    }
+
+    /** Bytes of encoded rows and dictionary words, without the slots; for reports and tuning. */
+    long encodedBytes() {
+        long bytes = words.bytes();
+        for (AtomicReferenceArray<byte[]> chunk : chunks) {
+            if (chunk == null) continue;
+            for (int i = 0; i < CHUNK; i++) {
+                byte[] row = chunk.get(i);
+                if (row != null) bytes += row.length;
+            }
+        }
+        return bytes;
+    }
+
+    // ---- Slots ----
+
+    private byte[] row(int id) {
+        AtomicReferenceArray<byte[]> chunk = id < 0 ? null : slots(id);
+        return chunk == null ? null : chunk.get(id & (CHUNK - 1));
+    }
+
+    private AtomicReferenceArray<byte[]> slots(int id) {
+        AtomicReferenceArray<byte[]>[] dir = chunks;
+        int c = id >>> CHUNK_BITS;
+        return c < dir.length ? dir[c] : null;
+    }
+
+    private AtomicReferenceArray<byte[]> slotsForWrite(int id) {
+        AtomicReferenceArray<byte[]> chunk = slots(id);
+        if (chunk != null) return chunk;
+        synchronized (growLock) {
+            AtomicReferenceArray<byte[]>[] dir = chunks;
+            int c = id >>> CHUNK_BITS;
+            if (c < dir.length && dir[c] != null) return dir[c];
+            // a new directory every time, so the chunk is published by the volatile write
+            AtomicReferenceArray<byte[]>[] grown = newDirectory(Math.max(dir.length, c + 1));
+            System.arraycopy(dir, 0, grown, 0, dir.length);
+            grown[c] = new AtomicReferenceArray<>(CHUNK);
+            chunks = grown;
+            return grown[c];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<byte[]>[] newDirectory(int length) {
+        return (AtomicReferenceArray<byte[]>[]) new AtomicReferenceArray<?>[length];
+    }
+
+    private Object lockFor(int id) {
+        int h = id * 0x9E3779B9;
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    // ---- Encoding ----
+
+    private byte[] encode(Customer c) {
+        Dictionary dict = words;
+        Out out = new Out();
+        int flags = (c.name == null ? NULL_NAME : 0) | (c.address == null ? NULL_ADDRESS : 0)
+                | (c.meterNumber == null ? NULL_METER : 0) | (c.phone == null ? NULL_PHONE : 0);
+        out.b(flags);
+        if (c.name != null) text(out, dict, c.name);
+        if (c.address != null) text(out, dict, c.address);
+        if (c.meterNumber != null) number(out, dict, c.meterNumber);
+        if (c.phone != null) number(out, dict, c.phone);
+        return out.toArray();
+    }
+
+    private Customer decode(int id, byte[] row) {
+        Dictionary dict = words;
+        In in = new In(row);
+        int flags = in.b();
+        String name = (flags & NULL_NAME) != 0 ? null : text(in, dict);
+        String address = (flags & NULL_ADDRESS) != 0 ? null : text(in, dict);
+        String meter = (flags & NULL_METER) != 0 ? null : number(in, dict);
+        String phone = (flags & NULL_PHONE) != 0 ? null : number(in, dict);
+        return new Customer(id, name, address, meter, phone);
+    }
+
+    /** Word count, then per word (code << 1) or, for a small number without leading zeros, (value << 1 | 1). */
+    private static void text(Out out, Dictionary dict, String s) {
+        if (s.isEmpty()) {
+            out.varint(0);
+            return;
+        }
+        int count = 1;
+        for (int i = 0; i < s.length(); i++) if (s.charAt(i) == ' ') count++;
+        out.varint(count);
+        int start = 0;
+        while (true) {
+            int end = s.indexOf(' ', start);
+            if (end < 0) end = s.length();
+            int value = smallNumber(s, start, end);
+            if (value >= 0) out.varint(value << 1 | 1);
+            else out.varint(dict.code(s.substring(start, end)) << 1);
+            if (end == s.length()) return;
+            start = end + 1;
+        }
+    }
+
+    private static String text(In in, Dictionary dict) {
+        int count = in.varint();
+        if (count == 0) return "";
+        StringBuilder sb = new StringBuilder(count * 8);
+        for (int w = 0; w < count; w++) {
+            if (w > 0) sb.append(' ');
+            int v = in.varint();
+            if ((v & 1) != 0) sb.append(v >>> 1);
+            else sb.append(dict.word(v >>> 1));
+        }
+        return sb.toString();
+    }
+
+    /** "1".."999999999" as an int, or -1. */
+    private static int smallNumber(String s, int start, int end) {
+        int len = end - start;
+        if (len == 0 || len > 9 || s.charAt(start) == '0') return -1;
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    /** Digit count, then prefix code and digits as a number; or 0, then UTF-8 length and bytes. */
+    private static void number(Out out, Dictionary dict, String s) {
+        int digitsFrom = s.length();
+        while (digitsFrom > 0 && s.length() - digitsFrom < MAX_DIGITS) {
+            char ch = s.charAt(digitsFrom - 1);
+            if (ch < '0' || ch > '9') break;
+            digitsFrom--;
+        }
+        int digits = s.length() - digitsFrom;
+        if (digits == 0 || digitsFrom > MAX_PREFIX) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            out.varint(0);
+            out.varint(utf8.length);
+            out.bytes(utf8);
+            return;
+        }
+        out.varint(digits);
+        out.varint(dict.code(s.substring(0, digitsFrom)));
+        out.varlong(Long.parseLong(s, digitsFrom, s.length(), 10));
+    }
+
+    private static String number(In in, Dictionary dict) {
+        int digits = in.varint();
+        if (digits == 0) return in.utf8(in.varint());
+        String prefix = dict.word(in.varint());
+        String value = Long.toString(in.varlong());
+        StringBuilder sb = new StringBuilder(prefix.length() + digits).append(prefix);
+        for (int i = value.length(); i < digits; i++) sb.append('0');
+        return sb.append(value).toString();
+    }
+
+    /**
+     * Words by code. A word is written to the array before its code is handed
+     * out, and a row holding the code is published after that, so a reader
+     * that got the row also sees the word.
+     */
+    private static final class Dictionary {
+        private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] words = new String[1024];
+        private int size; // guarded by this
+        private long bytes; // guarded by this
+
+        int code(String word) {
+            Integer code = codes.get(word);
+            if (code != null) return code;
+            synchronized (this) {
+                code = codes.get(word);
+                if (code != null) return code;
+                String[] w = words;
+                if (size == w.length) words = w = Arrays.copyOf(w, size * 2);
+                w[size] = word;
+                bytes += word.length();
+                codes.put(word, size);
+                return size++;
+            }
+        }
+
+        String word(int code) {
+            return words[code];
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    /** Growable byte buffer with LEB128 varints. */
+    private static final class Out {
+        private byte[] buf = new byte[48];
+        private int n;
+
+        void b(int v) {
+            if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+            buf[n++] = (byte) v;
+        }
+
+        void varint(int v) {
+            varlong(v & 0xFFFFFFFFL);
+        }
+
+        void varlong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                b((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            b((int) v);
+        }
+
+        void bytes(byte[] b) {
+            for (byte x : b) b(x);
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(buf, n);
+        }
+    }
+
+    private static final class In {
+        private final byte[] buf;
+        private int pos;
+
+        In(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int b() {
+            return buf[pos++] & 0xFF;
+        }
+
+        int varint() {
+            return (int) varlong();
+        }
+
+        long varlong() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int x = b();
+                v |= (long) (x & 0x7F) << shift;
+                if ((x & 0x80) == 0) return v;
+            }
+        }
+
+        String utf8(int length) {
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+
+    /** Read-only list over a snapshot's rows. */
+    private final class RowList extends AbstractList<Customer> implements RandomAccess {
+        private final int size;
+        private final int[] ids;
+        private final byte[][] rows;
+
+        RowList(int size, int[] ids, byte[][] rows) {
+            this.size = size;
+            this.ids = ids;
+            this.rows = rows;
+        }
+
+        @Override
+        public Customer get(int index) {
+            Objects.checkIndex(index, size);
+            return decode(ids[index], rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,616 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Thread-safe {@link BillingRepository} for many concurrent writers.
+ *
+ * <ul>
+ *   <li>Customer and bill IDs come from atomic counters. A repository that
+ *       is one of N shards (see {@link #fromSystemProperties}) only hands
+ *       out IDs congruent to its shard number mod N, so shards never clash
+ *       and an ID tells which shard holds it.</li>
+ *   <li>Customers live encoded in a {@link CompactCustomerStore}, which
+ *       serializes writes per ID and materialises a Customer on each read.
+ *       Removing one is rare and takes the exclusive lock below, so no bill
+ *       can be added for it meanwhile. The {@link CustomerIndex} for search
+ *       is updated inside the store's per-ID compute, so it sees the edits
+ *       to one customer in order.</li>
+ *   <li>A bill write touches several structures (by ID, by position, by
+ *       customer and by month), so writes to the same bill are serialized on
+ *       one of {@link #STRIPES} locks picked by bill ID; writes to different
+ *       bills proceed in parallel.</li>
+ *   <li>Bills keep a stable position in insertion order. Positions live in
+ *       fixed-size chunks that never move, so reading a bill by position
+ *       takes no lock.</li>
+ *   <li>Every write holds the shared side of a read-write lock and
+ *       {@link #snapshot}, {@link #customers} and {@link #bills} take the
+ *       exclusive side, so those see one consistent state. They only copy
+ *       references while holding it; sorting happens afterwards.</li>
+ *   <li>Months registered with {@link #putLazy} are read under one lock of
+ *       their own, taken before any of the above, by whichever call first
+ *       needs them; the month stays registered until all its bills are in.
+ *       Lookups by bill or customer read only the months whose partition
+ *       may hold it; the whole-store views ({@link #bills}, {@link #billAt},
+ *       {@link #billCount}) read every month.</li>
+ * </ul>
+ *
+ * Single-item reads never block, except to read a month still on disk, and
+ * see each write either fully or not at all, but may not yet see every
+ * secondary index entry of a write in flight.
+ */
+final class ConcurrentBillingRepository implements BillingRepository {
+
+    private static final int STRIPES = 64;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] billLocks = new ReentrantLock[STRIPES];
+    private final Object appendLock = new Object();
+
+    private final AtomicInteger nextCustomerId = new AtomicInteger(1);
+    private final AtomicInteger nextBillId = new AtomicInteger(1);
+    private final CompactCustomerStore customers = new CompactCustomerStore();
+    private final AtomicLong customerVersion = new AtomicLong();
+    private final CustomerIndex customerIndex = new CustomerIndex(customers::get, customers.values());
+
+    private final ConcurrentHashMap<Integer, Bill> billsById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Integer> positionOf = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<AtomicReferenceArray<Bill>> chunks = new CopyOnWriteArrayList<>();
+    private volatile int billCount; // positions below this are filled
+    private final AtomicLong billVersion = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Set<Integer>> positionsByCustomer = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Integer>> positionsByMonth = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Partition> lazyMonths = new ConcurrentHashMap<>();
+    private final Object lazyLock = new Object();
+    private final List<BillListener> billListeners = new CopyOnWriteArrayList<>();
+    private final int shard;
+    private final int shards;
+
+    ConcurrentBillingRepository() {
+        this(0, 1);
+    }
+
+    /** Shard {@code shard} of {@code shards}: new customer and bill IDs are all {@code shard} mod {@code shards}. */
+    ConcurrentBillingRepository(int shard, int shards) {
+        if (shards < 1 || shard < 0 || shard >= shards) throw new IllegalArgumentException("No shard " + shard + " of " + shards);
+        this.shard = shard;
+        this.shards = shards;
+        for (int i = 0; i < STRIPES; i++) billLocks[i] = new ReentrantLock();
+        nextCustomerId.set(firstIdAfter(0));
+        nextBillId.set(firstIdAfter(0));
+    }
+
+    /** The repository for -Dbilling.shard=&lt;shard&gt;/&lt;shards&gt;, e.g. 2/4; unsharded if not set. */
+    static ConcurrentBillingRepository fromSystemProperties() {
+        String spec = System.getProperty("billing.shard");
+        if (spec == null) return new ConcurrentBillingRepository();
+        int slash = spec.indexOf('/');
+        try {
+            return new ConcurrentBillingRepository(Integer.parseInt(spec.substring(0, Math.max(0, slash))),
+                    Integer.parseInt(spec.substring(slash + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-Dbilling.shard must look like 2/4, not " + spec);
+        }
+    }
+
+    @Override
+    public Customer addCustomer(String name, String address, String meterNumber, String phone) {
+        snapshotLock.readLock().lock();
+        try {
+            Customer c = new Customer(nextCustomerId.getAndAdd(shards), name, address, meterNumber, phone);
+            return customerIndex.write(() -> customers.compute(c.id, old -> {
+                customerIndex.update(null, c);
+                customerVersion.incrementAndGet();
+                return c;
+            }));
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer updateCustomer(int id, String name, String address, String meterNumber, String phone) {
+        snapshotLock.readLock().lock();
+        try {
+            return customerIndex.write(() -> customers.compute(id, old -> {
+                if (old == null) return null;
+                Customer c = new Customer(id, name, address, meterNumber, phone);
+                customerIndex.update(old, c);
+                customerVersion.incrementAndGet();
+                return c;
+            }));
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeCustomer(int id) {
+        while (true) {
+            loadCustomer(id); // read outside the lock
+            snapshotLock.writeLock().lock();
+            try {
+                if (lazyHolds(id)) continue; // registered since, load those too
+                if (!customers.contains(id)) return false;
+                if (hasBills(id)) throw new IllegalStateException("Customer " + id + " has bills");
+                customerIndex.write(() -> customers.compute(id, old -> {
+                    customerIndex.remove(old);
+                    customerVersion.incrementAndGet();
+                    return null;
+                }));
+                return true;
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void putCustomer(Customer c) {
+        snapshotLock.readLock().lock();
+        try {
+            storeCustomer(c);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer customer(int id) {
+        return customers.get(id);
+    }
+
+    @Override
+    public List<Customer> customers() {
+        snapshotLock.writeLock().lock();
+        try {
+            return customers.snapshot(); // in ID order, materialised as read
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int[] customerIds() {
+        return customers.ids();
+    }
+
+    @Override
+    public int customerCount() {
+        return customers.size();
+    }
+
+    @Override
+    public List<Customer> customersByMeter(String meterNumber) {
+        return customerIndex.byMeter(meterNumber);
+    }
+
+    @Override
+    public List<Customer> searchCustomers(String query, int limit) {
+        return customerIndex.search(query, limit);
+    }
+
+    @Override
+    public Bill generateBill(int customerId, String month, int units) {
+        try (Metrics.Timing t = Metrics.BILL_GENERATE.time()) {
+            t.rows(1);
+            Bill b = new Bill(0, customerId, month, units);
+            b.calculate();
+            loadMonth(month);
+            snapshotLock.readLock().lock();
+            try {
+                requireCustomer(customerId); // cannot be removed while the read lock is held
+                b.billId = nextBillId.getAndAdd(shards);
+                storeBill(b);
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+            return b;
+        }
+    }
+
+    @Override
+    public void addBills(List<Bill> bills) {
+        Set<String> months = new HashSet<>();
+        for (Bill b : bills) {
+            if (months.add(b.month)) loadMonth(b.month);
+        }
+        snapshotLock.readLock().lock();
+        try {
+            for (Bill b : bills) requireCustomer(b.customerId); // none can be removed while the read lock is held
+            for (Bill b : bills) {
+                b.billId = nextBillId.getAndAdd(shards);
+                storeBill(b);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Bill updateBill(int billId, int customerId, String month, int units) {
+        try (Metrics.Timing t = Metrics.BILL_GENERATE.time()) {
+            t.rows(1);
+            Bill b = new Bill(billId, customerId, month, units);
+            b.calculate();
+            loadBill(billId);
+            loadMonth(month);
+            snapshotLock.readLock().lock();
+            try {
+                requireCustomer(customerId);
+                ReentrantLock lock = lockFor(billId);
+                lock.lock();
+                try {
+                    if (!billsById.containsKey(billId)) return null;
+                    storeBill(b);
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+            return b;
+        }
+    }
+
+    @Override
+    public void putBill(Bill b) {
+        loadBill(b.billId);
+        loadMonth(b.month);
+        snapshotLock.readLock().lock();
+        try {
+            storeBill(b);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replaceBill(Bill expected, Bill replacement) {
+        loadMonth(replacement.month); // expected came from the repository, so its month is in
+        snapshotLock.readLock().lock();
+        try {
+            ReentrantLock lock = lockFor(expected.billId);
+            lock.lock();
+            try {
+                if (billsById.get(expected.billId) != expected) return false;
+                storeBill(replacement);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Iterable<Customer> cs, Iterable<Bill> bs) {
+        if (!lazyMonths.isEmpty()) {
+            for (Bill b : bs) {
+                loadBill(b.billId);
+                loadMonth(b.month);
+            }
+        }
+        snapshotLock.readLock().lock();
+        try {
+            for (Customer c : cs) storeCustomer(c);
+            for (Bill b : bs) storeBill(b);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putLazy(Collection<Partition> partitions) {
+        for (Partition p : partitions) {
+            lazyMonths.put(p.month(), p);
+            nextBillId.accumulateAndGet(firstIdAfter(p.maxBillId()), Math::max);
+        }
+    }
+
+    @Override
+    public Bill bill(int billId) {
+        loadBill(billId);
+        return billsById.get(billId);
+    }
+
+    @Override
+    public List<Bill> billsOfCustomer(int customerId) {
+        loadCustomer(customerId);
+        return collect(positionsByCustomer.get(customerId), b -> b.customerId == customerId);
+    }
+
+    @Override
+    public List<Bill> billsForMonth(String month) {
+        loadMonth(month);
+        return collect(positionsByMonth.get(month), b -> b.month.equals(month));
+    }
+
+    @Override
+    public Bill billOf(int customerId, String month) {
+        loadMonth(month);
+        Set<Integer> positions = positionsByCustomer.get(customerId);
+        if (positions == null) return null;
+        for (int p : positions) {
+            Bill b = slot(p);
+            if (b != null && b.customerId == customerId && b.month.equals(month)) return b;
+        }
+        return null;
+    }
+
+    @Override
+    public List<String> billMonths() {
+        List<String> out = new ArrayList<>();
+        positionsByMonth.forEach((month, positions) -> {
+            for (int p : positions) {
+                if (slot(p).month.equals(month)) {
+                    out.add(month);
+                    break;
+                }
+            }
+        });
+        for (String month : lazyMonths.keySet()) {
+            if (!out.contains(month)) out.add(month); // could be in both while it is being read
+        }
+        return out;
+    }
+
+    @Override
+    public List<Bill> bills() {
+        loadAll();
+        snapshotLock.writeLock().lock();
+        try {
+            return copyBills();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Bill billAt(int index) {
+        loadAll();
+        if (index < 0 || index >= billCount) throw new IndexOutOfBoundsException("Bill " + index + " of " + billCount);
+        return slot(index);
+    }
+
+    @Override
+    public int indexOfBill(int billId) {
+        loadAll();
+        Integer pos = positionOf.get(billId);
+        return pos == null ? -1 : pos;
+    }
+
+    @Override
+    public int billCount() {
+        loadAll();
+        return billCount;
+    }
+
+    @Override
+    public void addBillListener(BillListener l) {
+        billListeners.add(l);
+    }
+
+    @Override
+    public long billVersion() {
+        return billVersion.get();
+    }
+
+    @Override
+    public long customerVersion() {
+        return customerVersion.get();
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        loadAll();
+        return loadedSnapshot();
+    }
+
+    @Override
+    public Snapshot loadedSnapshot() {
+        List<Customer> cs;
+        List<Bill> bs;
+        List<String> unloaded;
+        snapshotLock.writeLock().lock();
+        try {
+            cs = customers.snapshot(); // in ID order, materialised as read
+            bs = copyBills();
+            unloaded = new ArrayList<>(lazyMonths.keySet());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        bs.sort(Comparator.comparingInt(b -> b.billId));
+        return new Snapshot(cs, bs, unloaded);
+    }
+
+    @Override
+    public void clear() {
+        snapshotLock.writeLock().lock();
+        try {
+            customers.clear();
+            customerIndex.clear();
+            customerVersion.incrementAndGet();
+            billsById.clear();
+            positionOf.clear();
+            positionsByCustomer.clear();
+            positionsByMonth.clear();
+            lazyMonths.clear();
+            synchronized (appendLock) {
+                chunks.clear();
+                billCount = 0;
+            }
+            nextCustomerId.set(firstIdAfter(0));
+            nextBillId.set(firstIdAfter(0));
+            billVersion.incrementAndGet();
+            for (BillListener l : billListeners) l.cleared();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // ---- Months still on disk; never called with the snapshot lock held ----
+
+    private void loadMonth(String month) {
+        if (lazyMonths.isEmpty() || !lazyMonths.containsKey(month)) return;
+        synchronized (lazyLock) {
+            Partition p = lazyMonths.get(month);
+            if (p == null) return; // loaded meanwhile
+            List<Bill> bs;
+            try {
+                bs = p.load();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load the bills for " + month, e);
+            }
+            snapshotLock.readLock().lock();
+            try {
+                for (Bill b : bs) {
+                    if (!billsById.containsKey(b.billId)) storeBill(b); // e.g. a newer copy from the journal
+                }
+                lazyMonths.remove(month); // inside the lock, so a snapshot sees the month either in or registered
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        }
+    }
+
+    private void loadBill(int billId) {
+        if (lazyMonths.isEmpty()) return;
+        for (Partition p : lazyMonths.values()) {
+            if (p.mayHoldBill(billId)) loadMonth(p.month());
+        }
+    }
+
+    private void loadCustomer(int customerId) {
+        if (lazyMonths.isEmpty()) return;
+        for (Partition p : lazyMonths.values()) {
+            if (p.mayHoldCustomer(customerId)) loadMonth(p.month());
+        }
+    }
+
+    // Caller holds the snapshot lock, so no month is read meanwhile
+    private boolean lazyHolds(int customerId) {
+        for (Partition p : lazyMonths.values()) {
+            if (p.mayHoldCustomer(customerId)) return true;
+        }
+        return false;
+    }
+
+    private void loadAll() {
+        if (lazyMonths.isEmpty()) return;
+        for (String month : lazyMonths.keySet()) loadMonth(month);
+    }
+
+    private void storeCustomer(Customer c) {
+        customerIndex.write(() -> customers.compute(c.id, old -> {
+            customerIndex.update(old, c);
+            customerVersion.incrementAndGet();
+            return c;
+        }));
+        nextCustomerId.accumulateAndGet(firstIdAfter(c.id), Math::max);
+    }
+
+    // Caller holds the snapshot read lock; the bill's stripe lock is reentrant
+    private void storeBill(Bill b) {
+        ReentrantLock lock = lockFor(b.billId);
+        lock.lock();
+        try {
+            Bill old = billsById.get(b.billId);
+            int pos;
+            if (old == null) {
+                pos = append(b);
+                positionOf.put(b.billId, pos);
+            } else {
+                pos = positionOf.get(b.billId);
+                chunks.get(pos >>> CHUNK_BITS).set(pos & (CHUNK - 1), b);
+                if (old.customerId != b.customerId) remove(positionsByCustomer, old.customerId, pos);
+                if (!old.month.equals(b.month)) remove(positionsByMonth, old.month, pos);
+            }
+            billsById.put(b.billId, b);
+            positionsByCustomer.computeIfAbsent(b.customerId, k -> ConcurrentHashMap.newKeySet()).add(pos);
+            positionsByMonth.computeIfAbsent(b.month, k -> ConcurrentHashMap.newKeySet()).add(pos);
+            nextBillId.accumulateAndGet(firstIdAfter(b.billId), Math::max);
+            billVersion.incrementAndGet();
+            for (BillListener l : billListeners) l.stored(b);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int append(Bill b) {
+        synchronized (appendLock) {
+            int pos = billCount;
+            if ((pos & (CHUNK - 1)) == 0) chunks.add(new AtomicReferenceArray<>(CHUNK));
+            chunks.get(pos >>> CHUNK_BITS).set(pos & (CHUNK - 1), b);
+            billCount = pos + 1; // publishes the slot
+            return pos;
+        }
+    }
+
+    private Bill slot(int pos) {
+        return chunks.get(pos >>> CHUNK_BITS).get(pos & (CHUNK - 1));
+    }
+
+    private List<Bill> copyBills() {
+        int n = billCount;
+        List<Bill> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(slot(i));
+        return out;
+    }
+
+    // A bill being moved to another customer or month can briefly sit in both sets, hence the filter
+    // Index check only; the caller has loaded the customer's months
+    private boolean hasBills(int customerId) {
+        Set<Integer> positions = positionsByCustomer.get(customerId);
+        if (positions == null) return false;
+        for (int p : positions) {
+            Bill b = slot(p);
+            if (b != null && b.customerId == customerId) return true;
+        }
+        return false;
+    }
+
+    private List<Bill> collect(Set<Integer> positions, Predicate<Bill> matches) {
+        if (positions == null) return Collections.emptyList();
+        int[] sorted = positions.stream().mapToInt(Integer::intValue).sorted().toArray();
+        List<Bill> out = new ArrayList<>(sorted.length);
+        for (int p : sorted) {
+            Bill b = slot(p);
+            if (matches.test(b)) out.add(b);
+        }
+        return out;
+    }
+
+    // Empty sets are left in place; removing them could race with a concurrent add
+    private static <K> void remove(Map<K, Set<Integer>> index, K key, int pos) {
+        Set<Integer> set = index.get(key);
+        if (set != null) set.remove(pos);
+    }
+
+    /** The lowest ID above {@code id} that this shard may hand out. */
+    private int firstIdAfter(int id) {
+        int next = id + 1;
+        return next + Math.floorMod(shard - next, shards);
+    }
+
+    private ReentrantLock lockFor(int billId) {
+        int h = billId * 0x9E3779B9;
+        return billLocks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private void requireCustomer(int customerId) {
+        if (!customers.contains(customerId)) throw new IllegalArgumentException("Customer not found: " + customerId);
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * A customer record.
+ *
+ * Instances held by a {@link BillingRepository} are treated as immutable:
+ * edits go through {@link BillingRepository#updateCustomer}, which stores a
+ * new instance, so snapshots can be taken by reference.
+ */
+class Customer {
+    static final String CSV_HEADER = "id,name,address,meter,phone";
+
+    int id;
+    String name;
+    String address;
+    String meterNumber;
+    String phone;
+
+    Customer(int id, String name, String address, String meterNumber, String phone) {
+        this.id = id;
+        this.name = name;
+        this.address = address;
+        this.meterNumber = meterNumber;
+        this.phone = phone;
+    }
+
+    String toCSV() {
+        // simple CSV; avoid commas in fields
+        return id + "," + escape(name) + "," + escape(address) + "," + escape(meterNumber) + "," + escape(phone);
+    }
+
+    static Customer fromCSV(String line) {
+        String[] t = line.split(",", -1);
+        int id = Integer.parseInt(t[0]);
+        return new Customer(id, t[1], t[2], t[3], t[4]);
+    }
+
+    static Customer fromFields(MappedCsv.Fields f) {
+        return new Customer(f.nextInt(), f.nextString(), f.nextString(), f.nextString(), f.nextString());
+    }
+
+    /** Makes a value safe for the comma-separated files. */
+    static String escape(String s) {
+        return s.replace("\n", " ").replace("\r", " ").replace(",", " "); // crude
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d] %s, Addr: %s, Meter: %s, Phone: %s", id, name, address, meterNumber, phone);
+    }
+}
@@ -0,0 +1,377 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Secondary indexes over customers for search: exact meter number and phone
+ * number, and trigrams of name and address for partial matches.
+ *
+ * Meter numbers are compared upper-cased without spaces or dashes, and phone
+ * numbers by their digits with a leading +88 country code dropped, so
+ * "mtr-000123" finds "MTR000123" and "+880 1712 345678" finds "01712345678".
+ *
+ * Text is matched word-prefix or substring, ignoring case and punctuation:
+ * "rah", "sarker" or "mirpur road" all match "Rahim Sarker, 12 Mirpur Road".
+ * Each name and address is indexed under its trigrams, plus one trigram per
+ * word start (" ra") so that two-letter queries work. A query reads the
+ * posting list of its rarest trigram and checks each candidate.
+ *
+ * Entries are never trusted on their own: every hit is re-checked against
+ * the customer currently stored under its ID, so an entry left behind by an
+ * edit or removal is harmless. Trigram postings are append-only for the same
+ * reason; an edit only appends the trigrams that are new.
+ *
+ * The index is built on the first lookup, so loading a million customers
+ * does not pay for it up front; from then on the owner's {@link #update}
+ * calls keep it current. The owner makes each customer write inside
+ * {@link #write}, so a build never runs between a write and its update.
+ * Thread-safe.
+ */
+final class CustomerIndex {
+
+    private static final int BUCKETS = 1 << 18;
+
+    private final IntFunction<Customer> current;
+    private final Collection<Customer> all;
+    // updates share this lock and the first lookup's build takes it exclusively
+    private final ReadWriteLock buildLock = new ReentrantReadWriteLock();
+    private volatile boolean built;
+    // key -> IDs; arrays are replaced, never modified, and nearly always hold one ID
+    private final ConcurrentHashMap<String, int[]> byMeter = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, int[]> byPhone = new ConcurrentHashMap<>();
+    // trigram hash -> IDs; trigrams sharing a bucket share its list. Writers take one lock
+    // for all buckets: a customer's trigrams are added in one go, and edits are rare.
+    // Searches take no lock, see Postings
+    private final AtomicReferenceArray<Postings> byTrigram = new AtomicReferenceArray<>(BUCKETS);
+    private final Object trigramLock = new Object();
+
+    /**
+     * @param current the customer now stored under an ID, or null
+     * @param all     live view of every stored customer, read when the index is built
+     */
+    CustomerIndex(IntFunction<Customer> current, Collection<Customer> all) {
+        this.current = current;
+        this.all = all;
+    }
+
+    /** Runs a write to the customer store; writes run concurrently, but not alongside a build. */
+    <T> T write(Supplier<T> write) {
+        buildLock.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            buildLock.readLock().unlock();
+        }
+    }
+
+    /** Indexes {@code now}, which replaces {@code before} (null for a new customer); call within {@link #write}. */
+    void update(Customer before, Customer now) {
+        if (built) index(before, now); // otherwise the build will see it
+    }
+
+    /** Call within {@link #write}. */
+    void remove(Customer c) {
+        if (built) unindex(c);
+    }
+
+    void clear() {
+        buildLock.writeLock().lock();
+        try {
+            built = false;
+            byMeter.clear();
+            byPhone.clear();
+            synchronized (trigramLock) {
+                for (int b = 0; b < BUCKETS; b++) byTrigram.set(b, null);
+            }
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    private void ensureBuilt() {
+        if (built) return;
+        buildLock.writeLock().lock();
+        try {
+            if (built) return;
+            for (Customer c : all) index(null, c);
+            built = true;
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    private void index(Customer before, Customer now) {
+        if (before != null) unindex(before);
+        add(byMeter, meterKey(now.meterNumber), now.id);
+        add(byPhone, phoneKey(now.phone), now.id);
+        int[] old = before == null ? new int[0] : trigrams(before);
+        if (before != null) Arrays.sort(old);
+        int[] added = trigrams(now);
+        synchronized (trigramLock) {
+            for (int t : added) {
+                if (Arrays.binarySearch(old, t) >= 0) continue; // still listed from before
+                int b = bucket(t);
+                Postings p = byTrigram.get(b);
+                if (p == null) byTrigram.set(b, p = new Postings());
+                p.add(now.id);
+            }
+        }
+    }
+
+    private void unindex(Customer c) {
+        drop(byMeter, meterKey(c.meterNumber), c.id);
+        drop(byPhone, phoneKey(c.phone), c.id);
+    }
+
+    /** The customers with this meter number; normally at most one. */
+    List<Customer> byMeter(String meterNumber) {
+        ensureBuilt();
+        String key = meterKey(meterNumber);
+        return lookup(byMeter, key, c -> meterKey(c.meterNumber).equals(key));
+    }
+
+    List<Customer> byPhone(String phone) {
+        ensureBuilt();
+        String key = phoneKey(phone);
+        return lookup(byPhone, key, c -> phoneKey(c.phone).equals(key));
+    }
+
+    /**
+     * Up to {@code limit} customers matching {@code query}: exact meter and
+     * phone matches first, then the first name and address matches in index
+     * order (roughly by ID), with those whose name starts with the query
+     * ahead of the rest.
+     */
+    List<Customer> search(String query, int limit) {
+        Map<Integer, Customer> out = new LinkedHashMap<>();
+        for (Customer c : byMeter(query)) out.putIfAbsent(c.id, c);
+        for (Customer c : byPhone(query)) out.putIfAbsent(c.id, c);
+
+        String text = normalize(query);
+        if (text.length() >= 2 && out.size() < limit) {
+            String needle = text.length() < 3 ? " " + text : text;
+            Postings.View candidates = rarest(needle);
+            List<Customer> others = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i < candidates.size; i++) {
+                if (out.size() + others.size() >= limit) break;
+                int id = candidates.get(i);
+                if (out.containsKey(id) || !seen.add(id)) continue;
+                Customer c = current.apply(id);
+                if (c == null) continue;
+                String name = " " + normalize(c.name);
+                if (name.startsWith(" " + text)) {
+                    out.put(id, c);
+                } else if (name.contains(needle) || (" " + normalize(c.address)).contains(needle)) {
+                    others.add(c);
+                }
+            }
+            for (Customer c : others) {
+                if (out.size() >= limit) break;
+                out.putIfAbsent(c.id, c);
+            }
+        }
+        List<Customer> result = new ArrayList<>(out.values());
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    static String meterKey(String meter) {
+        boolean canonical = true;
+        for (int i = 0; i < meter.length() && canonical; i++) {
+            char ch = meter.charAt(i);
+            canonical = ch != '-' && !Character.isWhitespace(ch) && Character.toUpperCase(ch) == ch;
+        }
+        if (canonical) return meter;
+        StringBuilder sb = new StringBuilder(meter.length());
+        for (int i = 0; i < meter.length(); i++) {
+            char ch = meter.charAt(i);
+            if (ch != '-' && !Character.isWhitespace(ch)) sb.append(Character.toUpperCase(ch));
+        }
+        return sb.toString();
+    }
+
+    static String phoneKey(String phone) {
+        boolean canonical = !(phone.length() == 13 && phone.startsWith("880"));
+        for (int i = 0; i < phone.length() && canonical; i++) canonical = phone.charAt(i) >= '0' && phone.charAt(i) <= '9';
+        if (canonical) return phone;
+        StringBuilder sb = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char ch = phone.charAt(i);
+            if (ch >= '0' && ch <= '9') sb.append(ch);
+        }
+        if (sb.length() == 13 && sb.indexOf("880") == 0) sb.delete(0, 2); // +8801... -> 01...
+        return sb.toString();
+    }
+
+    /** Lower case, words separated by single spaces, punctuation dropped. */
+    static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (isWordChar(ch)) {
+                if (space && sb.length() > 0) sb.append(' ');
+                sb.append(Character.toLowerCase(ch));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isWordChar(char ch) {
+        if (ch < 0x80) return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9';
+        int type = Character.getType(ch);
+        return Character.isLetterOrDigit(ch) || type == Character.NON_SPACING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    /**
+     * Trigrams of " " + normalize(name) and of " " + normalize(address),
+     * computed without building those strings; may contain duplicates.
+     */
+    private static int[] trigrams(Customer c) {
+        int[] out = new int[c.name.length() + c.address.length() + 2];
+        int n = trigrams(c.name, out, 0);
+        n = trigrams(c.address, out, n);
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static int trigrams(String s, int[] out, int n) {
+        int window = ' '; // the last two chars, 10 bits each, starting with the leading space
+        int length = 1;
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (!isWordChar(ch)) {
+                space = length > 1;
+                continue;
+            }
+            if (space) {
+                int t = (window << 10 | ' ') & 0x3FFFFFFF;
+                if (++length >= 3) out[n++] = t;
+                window = t & 0xFFFFF;
+                space = false;
+            }
+            int t = (window << 10 | (Character.toLowerCase(ch) & 0x3FF)) & 0x3FFFFFFF;
+            if (++length >= 3) out[n++] = t;
+            window = t & 0xFFFFF;
+        }
+        return n;
+    }
+
+    private static int trigram(String s, int i) {
+        return (s.charAt(i) & 0x3FF) << 20 | (s.charAt(i + 1) & 0x3FF) << 10 | (s.charAt(i + 2) & 0x3FF);
+    }
+
+    // Collisions only cost extra candidates, which are checked anyway
+    private static int bucket(int trigram) {
+        int h = trigram * 0x9E3779B9;
+        return h >>> (32 - 18);
+    }
+
+    private Postings.View rarest(String needle) {
+        Postings.View best = null;
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            Postings p = byTrigram.get(bucket(trigram(needle, i)));
+            if (p == null) return Postings.View.EMPTY;
+            Postings.View v = p.view();
+            if (best == null || v.size < best.size) best = v;
+        }
+        return best == null ? Postings.View.EMPTY : best;
+    }
+
+    private List<Customer> lookup(Map<String, int[]> index, String key, Predicate<Customer> stillMatches) {
+        int[] ids = key.isEmpty() ? null : index.get(key);
+        if (ids == null) return Collections.emptyList();
+        List<Customer> out = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Customer c = current.apply(id);
+            if (c != null && stillMatches.test(c)) out.add(c);
+        }
+        out.sort(Comparator.comparingInt(c -> c.id));
+        return out;
+    }
+
+    private static void add(Map<String, int[]> index, String key, int id) {
+        if (key.isEmpty()) return;
+        index.compute(key, (k, ids) -> {
+            if (ids == null) return new int[]{id};
+            for (int i : ids) if (i == id) return ids;
+            int[] more = Arrays.copyOf(ids, ids.length + 1);
+            more[ids.length] = id;
+            return more;
+        });
+    }
+
+    private static void drop(Map<String, int[]> index, String key, int id) {
+        index.computeIfPresent(key, (k, ids) -> {
+            int[] fewer = new int[ids.length];
+            int n = 0;
+            for (int i : ids) if (i != id) fewer[n++] = i;
+            return n == 0 ? null : n == ids.length ? ids : Arrays.copyOf(fewer, n);
+        });
+    }
+
+    /**
+     * Growable list of customer IDs under one trigram bucket. Writers hold
+     * trigramLock; readers take no lock and get a {@link View} of the IDs
+     * added so far. An ID is stored before the size covering it is
+     * published, and a slot below that size is never written again, so a
+     * view stays valid while the list grows. Long lists grow by whole
+     * blocks rather than by copying.
+     */
+    private static final class Postings {
+        private static final int BLOCK_BITS = 12;
+        private static final int BLOCK = 1 << BLOCK_BITS;
+        private volatile int[][] blocks = {new int[4]}; // full blocks, then the one being filled
+        private volatile int size;
+
+        void add(int id) {
+            int[][] bs = blocks;
+            int last = bs.length - 1;
+            int used = size - (last << BLOCK_BITS);
+            if (used == bs[last].length) {
+                if (used < BLOCK) {
+                    bs = bs.clone();
+                    bs[last] = Arrays.copyOf(bs[last], used * 2);
+                } else {
+                    bs = Arrays.copyOf(bs, bs.length + 1);
+                    bs[++last] = new int[BLOCK];
+                    used = 0;
+                }
+                blocks = bs;
+            }
+            bs[last][used] = id;
+            size++; // only one writer at a time
+        }
+
+        View view() {
+            int n = size; // before blocks: these blocks hold at least n IDs
+            return new View(blocks, n);
+        }
+
+        /** The IDs a list held when the view was taken. */
+        static final class View {
+            static final View EMPTY = new View(new int[0][], 0);
+
+            private final int[][] blocks;
+            final int size;
+
+            View(int[][] blocks, int size) {
+                this.blocks = blocks;
+                this.size = size;
+            }
+
+            int get(int i) {
+                return blocks[i >>> BLOCK_BITS][i & (BLOCK - 1)];
+            }
+        }
+    }
+}
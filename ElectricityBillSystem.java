@@ -1,6 +1,9 @@
 import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 
@@ -8,38 +11,85 @@ import java.util.*;
  * Simple Electricity Bill System (console-based)
  * Save as: ElectricityBillSystem.java
  *
- * Java 8+ recommended.
+ * Requires Java 17 (see pom.xml).
  */
 public class ElectricityBillSystem {
 
-    // Files for persistence
-    private static final String CUSTOMERS_FILE = "customers.csv";
-    private static final String BILLS_FILE = "bills.csv";
+    // Customers and bills, shared core used by the GUI as well; one shard of several with -Dbilling.shard
+    private static final BillingRepository repo = ConcurrentBillingRepository.fromSystemProperties();
 
-    // In-memory stores
-    private static final Map<Integer, Customer> customers = new HashMap<>();
-    private static final List<Bill> bills = new ArrayList<>();
+    // Snapshot files and journal; see BillingStorage for -Dbilling.dir and -Dbilling.snapshot
+    private static final BillingStorage storage = BillingStorage.fromSystemProperties();
 
-    // ID counters
-    private static int nextCustomerId = 1;
-    private static int nextBillId = 1;
-
-    // Slab configuration (edit to change tariffs)
-    // slabLimits = first slabs (units), last slab is "rest"
-    private static final int[] SLAB_LIMITS = {50, 100, 100}; // last one handled separately
-    private static final BigDecimal[] SLAB_RATES = {
-            new BigDecimal("3.00"),   // first 50 units
-            new BigDecimal("5.50"),   // next 100 units
-            new BigDecimal("7.00")    // next 100 units
-    };
-    private static final BigDecimal RATE_ABOVE = new BigDecimal("9.00"); // units above sum(SLAB_LIMITS)
-
-    private static final BigDecimal FIXED_CHARGE = new BigDecimal("50.00");
-    private static final BigDecimal METER_RENT = new BigDecimal("20.00");
-    private static final BigDecimal TAX_RATE = new BigDecimal("0.05"); // 5%
+    private static final int SEARCH_LIMIT = 50;
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--rerate")) {
+            runRerate(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--audit")) {
+            runAudit(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--export-invoices")) {
+            runExport(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--ingest")) {
+            runIngest(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--report")) {
+            runReport(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--coordinate")) {
+            runCoordinator(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--csv-to-snapshot")) {
+            try {
+                storage.readCsv(repo, stage -> { });
+                storage.replayJournal(repo);
+                storage.writeSnapshot(repo.snapshot());
+                System.out.println("Wrote " + storage.snapshotFile());
+            } catch (IOException e) {
+                System.out.println("Failed to write snapshot: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--snapshot-to-csv")) {
+            try {
+                storage.readSnapshot(repo);
+            } catch (IOException e) {
+                System.out.println("Failed to load snapshot: " + e.getMessage());
+                return;
+            }
+            try {
+                storage.replayJournal(repo);
+                storage.writeCsv(repo.snapshot());
+                System.out.println("Wrote " + storage.customersFile() + " and " + storage.billsFile());
+            } catch (IOException e) {
+                System.out.println("Failed to write CSV files: " + e.getMessage());
+            }
+            return;
+        }
+
         loadAllData(); // try to restore from CSV if present
+        try {
+            storage.openJournal();
+        } catch (IOException e) {
+            System.out.println("Journal unavailable, changes are only kept until exit: " + e.getMessage());
+        }
         Scanner sc = new Scanner(System.in);
 
         while (true) {
@@ -53,6 +103,7 @@ public class ElectricityBillSystem {
             System.out.println("7. Save data");
             System.out.println("8. Load data");
             System.out.println("9. Exit");
+            System.out.println("10. Search customers");
             System.out.print("Choose an option: ");
             String choice = sc.nextLine().trim();
 
@@ -65,142 +116,13 @@ public class ElectricityBillSystem {
                 case "6": exportBill(sc); break;
                 case "7": saveAllData(); break;
                 case "8": loadAllData(); break;
-                case "9": saveAllData(); System.out.println("Goodbye!"); return;
+                case "9": saveAllData(); closeJournal(); System.out.println("Goodbye!"); return;
+                case "10": searchCustomers(sc); break;
                 default: System.out.println("Unknown option. Try again.");
             }
         }
     }
 
-    // -------------------- Customer --------------------
-    static class Customer {
-        int id;
-        String name;
-        String address;
-        String meterNumber;
-        String phone;
-
-        Customer(int id, String name, String address, String meterNumber, String phone) {
-            this.id = id;
-            this.name = name;
-            this.address = address;
-            this.meterNumber = meterNumber;
-            this.phone = phone;
-        }
-
-        String toCSV() {
-            // simple CSV; avoid commas in fields
-            return id + "," + escape(name) + "," + escape(address) + "," + escape(meterNumber) + "," + escape(phone);
-        }
-
-        static Customer fromCSV(String line) {
-            String[] t = line.split(",", -1);
-            int id = Integer.parseInt(t[0]);
-            return new Customer(id, unescape(t[1]), unescape(t[2]), unescape(t[3]), unescape(t[4]));
-        }
-
-        private static String escape(String s) {
-            return s.replace("\n", " ").replace("\r", " ").replace(",", " "); // crude
-        }
-
-        private static String unescape(String s) {
-            return s;
-        }
-
-        @Override
-        public String toString() {
-            return String.format("[%d] %s, Addr: %s, Meter: %s, Phone: %s", id, name, address, meterNumber, phone);
-        }
-    }
-
-    // -------------------- Bill --------------------
-    static class Bill {
-        int billId;
-        int customerId;
-        String month; // e.g., "2025-09" or "September 2025"
-        int units;
-        BigDecimal energyCharge;
-        BigDecimal fixedCharge;
-        BigDecimal meterRent;
-        BigDecimal tax;
-        BigDecimal total;
-
-        Bill(int billId, int customerId, String month, int units) {
-            this.billId = billId;
-            this.customerId = customerId;
-            this.month = month;
-            this.units = units;
-        }
-
-        void calculate() {
-            energyCharge = calculateEnergyCharge(units);
-            fixedCharge = FIXED_CHARGE;
-            meterRent = METER_RENT;
-            BigDecimal subtotal = energyCharge.add(fixedCharge).add(meterRent);
-            tax = subtotal.multiply(TAX_RATE);
-            total = subtotal.add(tax);
-
-            // round to 2 decimals
-            energyCharge = energyCharge.setScale(2, RoundingMode.HALF_UP);
-            fixedCharge = fixedCharge.setScale(2, RoundingMode.HALF_UP);
-            meterRent = meterRent.setScale(2, RoundingMode.HALF_UP);
-            tax = tax.setScale(2, RoundingMode.HALF_UP);
-            total = total.setScale(2, RoundingMode.HALF_UP);
-        }
-
-        String toCSV() {
-            return billId + "," + customerId + "," + month + "," + units + "," +
-                    energyCharge.toPlainString() + "," + fixedCharge.toPlainString() + "," +
-                    meterRent.toPlainString() + "," + tax.toPlainString() + "," + total.toPlainString();
-        }
-
-        static Bill fromCSV(String line) {
-            String[] t = line.split(",", -1);
-            Bill b = new Bill(Integer.parseInt(t[0]), Integer.parseInt(t[1]), t[2], Integer.parseInt(t[3]));
-            b.energyCharge = new BigDecimal(t[4]);
-            b.fixedCharge = new BigDecimal(t[5]);
-            b.meterRent = new BigDecimal(t[6]);
-            b.tax = new BigDecimal(t[7]);
-            b.total = new BigDecimal(t[8]);
-            return b;
-        }
-
-        String toInvoiceText(Customer c) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("-------- ELECTRICITY BILL --------\n");
-            sb.append("Bill ID: ").append(billId).append("\n");
-            sb.append("Month: ").append(month).append("\n\n");
-            sb.append("Customer: ").append(c.name).append("\n");
-            sb.append("Address: ").append(c.address).append("\n");
-            sb.append("Meter No: ").append(c.meterNumber).append("\n");
-            sb.append("Phone: ").append(c.phone).append("\n\n");
-            sb.append(String.format("Units Consumed: %d\n", units));
-            sb.append(String.format("Energy Charge: %s\n", energyCharge.toPlainString()));
-            sb.append(String.format("Fixed Charge: %s\n", fixedCharge.toPlainString()));
-            sb.append(String.format("Meter Rent: %s\n", meterRent.toPlainString()));
-            sb.append(String.format("Tax (%.2f%%): %s\n", TAX_RATE.multiply(new BigDecimal("100")).doubleValue(), tax.toPlainString()));
-            sb.append("----------------------------------\n");
-            sb.append(String.format("Total Payable: %s\n", total.toPlainString()));
-            sb.append("----------------------------------\n");
-            return sb.toString();
-        }
-
-        private BigDecimal calculateEnergyCharge(int units) {
-            BigDecimal charge = BigDecimal.ZERO;
-            int remaining = units;
-            for (int i = 0; i < SLAB_LIMITS.length; i++) {
-                int take = Math.min(remaining, SLAB_LIMITS[i]);
-                if (take > 0) {
-                    charge = charge.add(BigDecimal.valueOf(take).multiply(SLAB_RATES[i]));
-                    remaining -= take;
-                }
-            }
-            if (remaining > 0) {
-                charge = charge.add(BigDecimal.valueOf(remaining).multiply(RATE_ABOVE));
-            }
-            return charge;
-        }
-    }
-
     // -------------------- Menu Actions --------------------
 
     private static void addCustomer(Scanner sc) {
@@ -214,20 +136,32 @@ public class ElectricityBillSystem {
         System.out.print("Phone: ");
         String phone = sc.nextLine().trim();
 
-        Customer c = new Customer(nextCustomerId++, name, address, meter, phone);
-        customers.put(c.id, c);
+        Customer c = repo.addCustomer(name, address, meter, phone);
+        record(c);
         System.out.println("Added: " + c);
     }
 
     private static void listCustomers() {
         System.out.println("--- Customers ---");
-        if (customers.isEmpty()) {
+        List<Customer> all = repo.customers();
+        if (all.isEmpty()) {
             System.out.println("No customers.");
             return;
         }
-        customers.values().stream()
-                .sorted(Comparator.comparingInt(a -> a.id))
-                .forEach(System.out::println);
+        all.forEach(System.out::println);
+    }
+
+    private static void searchCustomers(Scanner sc) {
+        System.out.println("--- Search customers ---");
+        System.out.print("Meter number, phone, or part of name or address: ");
+        String query = sc.nextLine().trim();
+        List<Customer> found = repo.searchCustomers(query, SEARCH_LIMIT);
+        if (found.isEmpty()) {
+            System.out.println("No matching customers.");
+            return;
+        }
+        found.forEach(System.out::println);
+        if (found.size() == SEARCH_LIMIT) System.out.println("(first " + SEARCH_LIMIT + " matches shown)");
     }
 
     private static void generateBill(Scanner sc) {
@@ -237,7 +171,7 @@ public class ElectricityBillSystem {
         String cs = sc.nextLine().trim();
         try {
             int cid = Integer.parseInt(cs);
-            Customer c = customers.get(cid);
+            Customer c = repo.customer(cid);
             if (c == null) {
                 System.out.println("Customer not found.");
                 return;
@@ -246,9 +180,8 @@ public class ElectricityBillSystem {
             String month = sc.nextLine().trim();
             System.out.print("Enter units consumed (integer): ");
             int units = Integer.parseInt(sc.nextLine().trim());
-            Bill b = new Bill(nextBillId++, cid, month, units);
-            b.calculate();
-            bills.add(b);
+            Bill b = repo.generateBill(cid, month, units);
+            record(b);
             System.out.println("Bill generated:\n");
             System.out.println(b.toInvoiceText(c));
         } catch (NumberFormatException e) {
@@ -258,12 +191,13 @@ public class ElectricityBillSystem {
 
     private static void listBills() {
         System.out.println("--- Bills ---");
-        if (bills.isEmpty()) {
+        List<Bill> all = repo.bills();
+        if (all.isEmpty()) {
             System.out.println("No bills.");
             return;
         }
-        for (Bill b : bills) {
-            Customer c = customers.get(b.customerId);
+        for (Bill b : all) {
+            Customer c = repo.customer(b.customerId);
             System.out.printf("[%d] %s - %s - %s\n", b.billId, (c != null ? c.name : "Unknown"), b.month, b.total.toPlainString());
         }
     }
@@ -273,12 +207,12 @@ public class ElectricityBillSystem {
         String s = sc.nextLine().trim();
         try {
             int id = Integer.parseInt(s);
-            Bill bb = findBillById(id);
+            Bill bb = repo.bill(id);
             if (bb == null) {
                 System.out.println("Bill not found.");
                 return;
             }
-            Customer c = customers.get(bb.customerId);
+            Customer c = repo.customer(bb.customerId);
             System.out.println(bb.toInvoiceText(c != null ? c : new Customer(0, "Unknown", "", "", "")));
         } catch (NumberFormatException e) {
             System.out.println("Invalid input.");
@@ -290,12 +224,12 @@ public class ElectricityBillSystem {
         String s = sc.nextLine().trim();
         try {
             int id = Integer.parseInt(s);
-            Bill bb = findBillById(id);
+            Bill bb = repo.bill(id);
             if (bb == null) {
                 System.out.println("Bill not found.");
                 return;
             }
-            Customer c = customers.get(bb.customerId);
+            Customer c = repo.customer(bb.customerId);
             String text = bb.toInvoiceText(c != null ? c : new Customer(0, "Unknown", "", "", ""));
             String filename = "bill_" + bb.billId + ".txt";
             Files.write(Paths.get(filename), text.getBytes());
@@ -307,84 +241,423 @@ public class ElectricityBillSystem {
         }
     }
 
-    // -------------------- Persistence --------------------
+    // -------------------- Batch Billing --------------------
 
-    private static void saveAllData() {
-        saveCustomers();
-        saveBills();
-        System.out.println("Data saved.");
+    /**
+     * Usage: java ElectricityBillSystem --batch readings.csv [threads]
+     * Bills every reading in the file and saves the bills with the rest of the data.
+     */
+    private static void runBatch(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java ElectricityBillSystem --batch <readings.csv> [threads]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length > 2) threads = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid thread count: " + args[2]);
+            return;
+        }
+        loadAllData();
+        try {
+            storage.openJournal();
+            long start = System.nanoTime();
+            BatchBilling.Result r = BatchBilling.run(Paths.get(args[1]), repo, storage, threads);
+            System.out.printf("%s in %d ms%n", r, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            System.out.println("Batch billing failed: " + e.getMessage());
+        }
+        saveAllData();
+        closeJournal();
     }
 
-    private static void loadAllData() {
-        loadCustomers();
-        loadBills();
-        System.out.println("Data loaded (if files existed).");
+    // -------------------- Meter Readings --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --ingest [readings.csv ...] [-listen port] [-close]
+     * Bills the cumulative meter readings in the files, in order, then those
+     * sent to localhost:port until interrupted; -close also bills the months
+     * still open at the end. See MeterIngest.
+     */
+    private static void runIngest(String[] args) {
+        List<Path> files = new ArrayList<>();
+        int port = -1;
+        boolean close = false;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("-listen") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-close")) close = true;
+                else files.add(Paths.get(args[i]));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid port: " + e.getMessage());
+            return;
+        }
+        if (files.isEmpty() && port < 0) {
+            System.out.println("Usage: java ElectricityBillSystem --ingest [readings.csv ...] [-listen port] [-close]");
+            return;
+        }
+        loadAllData();
+        try {
+            storage.openJournal();
+            long start = System.nanoTime();
+            MeterIngest ingest = MeterIngest.start(repo, storage);
+            for (Path f : files) {
+                try {
+                    ingest.readFile(f);
+                } catch (IOException e) {
+                    System.out.println("Failed to read " + f + ": " + e.getMessage());
+                }
+            }
+            if (port >= 0) {
+                ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+                Thread main = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        server.close();
+                        main.join(); // until the readings taken so far are billed and saved
+                    } catch (IOException | InterruptedException ignored) {
+                        // exiting anyway
+                    }
+                }, "ingest-shutdown"));
+                System.out.println("Taking meter readings on localhost:" + server.getLocalPort() + ", Ctrl-C to stop");
+                ingest.listen(server);
+            }
+            MeterIngest.Result r = ingest.finish(close);
+            System.out.printf("%s in %d ms%n", r, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            System.out.println("Meter ingest failed: " + e.getMessage());
+        }
+        saveAllData();
+        closeJournal();
     }
 
-    private static void saveCustomers() {
-        List<String> lines = new ArrayList<>();
-        lines.add("id,name,address,meter,phone");
-        customers.values().stream()
-                .sorted(Comparator.comparingInt(a -> a.id))
-                .forEach(c -> lines.add(c.toCSV()));
+    // -------------------- Tariff Changes --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --rerate &lt;tariffs.csv&gt; [delta.csv] [threads]
+     * Installs the tariff schedule in the data directory and re-prices the bills
+     * of every month whose tariff changed; see Rerating.
+     */
+    private static void runRerate(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java ElectricityBillSystem --rerate <tariffs.csv> [delta.csv] [threads]");
+            return;
+        }
+        Path delta = Paths.get(args.length > 2 ? args[2] : "rerate-delta.csv");
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length > 3) threads = Integer.parseInt(args[3]);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid thread count: " + args[3]);
+            return;
+        }
+        TariffSchedule next;
         try {
-            Files.write(Paths.get(CUSTOMERS_FILE), lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            next = TariffSchedule.load(Paths.get(args[1]));
         } catch (IOException e) {
-            System.out.println("Failed to save customers: " + e.getMessage());
+            System.out.println("Failed to read tariffs: " + e.getMessage());
+            return;
+        }
+        loadAllData();
+        try {
+            storage.openJournal();
+            TariffSchedule previous = Tariff.schedule();
+            storage.installTariffs(next);
+            Rerating.Result r = Rerating.run(repo, storage, previous, next, threads);
+            Rerating.writeDelta(delta, r.changes);
+            System.out.println(r);
+            System.out.println("Delta written to " + delta);
+        } catch (IOException e) {
+            System.out.println("Re-rating failed: " + e.getMessage());
         }
+        saveAllData();
+        closeJournal();
     }
 
-    private static void saveBills() {
-        List<String> lines = new ArrayList<>();
-        lines.add("billId,customerId,month,units,energyCharge,fixedCharge,meterRent,tax,total");
-        bills.stream()
-                .sorted(Comparator.comparingInt(b -> b.billId))
-                .forEach(b -> lines.add(b.toCSV()));
+    // -------------------- Bill Audit --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --audit [report.csv] [threads] [-repair]
+     * Recalculates every stored bill with the installed tariffs and reports
+     * the ones whose amounts differ; with -repair they are also corrected and
+     * saved. See BillAudit.
+     */
+    private static void runAudit(String[] args) {
+        Path report = Paths.get("audit-report.csv");
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean repair = false;
+        List<String> positional = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-repair")) repair = true;
+            else positional.add(args[i]);
+        }
+        if (positional.size() > 2) {
+            System.out.println("Usage: java ElectricityBillSystem --audit [report.csv] [threads] [-repair]");
+            return;
+        }
+        if (!positional.isEmpty()) report = Paths.get(positional.get(0));
         try {
-            Files.write(Paths.get(BILLS_FILE), lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (positional.size() > 1) threads = Integer.parseInt(positional.get(1));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid thread count: " + positional.get(1));
+            return;
+        }
+        loadAllData();
+        try (Writer out = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            if (repair) storage.openJournal();
+            long start = System.nanoTime();
+            BillAudit.Result r = BillAudit.run(repo, storage, Tariff.schedule(), threads, out, repair);
+            System.out.printf("%s in %d ms%n", r, (System.nanoTime() - start) / 1_000_000);
+            System.out.println("Report written to " + report);
         } catch (IOException e) {
-            System.out.println("Failed to save bills: " + e.getMessage());
+            System.out.println("Audit failed: " + e.getMessage());
+        }
+        if (repair) {
+            saveAllData();
+            closeJournal();
         }
     }
 
-    private static void loadCustomers() {
-        customers.clear();
-        Path p = Paths.get(CUSTOMERS_FILE);
-        if (!Files.exists(p)) return;
+    // -------------------- Bulk Export --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --export-invoices &lt;out.txt|out.zip|out.tar&gt;
+     *            (-month &lt;month&gt; | -customers &lt;fromId&gt;-&lt;toId&gt;) [threads]
+     * Renders the selected invoices into one file; see InvoiceExporter.
+     */
+    private static void runExport(String[] args) {
+        if (args.length < 4 || !(args[2].equals("-month") || args[2].equals("-customers"))) {
+            System.out.println("Usage: java ElectricityBillSystem --export-invoices <out.txt|out.zip|out.tar> "
+                    + "(-month <month> | -customers <fromId>-<toId>) [threads]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Bill> selected = new ArrayList<>();
         try {
-            List<String> lines = Files.readAllLines(p);
-            for (int i = 1; i < lines.size(); i++) {
-                String l = lines.get(i).trim();
-                if (l.isEmpty()) continue;
-                Customer c = Customer.fromCSV(l);
-                customers.put(c.id, c);
-                nextCustomerId = Math.max(nextCustomerId, c.id + 1);
+            if (args.length > 4) threads = Integer.parseInt(args[4]);
+            loadAllData();
+            if (args[2].equals("-month")) {
+                selected = repo.billsForMonth(args[3]);
+            } else {
+                String[] range = args[3].split("-", 2);
+                int from = Integer.parseInt(range[0].trim());
+                int to = range.length > 1 ? Integer.parseInt(range[1].trim()) : from;
+                for (Customer c : repo.customers()) {
+                    if (c.id >= from && c.id <= to) selected.addAll(repo.billsOfCustomer(c.id));
+                }
             }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number: " + e.getMessage());
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            long bytes = InvoiceExporter.export(selected, repo::customer, Paths.get(args[1]), threads);
+            System.out.printf("Exported %d invoices (%d bytes of text) to %s in %d ms%n", selected.size(), bytes,
+                    args[1], (System.nanoTime() - start) / 1_000_000);
         } catch (IOException e) {
-            System.out.println("Failed to load customers: " + e.getMessage());
+            System.out.println("Export failed: " + e.getMessage());
         }
     }
 
-    private static void loadBills() {
-        bills.clear();
-        Path p = Paths.get(BILLS_FILE);
-        if (!Files.exists(p)) return;
+    // -------------------- Reports --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --report [-month &lt;month&gt;] [-top &lt;n&gt;]
+     * Prints revenue and tax by month, units by slab band, the top consumers
+     * and consumption percentiles; the last two for one month if given.
+     */
+    private static void runReport(String[] args) {
+        String month = null;
+        int top = 10;
         try {
-            List<String> lines = Files.readAllLines(p);
-            for (int i = 1; i < lines.size(); i++) {
-                String l = lines.get(i).trim();
-                if (l.isEmpty()) continue;
-                Bill b = Bill.fromCSV(l);
-                bills.add(b);
-                nextBillId = Math.max(nextBillId, b.billId + 1);
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("-month") && i + 1 < args.length) {
+                    month = args[++i];
+                } else if (args[i].equals("-top") && i + 1 < args.length) {
+                    top = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
             }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Usage: java ElectricityBillSystem --report [-month <month>] [-top <n>]");
+            return;
+        }
+        loadAllData();
+        long start = System.nanoTime();
+        BillingReports reports = new BillingReports(repo);
+
+        System.out.println("--- Revenue by month ---");
+        System.out.printf("%-16s %9s %12s %14s %12s %14s%n", "Month", "Bills", "Units", "Energy", "Tax", "Total");
+        long bills = 0, units = 0;
+        for (BillingReports.MonthTotals t : reports.revenueByMonth()) {
+            System.out.printf("%-16s %9d %12d %14s %12s %14s%n", t.month, t.bills, t.units,
+                    taka(t.energy), taka(t.tax), taka(t.total));
+            bills += t.bills;
+            units += t.units;
+        }
+        System.out.printf("%-16s %9d %12d %14s %12s %14s%n", "All", bills, units, "",
+                taka(reports.taxCollected()), taka(reports.revenue()));
+
+        System.out.println("--- Units by slab band ---");
+        System.out.printf("%-12s %14s %9s%n", "Band", "Units", "Bills");
+        for (BillingReports.SlabBand b : reports.unitsBySlabBand()) {
+            System.out.printf("%-12s %14d %9d%n", b.label(), b.units, b.bills);
+        }
+
+        String scope = month == null ? "all months" : month;
+        System.out.println("--- Top " + top + " consumers, " + scope + " ---");
+        for (BillingReports.Consumer c : reports.topConsumers(top, month)) {
+            Customer cust = repo.customer(c.customerId);
+            System.out.printf("%6d  %-24s %10d units %14s  (%d bills)%n", c.customerId,
+                    cust != null ? cust.name : "Unknown", c.units, taka(c.total), c.bills);
+        }
+
+        System.out.println("--- Units per bill, " + scope + " ---");
+        BillingReports.Percentiles p = reports.consumptionPercentiles(month, 50, 90, 95, 99, 99.9);
+        System.out.printf("count %d, mean %.1f, max %d%n", p.count, p.mean, p.max);
+        for (int i = 0; i < p.percentiles.length; i++) {
+            System.out.printf("  p%-5s %8d%n", BigDecimal.valueOf(p.percentiles[i]).stripTrailingZeros().toPlainString(),
+                    p.values[i]);
+        }
+        System.out.printf("Reports computed in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static String taka(long paisa) {
+        return BigDecimal.valueOf(paisa, 2).toPlainString();
+    }
+
+    // -------------------- HTTP API --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --serve [port]
+     * Serves the JSON API in BillingServer until the JVM is stopped; data is saved on shutdown.
+     */
+    private static void runServer(String[] args) {
+        int port = BillingServer.DEFAULT_PORT;
+        try {
+            if (args.length > 1) port = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid port: " + args[1]);
+            return;
+        }
+        loadAllData();
+        try {
+            storage.openJournal();
+            BillingServer server = new BillingServer(repo, storage, port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                saveAllData();
+                closeJournal();
+            }, "server-shutdown"));
+            System.out.println("Billing API listening on http://localhost:" + server.port() + "/");
         } catch (IOException e) {
-            System.out.println("Failed to load bills: " + e.getMessage());
+            System.out.println("Failed to start server: " + e.getMessage());
         }
     }
 
-    private static Bill findBillById(int id) {
-        for (Bill b : bills) if (b.billId == id) return b;
-        return null;
+    // -------------------- Sharding --------------------
+
+    /**
+     * Usage: java ElectricityBillSystem --coordinate &lt;shards&gt; [port] [-dir path] [-attach]
+     * Serves the HTTP API on port (default 8080) over shards worker processes
+     * on the ports after it, launched with their data under path (default
+     * shards/ in the data directory) unless -attach; see ShardCoordinator.
+     */
+    private static void runCoordinator(String[] args) {
+        String usage = "Usage: java ElectricityBillSystem --coordinate <shards> [port] [-dir path] [-attach]";
+        int shards;
+        int port = BillingServer.DEFAULT_PORT;
+        Path dir = Paths.get(System.getProperty("billing.dir", "."), "shards");
+        boolean attach = false;
+        try {
+            if (args.length < 2) {
+                System.out.println(usage);
+                return;
+            }
+            shards = Integer.parseInt(args[1]);
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("-dir") && i + 1 < args.length) dir = Paths.get(args[++i]);
+                else if (args[i].equals("-attach")) attach = true;
+                else port = Integer.parseInt(args[i]);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number: " + e.getMessage());
+            return;
+        }
+        if (shards < 1) {
+            System.out.println(usage);
+            return;
+        }
+        ShardCoordinator coordinator;
+        try {
+            List<ShardCoordinator.Shard> workers = attach ? ShardCoordinator.attach(shards, port + 1)
+                    : ShardCoordinator.launch(shards, dir, port + 1);
+            coordinator = new ShardCoordinator(workers, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(coordinator::stop, "coordinator-shutdown"));
+            if (!attach) System.out.println("Started " + shards + " workers, data and logs under " + dir);
+        } catch (IOException e) {
+            System.out.println("Failed to start workers: " + e.getMessage());
+            return;
+        }
+        try {
+            coordinator.awaitWorkers();
+            coordinator.start();
+            System.out.println("Coordinator listening on http://localhost:" + coordinator.port() + "/ over shards on ports "
+                    + (port + 1) + "-" + (port + shards));
+        } catch (IOException e) {
+            System.out.println("Workers not ready: " + e.getMessage());
+            coordinator.stop();
+        }
+    }
+
+    // -------------------- Persistence --------------------
+
+    private static void saveAllData() {
+        try {
+            storage.save(repo).get();
+        } catch (Exception e) {
+            System.out.println("Failed to save data: " + e.getMessage());
+            return;
+        }
+        System.out.println("Data saved.");
+    }
+
+    private static void loadAllData() {
+        try {
+            storage.load(repo, stage -> { });
+        } catch (IOException e) {
+            System.out.println("Failed to load data: " + e.getMessage());
+            return;
+        }
+        System.out.println("Data loaded (if files existed).");
+    }
+
+    private static void record(Customer c) {
+        try {
+            storage.record(repo, c);
+        } catch (IOException e) {
+            System.out.println("Failed to journal the change: " + e.getMessage());
+        }
+    }
+
+    private static void record(Bill b) {
+        try {
+            storage.record(repo, b);
+        } catch (IOException e) {
+            System.out.println("Failed to journal the change: " + e.getMessage());
+        }
+    }
+
+    private static void closeJournal() {
+        try {
+            storage.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close journal: " + e.getMessage());
+        }
     }
 }
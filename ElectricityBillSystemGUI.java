@@ -1,50 +1,63 @@
 import java.awt.*;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.nio.file.*;
 import java.util.*;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 
 public class ElectricityBillSystemGUI extends JFrame {
 
-    private static final String CUSTOMERS_FILE = "customers.csv";
-    private static final String BILLS_FILE = "bills.csv";
+    // Replaced wholesale on the EDT when a background load finishes
+    private static BillingRepository repo = new ConcurrentBillingRepository();
+    private static final BillingStorage storage = BillingStorage.fromSystemProperties();
 
-    private static final Map<Integer, Customer> customers = new HashMap<>();
-    private static final java.util.List<Bill> bills = new ArrayList<>();
-    private static int nextCustomerId = 1;
-    private static int nextBillId = 1;
+    private static final int SEARCH_LIMIT = 200;
 
-    private static final int[] SLAB_LIMITS = {50, 100, 100};
-    private static final BigDecimal[] SLAB_RATES = {
-            new BigDecimal("3.00"),
-            new BigDecimal("5.50"),
-            new BigDecimal("7.00")
-    };
-    private static final BigDecimal RATE_ABOVE = new BigDecimal("9.00");
-    private static final BigDecimal FIXED_CHARGE = new BigDecimal("50.00");
-    private static final BigDecimal METER_RENT = new BigDecimal("20.00");
-    private static final BigDecimal TAX_RATE = new BigDecimal("0.05");
+    // Table and combo models read straight from the repository and fire per-row events
+    private final CustomerTableModel customerModel = new CustomerTableModel();
+    private final BillTableModel billModel = new BillTableModel();
 
-    private final DefaultTableModel customerModel;
-    private final DefaultTableModel billModel;
+    // The bill table shows one month, so opening it reads only that month's partition
+    private final JComboBox<String> monthCombo = new JComboBox<>();
+    private static final Comparator<String> MONTH_ORDER =
+            Comparator.comparingInt(TariffSchedule::monthKey).thenComparing(Comparator.naturalOrder());
+    private final CustomerComboModel comboModel = new CustomerComboModel(customerModel);
 
     // Shared reference to combo
-    private final JComboBox<Customer> custCombo = new JComboBox<>();
+    private final JComboBox<Customer> custCombo = new JComboBox<>(comboModel) {
+        // Rows are read afresh each time, so look them up by ID instead of scanning the model for an equal instance
+        @Override public void setSelectedItem(Object item) { dataModel.setSelectedItem(item); }
+        @Override public int getSelectedIndex() {
+            Object c = dataModel.getSelectedItem();
+            return c == null ? -1 : customerModel.rowOf((Customer) c);
+        }
+    };
+
+    private final JMenu file;
+
+    // Status bar shown while loading
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JProgressBar progress = new JProgressBar();
+
+    // Off-EDT file work that is not journal/snapshot I/O (exports, saves without a journal)
+    private static final java.util.concurrent.ExecutorService io =
+            java.util.concurrent.Executors.newSingleThreadExecutor(r -> { Thread t = new Thread(r, "gui-io"); t.setDaemon(true); return t; });
 
     public ElectricityBillSystemGUI() {
         super("Electricity Bill System");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override public void windowClosing(java.awt.event.WindowEvent e) { shutdownPersistence(); System.exit(0); }
+        });
         setSize(850, 600);
         setLocationRelativeTo(null);
 
         JTabbedPane tabs = new JTabbedPane();
+        getGlassPane().addMouseListener(new java.awt.event.MouseAdapter() {}); // swallows clicks while busy
 
         // ---------------- Customers Tab ----------------
         JPanel customerPanel = new JPanel(new BorderLayout());
-        customerModel = new DefaultTableModel(new Object[]{"ID", "Name", "Address", "Meter No", "Phone"}, 0);
         JTable customerTable = new JTable(customerModel);
         customerPanel.add(new JScrollPane(customerTable), BorderLayout.CENTER);
 
@@ -69,26 +82,43 @@ public class ElectricityBillSystemGUI extends JFrame {
             String n = nameField.getText().trim();
             if (n.isEmpty()) { JOptionPane.showMessageDialog(this, "Name required"); return; }
 
-            Customer c = new Customer(nextCustomerId++, n,
+            Customer c = repo.addCustomer(n,
                     addrField.getText().trim(),
                     meterField.getText().trim(),
                     phoneField.getText().trim());
-            customers.put(c.id, c);
-            refreshCustomers();
-            updateCustomerCombo();
+            if (customerModel.customerAdded(c)) comboModel.customerAdded();
+            else comboModel.customerUpdated(c);
             clearCustomerForm(nameField, addrField, meterField, phoneField);
 
-            saveAll(); // 🔑 Save immediately
+            record(c);
         });
 
         JButton editCustomerBtn = new JButton("Edit Selected");
-        customerPanel.add(editCustomerBtn, BorderLayout.NORTH);
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText("Meter no, phone, or part of name/address; Enter to search, empty for all");
+        JPanel customerTop = new JPanel(new BorderLayout(5, 0));
+        customerTop.add(editCustomerBtn, BorderLayout.WEST);
+        customerTop.add(new JLabel("Search:"), BorderLayout.CENTER);
+        customerTop.add(searchField, BorderLayout.EAST);
+        searchField.setColumns(30);
+        customerPanel.add(customerTop, BorderLayout.NORTH);
+
+        // Narrows the table (and so the combo, which shares its rows) to the matches
+        searchField.addActionListener(e -> {
+            String q = searchField.getText().trim();
+            if (q.isEmpty()) { customerModel.reload(); comboModel.reload(); statusLabel.setText(" "); return; }
+            searchCustomers(q, found -> {
+                customerModel.showOnly(found);
+                comboModel.reload();
+                statusLabel.setText(found.size() + (found.size() == SEARCH_LIMIT ? "+" : "") + " customers match \"" + q + "\"");
+            });
+        });
 
         editCustomerBtn.addActionListener(e -> {
             int selectedRow = customerTable.getSelectedRow();
             if (selectedRow == -1) { JOptionPane.showMessageDialog(this, "Select a customer to edit."); return; }
             int customerId = (int) customerModel.getValueAt(selectedRow, 0);
-            Customer customer = customers.get(customerId);
+            Customer customer = repo.customer(customerId);
             if (customer != null) {
                 nameField.setText(customer.name);
                 addrField.setText(customer.address);
@@ -102,34 +132,45 @@ public class ElectricityBillSystemGUI extends JFrame {
                 for (var l : saveCustomerBtn.getActionListeners()) saveCustomerBtn.removeActionListener(l);
 
                 saveCustomerBtn.addActionListener(saveEvent -> {
-                    customer.name = nameField.getText().trim();
-                    customer.address = addrField.getText().trim();
-                    customer.meterNumber = meterField.getText().trim();
-                    customer.phone = phoneField.getText().trim();
-                    refreshCustomers();
-                    updateCustomerCombo();
+                    Customer updated = repo.updateCustomer(customer.id, nameField.getText().trim(),
+                            addrField.getText().trim(), meterField.getText().trim(), phoneField.getText().trim());
+                    if (updated == null) return;
+                    customerModel.customerUpdated(updated);
+                    comboModel.customerUpdated(updated);
+                    billModel.customerUpdated(updated.id); // customer name column
                     clearCustomerForm(nameField, addrField, meterField, phoneField);
                     addBtn.setEnabled(true);
                     saveCustomerBtn.setEnabled(false);
 
-                    saveAll(); // 🔑 Save immediately
+                    record(updated);
                 });
             }
         });
 
         // ---------------- Bills Tab ----------------
         JPanel billPanel = new JPanel(new BorderLayout());
-        billModel = new DefaultTableModel(new Object[]{"Bill ID", "Customer", "Month", "Units", "Total"}, 0);
         JTable billTable = new JTable(billModel);
         billPanel.add(new JScrollPane(billTable), BorderLayout.CENTER);
 
-        JPanel billForm = new JPanel(new GridLayout(4, 2, 5, 5));
+        JPanel billForm = new JPanel(new GridLayout(5, 2, 5, 5));
+        JTextField findField = new JTextField();
+        findField.setToolTipText("Meter no, phone, or part of name/address; Enter to pick the customer");
         JTextField monthField = new JTextField();
         JTextField unitsField = new JTextField();
         JButton genBtn = new JButton("Generate Bill");
         JButton saveBillBtn = new JButton("Save Changes");
         saveBillBtn.setEnabled(false);
 
+        // fixed cell size so the combo never measures every customer
+        custCombo.setPrototypeDisplayValue(new Customer(0, "XXXXXXXXXXXXXXXXXXXX", "", "", ""));
+        custCombo.setRenderer(new DefaultListCellRenderer() {
+            @Override public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                                    boolean selected, boolean focus) {
+                Customer c = (Customer) value;
+                return super.getListCellRendererComponent(list, c == null ? "" : c.id + ": " + c.name, index, selected, focus);
+            }
+        });
+        billForm.add(new JLabel("Find customer:")); billForm.add(findField);
         billForm.add(new JLabel("Customer:")); billForm.add(custCombo);
         billForm.add(new JLabel("Month:")); billForm.add(monthField);
         billForm.add(new JLabel("Units:")); billForm.add(unitsField);
@@ -137,32 +178,50 @@ public class ElectricityBillSystemGUI extends JFrame {
         billPanel.add(billForm, BorderLayout.SOUTH);
         tabs.add("Bills", billPanel);
 
+        findField.addActionListener(e -> {
+            String q = findField.getText().trim();
+            if (q.isEmpty()) return;
+            searchCustomers(q, found -> {
+                Customer pick = null;
+                if (found.size() == 1) pick = found.get(0);
+                else if (found.isEmpty()) JOptionPane.showMessageDialog(this, "No customer matches \"" + q + "\"");
+                else pick = (Customer) JOptionPane.showInputDialog(this, "Customers matching \"" + q + "\":", "Find customer",
+                        JOptionPane.PLAIN_MESSAGE, null, found.toArray(), found.get(0));
+                if (pick != null) selectCustomer(pick);
+            });
+        });
+
         genBtn.addActionListener(e -> {
             Customer c = (Customer) custCombo.getSelectedItem();
             if (c == null) { JOptionPane.showMessageDialog(this, "No customer selected"); return; }
             try {
                 int units = Integer.parseInt(unitsField.getText().trim());
-                Bill b = new Bill(nextBillId++, c.id, monthField.getText().trim(), units);
-                b.calculate();
-                bills.add(b);
-                refreshBills();
+                Bill b = repo.generateBill(c.id, monthField.getText().trim(), units);
+                billModel.billAdded(b);
+                addMonth(b.month);
                 JOptionPane.showMessageDialog(this, b.toInvoiceText(c), "Bill Generated", JOptionPane.INFORMATION_MESSAGE);
                 clearBillForm(monthField, unitsField);
 
-                saveAll(); // 🔑 Save immediately
+                record(b);
             } catch (Exception ex) { JOptionPane.showMessageDialog(this, "Invalid input: " + ex.getMessage()); }
         });
 
         JButton editBillBtn = new JButton("Edit Selected");
-        billPanel.add(editBillBtn, BorderLayout.NORTH);
+        JPanel billTop = new JPanel(new BorderLayout(5, 0));
+        billTop.add(editBillBtn, BorderLayout.WEST);
+        billTop.add(new JLabel("Month:", SwingConstants.RIGHT), BorderLayout.CENTER);
+        billTop.add(monthCombo, BorderLayout.EAST);
+        billPanel.add(billTop, BorderLayout.NORTH);
+        monthCombo.addActionListener(e -> showMonth((String) monthCombo.getSelectedItem()));
 
         editBillBtn.addActionListener(e -> {
             int selectedRow = billTable.getSelectedRow();
             if (selectedRow == -1) { JOptionPane.showMessageDialog(this, "Select a bill to edit."); return; }
             int billId = (int) billModel.getValueAt(selectedRow, 0);
-            Bill bill = findBill(billId);
+            Bill bill = repo.bill(billId);
             if (bill != null) {
-                custCombo.setSelectedItem(customers.get(bill.customerId));
+                Customer owner = repo.customer(bill.customerId);
+                if (owner != null) selectCustomer(owner);
                 monthField.setText(bill.month);
                 unitsField.setText(String.valueOf(bill.units));
                 genBtn.setEnabled(false);
@@ -174,16 +233,16 @@ public class ElectricityBillSystemGUI extends JFrame {
                 saveBillBtn.addActionListener(saveEvent -> {
                     try {
                         Customer c = (Customer) custCombo.getSelectedItem();
-                        bill.customerId = c.id;
-                        bill.month = monthField.getText().trim();
-                        bill.units = Integer.parseInt(unitsField.getText().trim());
-                        bill.calculate();
-                        refreshBills();
+                        Bill updated = repo.updateBill(bill.billId, c.id, monthField.getText().trim(),
+                                Integer.parseInt(unitsField.getText().trim()));
+                        if (updated == null) return;
+                        billModel.billUpdated(updated);
+                        addMonth(updated.month);
                         clearBillForm(monthField, unitsField);
                         genBtn.setEnabled(true);
                         saveBillBtn.setEnabled(false);
 
-                        saveAll(); // 🔑 Save immediately
+                        record(updated);
                     } catch (Exception ex) { JOptionPane.showMessageDialog(this, "Invalid input: " + ex.getMessage()); }
                 });
             }
@@ -191,40 +250,54 @@ public class ElectricityBillSystemGUI extends JFrame {
 
         // ---------------- Menu ----------------
         JMenuBar mb = new JMenuBar();
-        JMenu file = new JMenu("File");
+        file = new JMenu("File");
         JMenuItem save = new JMenuItem("Save Data");
         JMenuItem load = new JMenuItem("Load Data");
         JMenuItem export = new JMenuItem("Export Selected Bill");
+        JMenuItem tariffs = new JMenuItem("Load Tariffs...");
         JMenuItem exit = new JMenuItem("Exit");
-        file.add(save); file.add(load); file.add(export); file.add(exit);
+        file.add(save); file.add(load); file.add(export); file.add(tariffs); file.add(exit);
         mb.add(file);
         setJMenuBar(mb);
 
         save.addActionListener(e -> saveAll());
-        load.addActionListener(e -> { loadAll(); refreshCustomers(); refreshBills(); updateCustomerCombo(); });
-        exit.addActionListener(e -> { saveAll(); System.exit(0); });
+        load.addActionListener(e -> loadAll());
+        tariffs.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(storage.dir().toFile());
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) rerate(chooser.getSelectedFile().toPath());
+        });
+        exit.addActionListener(e -> { saveAll(); shutdownPersistence(); System.exit(0); });
 
         export.addActionListener(e -> {
             int row = billTable.getSelectedRow();
             if (row == -1) { JOptionPane.showMessageDialog(this, "Select a bill first."); return; }
             int billId = (int) billModel.getValueAt(row, 0);
-            Bill b = findBill(billId);
+            Bill b = repo.bill(billId);
             if (b != null) {
-                Customer c = customers.get(b.customerId);
+                Customer c = repo.customer(b.customerId);
                 String txt = b.toInvoiceText(c);
-                try {
-                    String fname = "bill_" + b.billId + ".txt";
-                    Files.write(Paths.get(fname), txt.getBytes());
-                    JOptionPane.showMessageDialog(this, "Exported to " + fname);
-                } catch (IOException ex) { JOptionPane.showMessageDialog(this, "Export failed: " + ex.getMessage()); }
+                String fname = "bill_" + b.billId + ".txt";
+                io.execute(() -> {
+                    try {
+                        Files.write(Paths.get(fname), txt.getBytes());
+                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Exported to " + fname));
+                    } catch (IOException ex) {
+                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Export failed: " + ex.getMessage()));
+                    }
+                });
             }
         });
 
         add(tabs);
+        JPanel status = new JPanel(new BorderLayout(5, 0));
+        status.add(statusLabel, BorderLayout.CENTER);
+        status.add(progress, BorderLayout.EAST);
+        progress.setVisible(false);
+        add(status, BorderLayout.SOUTH);
+
+        // flush the journal however the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(ElectricityBillSystemGUI::shutdownPersistence, "persistence-shutdown"));
         loadAll();
-        refreshCustomers();
-        refreshBills();
-        updateCustomerCombo();
     }
 
     private void clearCustomerForm(JTextField n, JTextField a, JTextField m, JTextField p) {
@@ -235,133 +308,324 @@ public class ElectricityBillSystemGUI extends JFrame {
         m.setText(""); u.setText("");
     }
 
-    private void refreshCustomers() {
-        customerModel.setRowCount(0);
-        for (Customer c : customers.values())
-            customerModel.addRow(new Object[]{c.id, c.name, c.address, c.meterNumber, c.phone});
+    // Full reload after loading from disk; single edits use the models' per-row events
+    private void refreshAll() {
+        customerModel.reload();
+        comboModel.reload();
+        String shown = billModel.month();
+        java.util.List<String> months = new ArrayList<>(repo.billMonths()); // names only, no month is read
+        months.sort(MONTH_ORDER);
+        DefaultComboBoxModel<String> m = new DefaultComboBoxModel<>(months.toArray(new String[0]));
+        m.setSelectedItem(months.contains(shown) ? shown : months.isEmpty() ? null : months.get(months.size() - 1));
+        monthCombo.setModel(m); // does not fire, so the month is read once, below
+        showMonth((String) m.getSelectedItem());
     }
 
-    private void refreshBills() {
-        billModel.setRowCount(0);
-        for (Bill b : bills) {
-            Customer c = customers.get(b.customerId);
-            billModel.addRow(new Object[]{b.billId, (c != null ? c.name : "Unknown"), b.month, b.units, b.total});
-        }
+    // Reading a month can load its partition, so the bills are fetched off the EDT
+    private void showMonth(String month) {
+        if (month == null) { billModel.show(null, Collections.emptyList()); return; }
+        BillingRepository current = repo;
+        new SwingWorker<java.util.List<Bill>, Void>() {
+            @Override protected java.util.List<Bill> doInBackground() { return current.billsForMonth(month); }
+            @Override protected void done() {
+                if (current != repo || !month.equals(monthCombo.getSelectedItem())) return; // superseded
+                try { billModel.show(month, get()); }
+                catch (Exception e) { JOptionPane.showMessageDialog(ElectricityBillSystemGUI.this, "Failed to read " + month + ": " + e.getMessage()); }
+            }
+        }.execute();
+    }
+
+    // A bill added or moved to a month not listed yet; the table stays on the month shown
+    private void addMonth(String month) {
+        DefaultComboBoxModel<String> m = (DefaultComboBoxModel<String>) monthCombo.getModel();
+        if (m.getIndexOf(month) >= 0) return;
+        int i = 0;
+        while (i < m.getSize() && MONTH_ORDER.compare(m.getElementAt(i), month) < 0) i++;
+        m.insertElementAt(month, i);
+        if (m.getSelectedItem() == null) monthCombo.setSelectedItem(month);
     }
 
-    private void updateCustomerCombo() {
-        custCombo.removeAllItems();
-        for (Customer c : customers.values()) custCombo.addItem(c);
+    // Index lookups are fast, but the first one builds the index, so it runs off the EDT
+    private void searchCustomers(String query, java.util.function.Consumer<java.util.List<Customer>> show) {
+        BillingRepository current = repo;
+        new SwingWorker<java.util.List<Customer>, Void>() {
+            @Override protected java.util.List<Customer> doInBackground() { return current.searchCustomers(query, SEARCH_LIMIT); }
+            @Override protected void done() {
+                try { show.accept(get()); }
+                catch (Exception e) { JOptionPane.showMessageDialog(ElectricityBillSystemGUI.this, "Search failed: " + e.getMessage()); }
+            }
+        }.execute();
+    }
+
+    // The repository hands out a new Customer per read, so select the combo's own row for that ID
+    private void selectCustomer(Customer c) {
+        int r = customerModel.rowOf(c);
+        if (r >= 0) custCombo.setSelectedItem(comboModel.getElementAt(r));
     }
 
+    // With a journal, the snapshot is captured and written on the journal's writer thread
     private void saveAll() {
-        saveCustomers();
-        saveBills();
-        // Optional: JOptionPane.showMessageDialog(this, "Data saved.");
+        BillingRepository current = repo;
+        if (!storage.journaling()) {
+            io.execute(() -> { try { storage.save(current); } catch (IOException e) { e.printStackTrace(); } });
+            return;
+        }
+        try { storage.save(current); }
+        catch (IOException e) { JOptionPane.showMessageDialog(this, "Save failed: " + e.getMessage()); }
     }
 
+    // Loads into a fresh repository on a background thread and swaps it in on the EDT
     private void loadAll() {
-        loadCustomers();
-        loadBills();
+        setBusy(true);
+        new SwingWorker<BillingRepository, String>() {
+            @Override protected BillingRepository doInBackground() throws Exception {
+                BillingRepository loaded = new ConcurrentBillingRepository();
+                storage.load(loaded, this::publish);
+                return loaded;
+            }
+            @Override protected void process(java.util.List<String> stages) {
+                statusLabel.setText(stages.get(stages.size() - 1));
+            }
+            @Override protected void done() {
+                try {
+                    repo = get();
+                    refreshAll();
+                    statusLabel.setText(repo.customerCount() + " customers, bills for " + monthCombo.getItemCount() + " months");
+                } catch (Exception e) {
+                    statusLabel.setText("Load failed");
+                    JOptionPane.showMessageDialog(ElectricityBillSystemGUI.this, "Load failed: " + e.getMessage());
+                }
+                try { storage.openJournal(); }
+                catch (IOException e) { JOptionPane.showMessageDialog(ElectricityBillSystemGUI.this, "Journal unavailable: " + e.getMessage()); }
+                setBusy(false);
+            }
+        }.execute();
     }
 
-    private static Bill findBill(int id) {
-        for (Bill b : bills) if (b.billId == id) return b;
-        return null;
+    // Installs a tariff file and re-prices the affected months in the background
+    private void rerate(Path tariffFile) {
+        setBusy(true);
+        statusLabel.setText("Re-rating bills...");
+        BillingRepository current = repo;
+        new SwingWorker<Rerating.Result, Void>() {
+            @Override protected Rerating.Result doInBackground() throws Exception {
+                TariffSchedule next = TariffSchedule.load(tariffFile);
+                TariffSchedule previous = Tariff.schedule();
+                storage.installTariffs(next);
+                Rerating.Result r = Rerating.run(current, storage, previous, next, Runtime.getRuntime().availableProcessors());
+                Rerating.writeDelta(storage.dir().resolve("rerate-delta.csv"), r.changes);
+                return r;
+            }
+            @Override protected void done() {
+                try {
+                    Rerating.Result r = get();
+                    showMonth((String) monthCombo.getSelectedItem());
+                    statusLabel.setText(r.toString());
+                    JOptionPane.showMessageDialog(ElectricityBillSystemGUI.this, r + "\nDelta written to rerate-delta.csv");
+                } catch (Exception e) {
+                    statusLabel.setText("Re-rating failed");
+                    JOptionPane.showMessageDialog(ElectricityBillSystemGUI.this, "Re-rating failed: " + e.getMessage());
+                }
+                setBusy(false);
+            }
+        }.execute();
     }
 
-    private static void saveCustomers() {
-        java.util.List<String> lines = new ArrayList<>();
-        lines.add("id,name,address,meter,phone");
-        for (Customer c : customers.values()) lines.add(c.toCSV());
-        try { Files.write(Paths.get(CUSTOMERS_FILE), lines); } catch (IOException e) { e.printStackTrace(); }
+    private void setBusy(boolean busy) {
+        file.setEnabled(!busy);
+        getGlassPane().setVisible(busy);
+        getGlassPane().setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null);
+        progress.setIndeterminate(busy);
+        progress.setVisible(busy);
     }
 
-    private static void saveBills() {
-        java.util.List<String> lines = new ArrayList<>();
-        lines.add("billId,customerId,month,units,energy,fixed,meter,tax,total");
-        for (Bill b : bills) lines.add(b.toCSV());
-        try { Files.write(Paths.get(BILLS_FILE), lines); } catch (IOException e) { e.printStackTrace(); }
+    // Appends one change to the journal instead of rewriting both CSV files
+    private void record(Customer c) {
+        if (!storage.journaling()) { saveAll(); return; }
+        try { storage.record(repo, c); }
+        catch (IOException e) { JOptionPane.showMessageDialog(this, "Save failed: " + e.getMessage()); }
     }
 
-    private static void loadCustomers() {
-        customers.clear(); nextCustomerId = 1;
-        Path p = Paths.get(CUSTOMERS_FILE);
-        if (!Files.exists(p)) return;
-        try {
-            java.util.List<String> lines = Files.readAllLines(p);
-            for (int i = 1; i < lines.size(); i++) {
-                Customer c = Customer.fromCSV(lines.get(i));
-                customers.put(c.id, c);
-                nextCustomerId = Math.max(nextCustomerId, c.id + 1);
-            }
-        } catch (IOException e) { e.printStackTrace(); }
+    private void record(Bill b) {
+        if (!storage.journaling()) { saveAll(); return; }
+        try { storage.record(repo, b); }
+        catch (IOException e) { JOptionPane.showMessageDialog(this, "Save failed: " + e.getMessage()); }
     }
 
-    private static void loadBills() {
-        bills.clear(); nextBillId = 1;
-        Path p = Paths.get(BILLS_FILE);
-        if (!Files.exists(p)) return;
-        try {
-            java.util.List<String> lines = Files.readAllLines(p);
-            for (int i = 1; i < lines.size(); i++) {
-                Bill b = Bill.fromCSV(lines.get(i));
-                bills.add(b);
-                nextBillId = Math.max(nextBillId, b.billId + 1);
-            }
-        } catch (IOException e) { e.printStackTrace(); }
+    // Waits for pending exports and snapshots, then flushes and closes the journal
+    private static synchronized void shutdownPersistence() {
+        io.shutdown();
+        try { io.awaitTermination(1, java.util.concurrent.TimeUnit.MINUTES); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        try { storage.close(); } catch (IOException e) { e.printStackTrace(); }
     }
 
-    static class Customer {
-        int id; String name, address, meterNumber, phone;
-        Customer(int id, String n, String a, String m, String p) { id=id; name=n; address=a; meterNumber=m; phone=p; }
-        public String toString() { return id + ": " + name; }
-        String toCSV() { return id + "," + name + "," + address + "," + meterNumber + "," + phone; }
-        static Customer fromCSV(String l) {
-            String[] t = l.split(",", -1);
-            return new Customer(Integer.parseInt(t[0]), t[1], t[2], t[3], t[4]);
+    // ---------------- Table / combo models ----------------
+
+    // Customers in id order; holds only their IDs, cells are read from the repository row by row
+    private static class CustomerTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"ID", "Name", "Address", "Meter No", "Phone"};
+        private int[] ids = new int[0];
+        private int size;
+        private boolean sorted = true; // search results come in match order
+        private Customer last; // the row being painted, read once for all its cells
+
+        void reload() {
+            ids = repo.customerIds();
+            size = ids.length;
+            sorted = true;
+            last = null;
+            fireTableDataChanged();
+        }
+
+        // Search results; reload() goes back to every customer
+        void showOnly(java.util.List<Customer> found) {
+            ids = found.stream().mapToInt(c -> c.id).toArray();
+            size = ids.length;
+            sorted = false;
+            last = null;
+            fireTableDataChanged();
+        }
+
+        // Returns false if the id was already listed and its row was updated instead
+        boolean customerAdded(Customer c) {
+            int existing = rowOf(c);
+            if (existing >= 0) { customerUpdated(c); return false; }
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2 + 1);
+            sorted &= size == 0 || c.id > ids[size - 1];
+            ids[size] = c.id;
+            int r = size++;
+            fireTableRowsInserted(r, r);
+            return true;
+        }
+
+        void customerUpdated(Customer c) {
+            int r = rowOf(c);
+            if (r < 0) return;
+            last = null;
+            fireTableRowsUpdated(r, r);
+        }
+
+        Customer customerAt(int row) {
+            int id = ids[Objects.checkIndex(row, size)];
+            if (last == null || last.id != id) last = repo.customer(id);
+            return last;
+        }
+
+        int rowOf(Customer c) {
+            if (sorted) { int r = Arrays.binarySearch(ids, 0, size, c.id); return r < 0 ? -1 : r; }
+            for (int r = 0; r < size; r++) if (ids[r] == c.id) return r;
+            return -1;
+        }
+
+        @Override public int getRowCount() { return size; }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) { return col == 0 ? Integer.class : String.class; }
+        @Override public Object getValueAt(int row, int col) {
+            if (col == 0) return ids[Objects.checkIndex(row, size)];
+            Customer c = customerAt(row);
+            if (c == null) return ""; // removed since the IDs were read
+            switch (col) {
+                case 1: return c.name;
+                case 2: return c.address;
+                case 3: return c.meterNumber;
+                default: return c.phone;
+            }
         }
     }
 
-    static class Bill {
-        int billId, customerId, units; String month;
-        BigDecimal energyCharge, fixedCharge, meterRent, tax, total;
-        Bill(int id, int cid, String m, int u) { billId=id; customerId=cid; month=m; units=u; }
-        void calculate() {
-            energyCharge = calc(units);
-            fixedCharge=FIXED_CHARGE; meterRent=METER_RENT;
-            BigDecimal sub = energyCharge.add(fixedCharge).add(meterRent);
-            tax = sub.multiply(TAX_RATE);
-            total = sub.add(tax);
-            energyCharge=energyCharge.setScale(2, RoundingMode.HALF_UP);
-            fixedCharge=fixedCharge.setScale(2, RoundingMode.HALF_UP);
-            meterRent=meterRent.setScale(2, RoundingMode.HALF_UP);
-            tax=tax.setScale(2, RoundingMode.HALF_UP);
-            total=total.setScale(2, RoundingMode.HALF_UP);
+    // One month's bills in store order; the list holds references only
+    private static class BillTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Bill ID", "Customer", "Month", "Units", "Total"};
+        private String month;
+        private java.util.List<Bill> rows = new ArrayList<>();
+        private final Map<Integer, Integer> rowOf = new HashMap<>();
+
+        String month() { return month; }
+
+        void show(String month, java.util.List<Bill> bills) {
+            this.month = month;
+            rows = new ArrayList<>(bills);
+            rowOf.clear();
+            for (int i = 0; i < rows.size(); i++) rowOf.put(rows.get(i).billId, i);
+            fireTableDataChanged();
+        }
+
+        void billAdded(Bill b) {
+            if (!b.month.equals(month)) return;
+            Integer existing = rowOf.get(b.billId);
+            if (existing != null) { rows.set(existing, b); fireTableRowsUpdated(existing, existing); return; }
+            int r = rows.size();
+            rows.add(b); rowOf.put(b.billId, r);
+            fireTableRowsInserted(r, r);
         }
-        private BigDecimal calc(int u) {
-            BigDecimal ch=BigDecimal.ZERO; int r=u;
-            for(int i=0;i<SLAB_LIMITS.length;i++){
-                int take=Math.min(r,SLAB_LIMITS[i]);
-                if(take>0){ ch=ch.add(BigDecimal.valueOf(take).multiply(SLAB_RATES[i])); r-=take; }
+
+        // Edits store a new Bill instance; one moved to another month leaves the table
+        void billUpdated(Bill b) {
+            Integer r = rowOf.get(b.billId);
+            if (r == null) { billAdded(b); return; }
+            if (b.month.equals(month)) { rows.set(r, b); fireTableRowsUpdated(r, r); return; }
+            rows.remove((int) r);
+            rowOf.remove(b.billId);
+            for (int i = r; i < rows.size(); i++) rowOf.put(rows.get(i).billId, i);
+            fireTableRowsDeleted(r, r);
+        }
+
+        void customerUpdated(int customerId) {
+            for (int r = 0; r < rows.size(); r++) if (rows.get(r).customerId == customerId) fireTableRowsUpdated(r, r);
+        }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+        @Override public Class<?> getColumnClass(int col) {
+            return col == 0 || col == 3 ? Integer.class : col == 4 ? BigDecimal.class : String.class;
+        }
+        @Override public Object getValueAt(int row, int col) {
+            Bill b = rows.get(row);
+            switch (col) {
+                case 0: return b.billId;
+                case 1: Customer c = repo.customer(b.customerId); return c != null ? c.name : "Unknown";
+                case 2: return b.month;
+                case 3: return b.units;
+                default: return b.total;
             }
-            if(r>0) ch=ch.add(BigDecimal.valueOf(r).multiply(RATE_ABOVE));
-            return ch;
         }
-        String toCSV(){ return billId+","+customerId+","+month+","+units+","+energyCharge+","+fixedCharge+","+meterRent+","+tax+","+total; }
-        static Bill fromCSV(String l){
-            String[] t=l.split(",");
-            Bill b=new Bill(Integer.parseInt(t[0]),Integer.parseInt(t[1]),t[2],Integer.parseInt(t[3]));
-            b.energyCharge=new BigDecimal(t[4]); b.fixedCharge=new BigDecimal(t[5]);
-            b.meterRent=new BigDecimal(t[6]); b.tax=new BigDecimal(t[7]); b.total=new BigDecimal(t[8]);
-            return b;
+    }
+
+    // Combo entries are the customer table's rows, so nothing is copied into the combo
+    private static class CustomerComboModel extends AbstractListModel<Customer> implements ComboBoxModel<Customer> {
+        private final CustomerTableModel customers;
+        private Object selected;
+
+        CustomerComboModel(CustomerTableModel customers) { this.customers = customers; }
+
+        void reload() {
+            if (selected != null && customers.rowOf((Customer) selected) < 0) selected = null;
+            if (selected == null && getSize() > 0) selected = getElementAt(0);
+            fireContentsChanged(this, -1, -1);
+        }
+
+        void customerAdded() {
+            int r = getSize() - 1;
+            if (selected == null) selected = getElementAt(r);
+            fireIntervalAdded(this, r, r);
         }
-        String toInvoiceText(Customer c){
-            return "---- ELECTRICITY BILL ----\n"+
-                    "Bill ID: "+billId+"\nMonth: "+month+"\n\n"+
-                    "Customer: "+c.name+"\nAddress: "+c.address+"\nMeter: "+c.meterNumber+"\nPhone: "+c.phone+"\n\n"+
-                    "Units: "+units+"\nEnergy: "+energyCharge+"\nFixed: "+fixedCharge+"\nMeter Rent: "+meterRent+
-                    "\nTax: "+tax+"\n----------------------\nTOTAL: "+total+"\n";
+
+        void customerUpdated(Customer c) {
+            if (selected != null && ((Customer) selected).id == c.id) selected = c;
+            int r = customers.rowOf(c);
+            if (r >= 0) fireContentsChanged(this, r, r);
+        }
+
+        @Override public int getSize() { return customers.getRowCount(); }
+        @Override public Customer getElementAt(int index) { return customers.customerAt(index); }
+        @Override public Object getSelectedItem() { return selected; }
+        @Override public void setSelectedItem(Object item) {
+            if (Objects.equals(selected, item)) return;
+            selected = item;
+            fireContentsChanged(this, -1, -1);
         }
     }
 
@@ -0,0 +1,104 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Rendered invoices of recently viewed bills; the least recently used are
+ * evicted first.
+ *
+ * Entries are keyed by bill ID and remember the Bill instance, the customer
+ * and the tariff schedule they were rendered from. Stored bills are replaced
+ * rather than edited, so the Bill instance serves as a version; customers are
+ * materialised afresh on each read, so they are compared field by field. Once
+ * a bill is recalculated, its customer edited or new tariffs installed, the
+ * entry no longer matches and the invoice is rendered afresh. Bulk export
+ * renders with {@link InvoiceTemplate} directly and does not go through here.
+ *
+ * Entries are split over {@link #SEGMENTS} segments picked by bill ID, each
+ * an access-ordered map with its own lock and an equal share of the capacity,
+ * so threads viewing different bills rarely wait on each other. Eviction is
+ * least-recently-used within a segment, which approximates it overall.
+ *
+ * Size: -Dbilling.invoiceCache=&lt;entries&gt; (default 10000; 0 turns caching off).
+ */
+final class InvoiceCache {
+
+    /** The cache behind {@link Bill#toInvoiceText}. */
+    static final InvoiceCache DEFAULT = new InvoiceCache(Integer.getInteger("billing.invoiceCache", 10_000));
+
+    private static final class Entry {
+        final Bill bill;
+        final Object total; // Bill.calculate() assigns a new amount, so this also catches recalculation in place
+        final Customer customer;
+        final TariffSchedule tariffs;
+        final String text;
+
+        Entry(Bill bill, Customer customer, TariffSchedule tariffs, String text) {
+            this.bill = bill;
+            this.total = bill.total;
+            this.customer = customer;
+            this.tariffs = tariffs;
+            this.text = text;
+        }
+
+        boolean matches(Bill b, Customer c, TariffSchedule s) {
+            return bill == b && total == b.total && tariffs == s && sameCustomer(customer, c);
+        }
+
+        private static boolean sameCustomer(Customer a, Customer b) {
+            return a == b || a.id == b.id && Objects.equals(a.name, b.name) && Objects.equals(a.address, b.address)
+                    && Objects.equals(a.meterNumber, b.meterNumber) && Objects.equals(a.phone, b.phone);
+        }
+    }
+
+    private static final int SEGMENTS = 16; // power of two
+
+    /** One stripe of the cache: bill ID to entry in access order, at most its share of the capacity. */
+    private static final class Segment {
+        final LinkedHashMap<Integer, Entry> entries; // guarded by itself
+
+        Segment(int capacity) {
+            entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+
+    private final int capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    InvoiceCache(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+    }
+
+    /** The invoice for {@code b} and {@code c}, rendered with {@link InvoiceTemplate#DEFAULT}. */
+    String render(Bill b, Customer c) {
+        if (capacity <= 0) return InvoiceTemplate.DEFAULT.render(b, c);
+        TariffSchedule tariffs = Tariff.schedule(); // read first: a later install makes this entry miss
+        LinkedHashMap<Integer, Entry> entries = segmentFor(b.billId).entries;
+        synchronized (entries) {
+            Entry e = entries.get(b.billId);
+            if (e != null && e.matches(b, c, tariffs)) {
+                Metrics.INVOICE_CACHE_HITS.increment();
+                return e.text;
+            }
+        }
+        Metrics.INVOICE_CACHE_MISSES.increment();
+        String text = InvoiceTemplate.DEFAULT.render(b, c);
+        if (c.id == b.customerId) { // not the "Unknown" stand-in for a missing customer
+            synchronized (entries) {
+                entries.put(b.billId, new Entry(b, c, tariffs, text));
+            }
+        }
+        return text;
+    }
+
+    private Segment segmentFor(int billId) {
+        int h = billId * 0x9E3779B9; // consecutive IDs spread over all segments
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Bulk invoice export into one output file.
+ *
+ * Bills are rendered in batches on a pool of worker threads with the
+ * precompiled {@link InvoiceTemplate}. Each worker renders into its own
+ * StringBuilder and encodes into the batch's byte buffer; batch buffers are
+ * pooled and handed back once written. A single writer (the calling thread)
+ * takes finished batches in order and streams them to the output, so at
+ * most a few batches are in memory whatever the number of invoices.
+ *
+ * Output formats, chosen by the file extension:
+ * <ul>
+ *   <li>.zip - one bill_&lt;id&gt;.txt entry per invoice</li>
+ *   <li>.tar - the same entries as a POSIX ustar archive</li>
+ *   <li>anything else - all invoices in one text file, separated by a form feed so each prints on its own page</li>
+ * </ul>
+ */
+final class InvoiceExporter {
+
+    enum Format {
+        TEXT, ZIP, TAR;
+
+        static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".zip")) return ZIP;
+            if (name.endsWith(".tar")) return TAR;
+            return TEXT;
+        }
+    }
+
+    private static final int BATCH = 512;
+
+    private static final ThreadLocal<Renderer> RENDERER = ThreadLocal.withInitial(Renderer::new);
+
+    private InvoiceExporter() {
+    }
+
+    /**
+     * Writes the invoices of {@code bills}, in list order, to {@code out} and
+     * returns the number of bytes of invoice text written. Bills whose
+     * customer is unknown are rendered for "Unknown".
+     */
+    static long export(List<Bill> bills, IntFunction<Customer> customers, Path out, int threads) throws IOException {
+        try (Metrics.Timing timing = Metrics.EXPORT.time()) {
+            int workers = Math.max(1, threads);
+            int maxInFlight = workers * 2;
+            ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "invoice-render");
+                t.setDaemon(true);
+                return t;
+            });
+            BlockingQueue<Batch> free = new ArrayBlockingQueue<>(maxInFlight + 1);
+            ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+            long bytes = 0;
+            try (Sink sink = open(out, Format.of(out))) {
+                for (int from = 0; from < bills.size(); from += BATCH) {
+                    if (inFlight.size() == maxInFlight) bytes += write(inFlight.removeFirst(), sink, free);
+                    Batch batch = free.poll();
+                    List<Bill> slice = bills.subList(from, Math.min(bills.size(), from + BATCH));
+                    Batch target = batch != null ? batch : new Batch();
+                    inFlight.addLast(pool.submit(() -> render(slice, customers, target)));
+                }
+                while (!inFlight.isEmpty()) bytes += write(inFlight.removeFirst(), sink, free);
+            } finally {
+                pool.shutdownNow();
+            }
+            timing.rows(bills.size()).bytes(bytes);
+            return bytes;
+        }
+    }
+
+    private static long write(Future<Batch> pending, Sink sink, BlockingQueue<Batch> free) throws IOException {
+        Batch b;
+        try {
+            b = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Rendering failed: " + e.getCause(), e.getCause());
+        }
+        int start = 0;
+        for (int i = 0; i < b.count; i++) {
+            sink.invoice(b.billIds[i], b.data, start, b.ends[i] - start);
+            start = b.ends[i];
+        }
+        free.offer(b);
+        return start;
+    }
+
+    private static Batch render(List<Bill> bills, IntFunction<Customer> customers, Batch out) {
+        Renderer r = RENDERER.get();
+        out.count = 0;
+        int pos = 0;
+        for (Bill b : bills) {
+            Customer c = customers.apply(b.customerId);
+            r.text.setLength(0);
+            InvoiceTemplate.DEFAULT.render(b, c != null ? c : new Customer(0, "Unknown", "", "", ""), r.text);
+            pos = r.encode(out, pos);
+            out.billIds[out.count] = b.billId;
+            out.ends[out.count++] = pos;
+        }
+        return out;
+    }
+
+    /** Rendered invoices of one batch, back to back in {@code data}. */
+    private static final class Batch {
+        byte[] data = new byte[BATCH * 512];
+        final int[] billIds = new int[BATCH];
+        final int[] ends = new int[BATCH];
+        int count;
+    }
+
+    /** Per-thread render buffer and UTF-8 encoder. */
+    private static final class Renderer {
+        final StringBuilder text = new StringBuilder(InvoiceTemplate.DEFAULT.sizeHint() * 2);
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        /** Encodes {@link #text} into {@code batch.data} at {@code pos}; returns the new end. */
+        int encode(Batch batch, int pos) {
+            int worst = (int) Math.ceil(text.length() * (double) encoder.maxBytesPerChar());
+            if (batch.data.length - pos < worst) batch.data = Arrays.copyOf(batch.data, Math.max(batch.data.length * 2, pos + worst));
+            ByteBuffer dst = ByteBuffer.wrap(batch.data, pos, batch.data.length - pos);
+            encoder.reset();
+            CoderResult cr = encoder.encode(CharBuffer.wrap(text), dst, true);
+            if (!cr.isUnderflow()) throw new IllegalStateException("Cannot encode invoice: " + cr);
+            encoder.flush(dst);
+            return dst.position();
+        }
+    }
+
+    // -------------------- Output formats --------------------
+
+    private interface Sink extends Closeable {
+        void invoice(int billId, byte[] data, int off, int len) throws IOException;
+    }
+
+    private static Sink open(Path out, Format format) throws IOException {
+        OutputStream os = new BufferedOutputStream(Files.newOutputStream(out), 1 << 16);
+        switch (format) {
+            case ZIP: return new ZipSink(os);
+            case TAR: return new TarSink(os);
+            default: return new TextSink(os);
+        }
+    }
+
+    private static final class TextSink implements Sink {
+        private final OutputStream out;
+        private boolean first = true;
+
+        TextSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void invoice(int billId, byte[] data, int off, int len) throws IOException {
+            if (!first) out.write('\f');
+            first = false;
+            out.write(data, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class ZipSink implements Sink {
+        private final ZipOutputStream zip;
+
+        ZipSink(OutputStream out) {
+            zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+            zip.setLevel(Deflater.BEST_SPEED); // the writer is the one serial stage
+        }
+
+        @Override
+        public void invoice(int billId, byte[] data, int off, int len) throws IOException {
+            zip.putNextEntry(new ZipEntry("bill_" + billId + ".txt"));
+            zip.write(data, off, len);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /** Minimal POSIX ustar writer: regular files only, names shorter than 100 bytes. */
+    private static final class TarSink implements Sink {
+        private static final int BLOCK = 512;
+        private final OutputStream out;
+        private final byte[] header = new byte[BLOCK];
+        private final long mtime = System.currentTimeMillis() / 1000;
+
+        TarSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void invoice(int billId, byte[] data, int off, int len) throws IOException {
+            Arrays.fill(header, (byte) 0);
+            ascii("bill_" + billId + ".txt", 0);
+            octal(0644, 100, 8);
+            octal(0, 108, 8);
+            octal(0, 116, 8);
+            octal(len, 124, 12);
+            octal(mtime, 136, 12);
+            header[156] = '0';
+            ascii("ustar", 257);
+            ascii("00", 263);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            int sum = 0;
+            for (byte b : header) sum += b & 0xFF;
+            octal(sum, 148, 7);
+            header[155] = ' ';
+            out.write(header);
+            out.write(data, off, len);
+            int pad = (BLOCK - len % BLOCK) % BLOCK;
+            for (int i = 0; i < pad; i++) out.write(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(new byte[2 * BLOCK]); // end-of-archive marker
+            out.close();
+        }
+
+        private void ascii(String s, int at) {
+            for (int i = 0; i < s.length(); i++) header[at + i] = (byte) s.charAt(i);
+        }
+
+        /** Zero-padded octal in {@code width - 1} digits followed by NUL. */
+        private void octal(long v, int at, int width) {
+            String s = Long.toOctalString(v);
+            int digits = width - 1;
+            for (int i = 0; i < digits; i++) {
+                int k = s.length() - digits + i;
+                header[at + i] = (byte) (k >= 0 ? s.charAt(k) : '0');
+            }
+            header[at + digits] = 0;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invoice layout compiled once into literal text and field slots.
+ *
+ * Rendering appends straight into a caller-supplied StringBuilder, so
+ * exporting many invoices reuses one buffer per thread and never parses a
+ * format string. Placeholders are written as {name}; see {@link #FIELDS}.
+ * The tax rate is the one of the tariff version in force for the bill's month.
+ */
+final class InvoiceTemplate {
+
+    static final String[] FIELDS = {"billId", "month", "name", "address", "meter", "phone", "units",
+            "energy", "fixed", "meterRent", "taxRate", "tax", "total"};
+
+    private static final int BILL_ID = 0, MONTH = 1, NAME = 2, ADDRESS = 3, METER = 4, PHONE = 5, UNITS = 6,
+            ENERGY = 7, FIXED = 8, METER_RENT = 9, TAX_RATE = 10, TAX = 11, TOTAL = 12;
+
+    /** The invoice printed by both front ends. */
+    static final InvoiceTemplate DEFAULT = compile(
+            "-------- ELECTRICITY BILL --------\n" +
+            "Bill ID: {billId}\n" +
+            "Month: {month}\n\n" +
+            "Customer: {name}\n" +
+            "Address: {address}\n" +
+            "Meter No: {meter}\n" +
+            "Phone: {phone}\n\n" +
+            "Units Consumed: {units}\n" +
+            "Energy Charge: {energy}\n" +
+            "Fixed Charge: {fixed}\n" +
+            "Meter Rent: {meterRent}\n" +
+            "Tax ({taxRate}%): {tax}\n" +
+            "----------------------------------\n" +
+            "Total Payable: {total}\n" +
+            "----------------------------------\n");
+
+    // literals[i] is written before fields[i]; the last literal has no field after it
+    private final String[] literals;
+    private final int[] fields;
+    private final int sizeHint;
+
+    private InvoiceTemplate(String[] literals, int[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+        int n = 0;
+        for (String l : literals) n += l.length();
+        this.sizeHint = n + fields.length * 16;
+    }
+
+    static InvoiceTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            int open = template.indexOf('{', i);
+            if (open < 0) break;
+            int close = template.indexOf('}', open);
+            if (close < 0) throw new IllegalArgumentException("Unclosed placeholder at " + open);
+            literal.append(template, i, open);
+            String name = template.substring(open + 1, close);
+            int field = List.of(FIELDS).indexOf(name);
+            if (field < 0) throw new IllegalArgumentException("Unknown placeholder {" + name + "}");
+            literals.add(literal.toString());
+            literal.setLength(0);
+            fields.add(field);
+            i = close + 1;
+        }
+        literal.append(template, i, template.length());
+        literals.add(literal.toString());
+        return new InvoiceTemplate(literals.toArray(new String[0]), fields.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /** Rough rendered length, for sizing buffers. */
+    int sizeHint() {
+        return sizeHint;
+    }
+
+    String render(Bill b, Customer c) {
+        StringBuilder sb = new StringBuilder(sizeHint);
+        render(b, c, sb);
+        return sb.toString();
+    }
+
+    /** Appends the invoice for {@code b} to {@code out}. */
+    void render(Bill b, Customer c, StringBuilder out) {
+        for (int i = 0; i < fields.length; i++) {
+            out.append(literals[i]);
+            switch (fields[i]) {
+                case BILL_ID: out.append(b.billId); break;
+                case MONTH: out.append(b.month); break;
+                case NAME: out.append(c.name); break;
+                case ADDRESS: out.append(c.address); break;
+                case METER: out.append(c.meterNumber); break;
+                case PHONE: out.append(c.phone); break;
+                case UNITS: out.append(b.units); break;
+                case ENERGY: out.append(b.energyCharge.toPlainString()); break;
+                case FIXED: out.append(b.fixedCharge.toPlainString()); break;
+                case METER_RENT: out.append(b.meterRent.toPlainString()); break;
+                case TAX_RATE: out.append(Tariff.schedule().versionFor(b.month).taxPercent); break;
+                case TAX: out.append(b.tax.toPlainString()); break;
+                case TOTAL: out.append(b.total.toPlainString()); break;
+                default: throw new IllegalStateException("Field " + fields[i]);
+            }
+        }
+        out.append(literals[fields.length]);
+    }
+}
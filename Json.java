@@ -0,0 +1,289 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the HTTP API and request logs.
+ *
+ * {@link #parse} reads any JSON value: objects become LinkedHashMaps, arrays
+ * ArrayLists, integral numbers Longs, other numbers BigDecimals, and
+ * {@link #write} turns such a tree back into text. {@link Builder} writes one
+ * object at a time without an intermediate tree.
+ */
+final class Json {
+
+    private final String s;
+    private int pos;
+
+    private Json(String s) {
+        this.s = s;
+    }
+
+    static Object parse(String text) {
+        Json p = new Json(text);
+        p.skipSpace();
+        Object v = p.value();
+        p.skipSpace();
+        if (p.pos != text.length()) throw p.error("Unexpected trailing data");
+        return v;
+    }
+
+    /** Parses a JSON object; anything else is an error. */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String text) {
+        Object v = parse(text);
+        if (!(v instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+        return (Map<String, Object>) v;
+    }
+
+    /** Appends {@code v} as a quoted JSON string. */
+    static StringBuilder quote(StringBuilder sb, String v) {
+        sb.append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    /** JSON array of already encoded elements. */
+    static String array(List<String> encoded) {
+        StringBuilder sb = new StringBuilder(encoded.size() * 64 + 2).append('[');
+        for (int i = 0; i < encoded.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(encoded.get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    /** Encodes a value of the kinds {@link #parse} returns, e.g. to pass on what another server sent. */
+    static String write(Object value) {
+        return write(new StringBuilder(64), value).toString();
+    }
+
+    private static StringBuilder write(StringBuilder sb, Object v) {
+        if (v == null) return sb.append("null");
+        if (v instanceof String) return quote(sb, (String) v);
+        if (v instanceof BigDecimal) return sb.append(((BigDecimal) v).toPlainString());
+        if (v instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                quote(sb, String.valueOf(e.getKey())).append(':');
+                write(sb, e.getValue());
+            }
+            return sb.append('}');
+        }
+        if (v instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for (Object e : (List<?>) v) {
+                if (!first) sb.append(',');
+                first = false;
+                write(sb, e);
+            }
+            return sb.append(']');
+        }
+        return sb.append(v); // Long, Boolean
+    }
+
+    /** Writes the fields of one JSON object in call order. */
+    static final class Builder {
+        private final StringBuilder sb = new StringBuilder(128).append('{');
+
+        Builder field(String name, String value) {
+            name(name);
+            if (value == null) sb.append("null");
+            else quote(sb, value);
+            return this;
+        }
+
+        Builder field(String name, long value) {
+            name(name).append(value);
+            return this;
+        }
+
+        Builder field(String name, BigDecimal value) {
+            name(name).append(value == null ? "null" : value.toPlainString());
+            return this;
+        }
+
+        /** A field whose value is already encoded JSON. */
+        Builder raw(String name, String json) {
+            name(name).append(json);
+            return this;
+        }
+
+        String build() {
+            return sb.append('}').toString();
+        }
+
+        private StringBuilder name(String name) {
+            if (sb.length() > 1) sb.append(',');
+            return quote(sb, name).append(':');
+        }
+    }
+
+    private Object value() {
+        if (pos >= s.length()) throw error("Unexpected end of input");
+        char c = s.charAt(pos);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        pos++; // {
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return m;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"') throw error("Expected field name");
+            String key = string();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            m.put(key, value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return m;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++; // [
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            skipSpace();
+            list.add(value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        pos++; // opening quote
+        StringBuilder sb = null;
+        int start = pos;
+        while (true) {
+            if (pos >= s.length()) throw error("Unterminated string");
+            char c = s.charAt(pos);
+            if (c == '"') {
+                String tail = s.substring(start, pos++);
+                return sb == null ? tail : sb.append(tail).toString();
+            }
+            if (c != '\\') {
+                pos++;
+                continue;
+            }
+            if (sb == null) sb = new StringBuilder();
+            sb.append(s, start, pos);
+            if (++pos >= s.length()) throw error("Unterminated string");
+            char e = s.charAt(pos++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > s.length()) throw error("Bad unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("Bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default: sb.append(e); // \" \\ \/
+            }
+            start = pos;
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean integral = true;
+        if (peek() == '-') pos++;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                pos++;
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integral = false;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        String text = s.substring(start, pos);
+        try {
+            if (integral && text.length() < 19) return Long.parseLong(text);
+            return new BigDecimal(text);
+        } catch (NumberFormatException e) {
+            throw error("Bad number " + text);
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!s.startsWith(word, pos)) throw error("Unexpected token");
+        pos += word.length();
+        return value;
+    }
+
+    private char peek() {
+        return pos < s.length() ? s.charAt(pos) : '\0';
+    }
+
+    private void expect(char c) {
+        if (peek() != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    private void skipSpace() {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at offset " + pos);
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non-negative values such as latencies in nanoseconds,
+ * in the style of HdrHistogram.
+ *
+ * Values are bucketed by their top {@link #SUB_BITS} significant bits, so any
+ * recorded value is reported within 1/128 of its true size while the whole
+ * long range fits in a few thousand counters. Recording is a handful of
+ * integer operations and never allocates.
+ *
+ * Not thread-safe: give each thread its own histogram and {@link #add} them.
+ */
+final class LatencyHistogram {
+
+    static final int SUB_BITS = 8;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+
+    private final long[] counts = new long[(64 - SUB_BITS + 2) * HALF];
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+    private double sumOfSquares;
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts[indexOf(value)]++;
+        total++;
+        if (value < min) min = value;
+        if (value > max) max = value;
+        sum += value;
+        sumOfSquares += (double) value * value;
+    }
+
+    /** Adds every value recorded in {@code other}. */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+        sumOfSquares += other.sumOfSquares;
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0;
+        sumOfSquares = 0;
+    }
+
+    long count() { return total; }
+    long min() { return total == 0 ? 0 : min; }
+    long max() { return max; }
+    double mean() { return total == 0 ? 0 : sum / total; }
+
+    double stdDeviation() {
+        if (total == 0) return 0;
+        double m = mean();
+        return Math.sqrt(Math.max(0, sumOfSquares / total - m * m));
+    }
+
+    /** Smallest recorded value (within bucket precision) that {@code percentile}% of values do not exceed. */
+    long valueAtPercentile(double percentile) {
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(highestEquivalent(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Prints the percentile distribution the way HdrHistogram's
+     * outputPercentileDistribution does, with values divided by {@code scale}
+     * (e.g. 1000.0 to print nanoseconds as microseconds).
+     */
+    void printPercentiles(PrintStream out, double scale) {
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        if (total > 0) {
+            double percentile = 0;
+            for (int halving = 0; ; halving++) {
+                double step = 100.0 / (1L << (halving + 1)) / 5; // five ticks per half distance
+                for (int t = 0; t < 5; t++) {
+                    long v = valueAtPercentile(percentile);
+                    long below = countAtOrBelow(v);
+                    printRow(out, v, percentile, below, scale);
+                    if (below >= total) break;
+                    percentile += step;
+                }
+                if (countAtOrBelow(valueAtPercentile(percentile)) >= total || halving > 40) break;
+            }
+            printRow(out, max, 100.0, total, scale);
+        }
+        out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean() / scale, stdDeviation() / scale);
+        out.printf("#[Max     = %12.3f, Total count    = %12d]%n", max / scale, total);
+        out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", counts.length / HALF, 1 << SUB_BITS);
+    }
+
+    private void printRow(PrintStream out, long value, double percentile, long below, double scale) {
+        double p = percentile / 100.0;
+        if (p < 1) out.printf("%12.3f %2.12f %10d %14.2f%n", value / scale, p, below, 1 / (1 - p));
+        else out.printf("%12.3f %2.12f %10d%n", value / scale, p, below);
+    }
+
+    private long countAtOrBelow(long value) {
+        long n = 0;
+        int last = indexOf(value);
+        for (int i = 0; i <= last; i++) n += counts[i];
+        return n;
+    }
+
+    static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1));
+        return (int) (shift * HALF + (value >>> shift));
+    }
+
+    /** Largest value that lands in the same bucket as {@code index}. */
+    static long highestEquivalent(int index) {
+        int shift = index < 2 * HALF ? 0 : index / HALF - 1;
+        long lowest = (long) (index - shift * HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Memory-mapped CSV loader.
+ *
+ * The file is cut into chunks at line boundaries and each chunk is mapped
+ * and parsed on its own fork-join task. Fields are decoded straight from the
+ * mapped bytes: numbers never go through a String, and only text columns
+ * allocate. No per-line String or String[] is built, so peak heap is the
+ * parsed objects themselves rather than a copy of the whole file.
+ *
+ * The first line is treated as a header and skipped, as are blank lines.
+ * Fields are separated by ',' with no quoting, matching Customer/Bill.toCSV.
+ */
+final class MappedCsv {
+
+    /** Builds one object from the fields of one row. */
+    interface RowParser<T> {
+        T parse(Fields f);
+    }
+
+    private static final int MAX_CHUNK = 256 * 1024 * 1024;
+    private static final int MIN_CHUNK = 1024 * 1024;
+
+    private MappedCsv() {
+    }
+
+    /** Parses every data row of {@code file}, returning the results in file order. */
+    static <T> List<T> load(Path file, RowParser<T> parser) throws IOException {
+        List<List<T>> parts = loadChunks(file, ArrayList::new, (part, f) -> part.add(parser.parse(f)));
+        int total = 0;
+        for (List<T> part : parts) total += part.size();
+        List<T> out = new ArrayList<>(total);
+        for (List<T> part : parts) out.addAll(part);
+        return out;
+    }
+
+    /**
+     * Feeds every data row to {@code row} together with an accumulator that is
+     * private to the row's chunk. Returns the accumulators in file order, so
+     * callers can collect rows into any structure without per-row objects.
+     */
+    static <A> List<A> loadChunks(Path file, Supplier<A> newAccumulator, BiConsumer<A, Fields> row) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return new ArrayList<>();
+            long[] bounds = chunkBounds(ch, size);
+            int chunks = bounds.length - 1;
+            List<A> parts = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) parts.add(null);
+            IntStream.range(0, chunks).parallel().forEach(i -> {
+                try {
+                    A acc = newAccumulator.get();
+                    parseChunk(ch, bounds[i], bounds[i + 1], f -> row.accept(acc, f));
+                    parts.set(i, acc);
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            return parts;
+        } catch (java.io.UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Chunk start offsets (each just past a '\n'), the header already skipped, ending with size. */
+    private static long[] chunkBounds(FileChannel ch, long size) throws IOException {
+        long dataStart = nextLineStart(ch, 0, size);
+        long dataLen = size - dataStart;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, dataLen / (parallelism * 4L) + 1));
+        List<Long> starts = new ArrayList<>();
+        starts.add(dataStart);
+        long pos = dataStart;
+        while (pos + target < size) {
+            long next = nextLineStart(ch, pos + target, size);
+            if (next >= size) break;
+            // a single line longer than MAX_CHUNK cannot be mapped as one chunk
+            if (next - pos > Integer.MAX_VALUE) throw new IOException("Line too long near offset " + pos);
+            starts.add(next);
+            pos = next;
+        }
+        long[] bounds = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) bounds[i] = starts.get(i);
+        bounds[starts.size()] = size;
+        return bounds;
+    }
+
+    /** Offset of the first byte after the next '\n' at or after {@code from}, or size. */
+    private static long nextLineStart(FileChannel ch, long from, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = from;
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static void parseChunk(FileChannel ch, long start, long end, Consumer<Fields> row) throws IOException {
+        if (end <= start) return;
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        Fields f = new Fields(buf);
+        int limit = buf.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') lineEnd++;
+            int next = lineEnd + 1;
+            while (lineEnd > lineStart && (buf.get(lineEnd - 1) == '\r' || buf.get(lineEnd - 1) == ' ')) lineEnd--;
+            while (lineStart < lineEnd && buf.get(lineStart) == ' ') lineStart++;
+            if (lineEnd > lineStart) {
+                f.reset(lineStart, lineEnd);
+                row.accept(f);
+            }
+            lineStart = next;
+        }
+    }
+
+    /** Cursor over the comma-separated fields of the current row. */
+    static final class Fields {
+        private final ByteBuffer buf;
+        private byte[] scratch = new byte[64];
+        private int pos;
+        private int end;
+
+        Fields(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        void reset(int start, int end) {
+            this.pos = start;
+            this.end = end;
+        }
+
+        /** Next field as text, decoded as UTF-8. */
+        String nextString() {
+            int s = pos;
+            int e = fieldEnd();
+            int len = e - s;
+            if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+            for (int i = 0; i < len; i++) scratch[i] = buf.get(s + i);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        int nextInt() {
+            long v = nextLong();
+            if (v != (int) v) throw new NumberFormatException("Value out of int range: " + v);
+            return (int) v;
+        }
+
+        long nextLong() {
+            int s = skipSpaces(pos);
+            int e = trimEnd(s, fieldEnd());
+            if (s == e) throw new NumberFormatException("Empty number field");
+            boolean neg = buf.get(s) == '-';
+            int i = (neg || buf.get(s) == '+') ? s + 1 : s;
+            if (i == e || e - i > 18) throw new NumberFormatException("Bad number: " + text(s, e));
+            long v = 0;
+            for (; i < e; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) throw new NumberFormatException("Bad number: " + text(s, e));
+                v = v * 10 + d;
+            }
+            return neg ? -v : v;
+        }
+
+        /** Next field as a plain decimal such as "123.45", keeping its scale. */
+        BigDecimal nextDecimal() {
+            int s = skipSpaces(pos);
+            int e = trimEnd(s, fieldEnd());
+            boolean neg = s < e && buf.get(s) == '-';
+            int i = (s < e && (neg || buf.get(s) == '+')) ? s + 1 : s;
+            long unscaled = 0;
+            int scale = -1;
+            int digits = 0;
+            for (; i < e; i++) {
+                byte b = buf.get(i);
+                if (b == '.' && scale < 0) {
+                    scale = 0;
+                    continue;
+                }
+                int d = b - '0';
+                if (d < 0 || d > 9 || ++digits > 18) return new BigDecimal(text(s, e)); // exponent or very long
+                unscaled = unscaled * 10 + d;
+                if (scale >= 0) scale++;
+            }
+            if (digits == 0) throw new NumberFormatException("Bad decimal: " + text(s, e));
+            return BigDecimal.valueOf(neg ? -unscaled : unscaled, Math.max(scale, 0));
+        }
+
+        /**
+         * Next field as a decimal amount scaled to {@code scale} digits,
+         * e.g. "123.45" at scale 2 is 12345. Extra digits round HALF_UP.
+         */
+        long nextScaled(int scale) {
+            int s = skipSpaces(pos);
+            int e = trimEnd(s, fieldEnd());
+            boolean neg = s < e && buf.get(s) == '-';
+            int i = (s < e && (neg || buf.get(s) == '+')) ? s + 1 : s;
+            long v = 0;
+            int frac = -1;
+            int digits = 0;
+            boolean roundUp = false;
+            for (; i < e; i++) {
+                byte b = buf.get(i);
+                if (b == '.' && frac < 0) {
+                    frac = 0;
+                    continue;
+                }
+                int d = b - '0';
+                if (d < 0 || d > 9) throw new NumberFormatException("Bad decimal: " + text(s, e));
+                if (frac >= scale) {
+                    if (frac == scale) roundUp = d >= 5;
+                    frac++;
+                    continue;
+                }
+                if (++digits > 18) throw new NumberFormatException("Decimal too long: " + text(s, e));
+                v = v * 10 + d;
+                if (frac >= 0) frac++;
+            }
+            if (digits == 0) throw new NumberFormatException("Bad decimal: " + text(s, e));
+            for (int k = Math.max(frac, 0); k < scale; k++) v *= 10;
+            if (roundUp) v++;
+            return neg ? -v : v;
+        }
+
+        /** Returns the current field's end and moves the cursor past its separator. */
+        private int fieldEnd() {
+            int e = pos;
+            while (e < end && buf.get(e) != ',') e++;
+            pos = e < end ? e + 1 : end;
+            return e;
+        }
+
+        private int skipSpaces(int i) {
+            while (i < end && buf.get(i) == ' ') i++;
+            return i;
+        }
+
+        private int trimEnd(int s, int e) {
+            while (e > s && buf.get(e - 1) == ' ') e--;
+            return e;
+        }
+
+        private String text(int s, int e) {
+            byte[] b = new byte[e - s];
+            for (int i = 0; i < b.length; i++) b[i] = buf.get(s + i);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+}
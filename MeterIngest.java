@@ -0,0 +1,589 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.zone.ZoneRules;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bills customers from raw cumulative meter readings.
+ *
+ * Input is text with one "meterNumber,timestamp,reading" row per line, from
+ * files or from clients of a local socket. Timestamps are ISO-8601, e.g.
+ * "2025-09-30T23:45:00", "2025-09-30T17:45:00Z" or "2025-09-30T23:45+06:00";
+ * times without an offset, and billing months, are in -Dbilling.zone
+ * (default: the system zone). The reading is the meter's cumulative kWh with
+ * up to three decimals.
+ *
+ * Readings pass through three stages joined by bounded queues, so a burst
+ * never holds more than a few queues' worth of readings in memory: sources
+ * parse lines into chunks, one rater thread resolves meters to customers and
+ * turns readings into consumption, and one biller thread generates and
+ * journals the bills. When a queue is full the stage feeding it waits; for a
+ * socket client that means TCP stops taking its data until the pipeline has
+ * caught up.
+ *
+ * Consumption is the difference to the meter's previous reading and counts
+ * towards the month of the later reading. A meter's month is billed when its
+ * first reading of a later month arrives, or when the run finishes with
+ * closeOpenMonths; fractions of a unit carry over into the next month. The
+ * first reading of a meter only sets its baseline, as does a reading below the
+ * previous one (meter replaced). Readings no newer than the meter's last one
+ * are rejected, so each meter's readings must arrive in time order and over
+ * one connection. A month the customer already has a bill for is not billed
+ * again.
+ *
+ * Each meter's last reading and open month are kept in meter-state.csv in the
+ * data directory between runs.
+ */
+final class MeterIngest {
+
+    static final String STATE_FILE = "meter-state.csv";
+    static final String STATE_HEADER = "meterNumber,timestamp,reading,month,pending";
+
+    private static final int CHUNK = 4096; // readings or bills per hand-off between stages
+    private static final int QUEUE = 64; // chunks waiting per queue
+    private static final int MAX_REPORTED_SKIPS = 20;
+    private static final long MAX_READING_KWH = 1_000_000_000_000L;
+
+    /** Summary of one run. */
+    static final class Result {
+        long read;
+        long malformed;
+        long unknownMeter;
+        long outOfOrder;
+        long meterResets;
+        long billed;
+        long alreadyBilled;
+        long failed;
+        long openMonths;
+        long queueFull;
+
+        @Override
+        public String toString() {
+            return String.format("Readings: %d (malformed: %d, unknown meter: %d, out of order: %d, meter resets: %d), "
+                            + "billed: %d (already billed: %d, failed: %d), months still open: %d, waits on a full queue: %d",
+                    read, malformed, unknownMeter, outOfOrder, meterResets, billed, alreadyBilled, failed,
+                    openMonths, queueFull);
+        }
+    }
+
+    /** Parsed readings on their way to the rater. */
+    private static final class Chunk {
+        final String[] meters = new String[CHUNK];
+        final long[] times = new long[CHUNK]; // epoch seconds
+        final int[] months = new int[CHUNK]; // year * 12 + month - 1, in the billing zone
+        final long[] readings = new long[CHUNK]; // Wh
+        int size;
+    }
+
+    /** Closed months on their way to the biller. */
+    private static final class Due {
+        final int[] customers = new int[CHUNK];
+        final int[] months = new int[CHUNK];
+        final int[] units = new int[CHUNK];
+        int size;
+    }
+
+    /** What the rater knows about one meter. */
+    private static final class Meter {
+        int customerId = UNRESOLVED; // resolved on the meter's first reading in a run
+        long time = Long.MIN_VALUE; // last reading, epoch seconds
+        long reading = -1; // last reading, Wh; -1 before the first
+        int month = -1; // month the pending consumption counts towards, -1 if none
+        long pending; // Wh towards that month, including the fraction carried from the last one
+    }
+
+    private static final int UNRESOLVED = -1; // customer IDs start at 0
+    private static final Chunk END = new Chunk(); // compared by identity
+    private static final Due END_DUE = new Due();
+
+    private final BillingRepository repo;
+    private final BillingStorage storage;
+    private final ZoneRules zone;
+    private final Map<String, Meter> meters; // by CustomerIndex.meterKey; rater thread only
+    private final BlockingQueue<Chunk> readings = new ArrayBlockingQueue<>(QUEUE);
+    private final BlockingQueue<Due> due = new ArrayBlockingQueue<>(QUEUE);
+    private final Thread rater = new Thread(this::rate, "ingest-rater");
+    private final Thread biller = new Thread(this::bill, "ingest-biller");
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final LongAdder read = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder queueFull = new LongAdder();
+    private boolean closeOpenMonths; // published to the rater by the END hand-off
+    private long unknownMeter; // rater thread
+    private long outOfOrder;
+    private long meterResets;
+    private long billed; // biller thread
+    private long alreadyBilled;
+    private long failed;
+
+    private MeterIngest(BillingRepository repo, BillingStorage storage, Map<String, Meter> meters) {
+        this.repo = repo;
+        this.storage = storage;
+        this.meters = meters;
+        this.zone = ZoneId.of(System.getProperty("billing.zone", ZoneId.systemDefault().getId())).getRules();
+    }
+
+    /** Loads the meter state of {@code storage}'s directory and starts the rater and biller. */
+    static MeterIngest start(BillingRepository repo, BillingStorage storage) throws IOException {
+        MeterIngest ingest = new MeterIngest(repo, storage, new HashMap<>());
+        ingest.loadState();
+        ingest.rater.setDaemon(true);
+        ingest.biller.setDaemon(true);
+        ingest.rater.start();
+        ingest.biller.start();
+        return ingest;
+    }
+
+    /** Queues the readings of one file; returns once the whole file is queued. */
+    void readFile(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            read(in, file.toString());
+        }
+    }
+
+    /**
+     * Accepts clients on {@code server}, one thread each, until it is closed;
+     * then closes the connections still open. A client that half-closes its
+     * side is answered "OK n" with the number of its readings queued.
+     */
+    void listen(ServerSocket server) throws IOException {
+        Set<Socket> clients = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            while (true) {
+                Socket s;
+                try {
+                    s = server.accept();
+                } catch (SocketException e) {
+                    if (server.isClosed()) break;
+                    throw e;
+                }
+                clients.add(s);
+                Thread t = new Thread(() -> serve(s, clients), "ingest-" + s.getRemoteSocketAddress());
+                t.start();
+                threads.removeIf(x -> !x.isAlive());
+                threads.add(t);
+            }
+        } finally {
+            for (Socket s : clients) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {
+                    // already gone
+                }
+            }
+            try {
+                for (Thread t : threads) t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until every queued reading is rated and every closed month billed,
+     * then saves the meter state. With {@code closeOpenMonths} the months still
+     * open are billed too. Call once all sources have returned.
+     */
+    Result finish(boolean closeOpenMonths) throws IOException {
+        this.closeOpenMonths = closeOpenMonths;
+        try {
+            while (!readings.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) break;
+            }
+            rater.join();
+            biller.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Meter ingest interrupted", e);
+        }
+        Throwable f = failure.get();
+        if (f instanceof IOException) throw (IOException) f;
+        if (f != null) throw new IOException("Meter ingest failed", f);
+        saveState();
+
+        Result r = new Result();
+        r.read = read.sum();
+        r.malformed = malformed.sum();
+        r.queueFull = queueFull.sum();
+        r.unknownMeter = unknownMeter;
+        r.outOfOrder = outOfOrder;
+        r.meterResets = meterResets;
+        r.billed = billed;
+        r.alreadyBilled = alreadyBilled;
+        r.failed = failed;
+        for (Meter m : meters.values()) if (m.month >= 0) r.openMonths++;
+        return r;
+    }
+
+    // ---- Sources ----
+
+    private void serve(Socket s, Set<Socket> clients) {
+        try (Socket socket = s;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            long n = read(in, "connection " + socket.getRemoteSocketAddress());
+            OutputStream out = socket.getOutputStream();
+            out.write(("OK " + n + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, or the listener was closed
+        } finally {
+            clients.remove(s);
+        }
+    }
+
+    /**
+     * Parses lines into chunks and queues them. A chunk is queued when it is
+     * full or when {@code in} has nothing more buffered, so a slow client's
+     * readings are not held back waiting for more. Returns the readings queued.
+     */
+    private long read(BufferedReader in, String source) throws IOException {
+        Chunk c = new Chunk();
+        long lineNo = 0;
+        long queued = 0;
+        IOException error = null;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (lineNo == 1 && line.startsWith("meter")) continue; // header
+                if (line.isBlank()) continue;
+                read.increment();
+                if (!parse(line, c)) {
+                    malformed.increment();
+                    if (malformed.sum() <= MAX_REPORTED_SKIPS) {
+                        System.err.println("Skipping line " + lineNo + " of " + source + ": " + line);
+                    }
+                    continue;
+                }
+                if (++c.size == CHUNK || !in.ready()) {
+                    queued += c.size;
+                    hand(c);
+                    c = new Chunk();
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        if (c.size > 0) {
+            queued += c.size;
+            hand(c);
+        }
+        if (error != null) throw error;
+        return queued;
+    }
+
+    /** Queues a chunk for the rater, waiting while the queue is full. */
+    private void hand(Chunk c) throws IOException {
+        if (readings.offer(c)) return;
+        queueFull.increment();
+        try {
+            while (!readings.offer(c, 100, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) throw new IOException("Meter ingest stopped", failure.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Meter ingest interrupted", e);
+        }
+    }
+
+    /** Parses "meterNumber,timestamp,reading" into the next slot of {@code c}. */
+    private boolean parse(String line, Chunk c) {
+        int a = line.indexOf(',');
+        int b = a < 0 ? -1 : line.indexOf(',', a + 1);
+        if (b < 0) return false;
+        String meter = line.substring(0, a).trim();
+        long reading = parseReading(line, b + 1, line.length());
+        if (meter.isEmpty() || reading < 0 || !parseTime(line, a + 1, b, c, c.size)) return false;
+        c.meters[c.size] = meter;
+        c.readings[c.size] = reading;
+        return true;
+    }
+
+    /** Cumulative kWh in s[from, to) as Wh, or -1. Digits past the third decimal are ignored. */
+    private static long parseReading(String s, int from, int to) {
+        while (from < to && s.charAt(from) == ' ') from++;
+        while (to > from && s.charAt(to - 1) == ' ') to--;
+        long kwh = 0;
+        int i = from;
+        for (; i < to && s.charAt(i) != '.'; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9 || kwh >= MAX_READING_KWH) return -1;
+            kwh = kwh * 10 + d;
+        }
+        boolean digits = i > from;
+        long wh = 0;
+        int scale = 100;
+        for (i++; i < to; i++, scale /= 10) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            wh += d * scale;
+            digits = true;
+        }
+        return digits ? kwh * 1000 + wh : -1;
+    }
+
+    /** Parses the timestamp in s[from, to) into slot {@code n} of {@code c}. */
+    private boolean parseTime(String s, int from, int to, Chunk c, int n) {
+        while (from < to && s.charAt(from) == ' ') from++;
+        while (to > from && s.charAt(to - 1) == ' ') to--;
+        if (to - from < 10 || s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-') return false;
+        int year = digits(s, from, 4);
+        int month = digits(s, from + 5, 2);
+        int day = digits(s, from + 8, 2);
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int i = from + 10;
+        if (i < to && (s.charAt(i) == 'T' || s.charAt(i) == ' ')) {
+            if (to - i < 6 || s.charAt(i + 3) != ':') return false;
+            hour = digits(s, i + 1, 2);
+            minute = digits(s, i + 4, 2);
+            i += 6;
+            if (i < to && s.charAt(i) == ':') {
+                if (to - i < 3) return false;
+                second = digits(s, i + 1, 2);
+                i += 3;
+                if (i < to && s.charAt(i) == '.') {
+                    do i++; while (i < to && Character.isDigit(s.charAt(i)));
+                }
+            }
+        }
+        Integer offset = null;
+        if (i < to) {
+            char z = s.charAt(i);
+            if (z == 'Z' && i + 1 == to) {
+                offset = 0;
+            } else if ((z == '+' || z == '-') && (to - i == 3 || to - i == 6 && s.charAt(i + 3) == ':')) {
+                int h = digits(s, i + 1, 2);
+                int m = to - i == 6 ? digits(s, i + 4, 2) : 0;
+                if (h < 0 || m < 0 || h > 18) return false;
+                offset = (z == '-' ? -1 : 1) * (h * 3600 + m * 60);
+            } else {
+                return false;
+            }
+        }
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) return false;
+        LocalDateTime local;
+        try {
+            local = LocalDateTime.of(year, month, day, hour, minute, second);
+        } catch (DateTimeException e) {
+            return false;
+        }
+        if (offset == null) {
+            c.times[n] = local.toEpochSecond(zone.getOffset(local));
+            c.months[n] = year * 12 + month - 1;
+        } else {
+            long t = local.toEpochSecond(ZoneOffset.ofTotalSeconds(offset));
+            LocalDate d = LocalDate.ofEpochDay(Math.floorDiv(
+                    t + zone.getOffset(Instant.ofEpochSecond(t)).getTotalSeconds(), 86_400L));
+            c.times[n] = t;
+            c.months[n] = d.getYear() * 12 + d.getMonthValue() - 1;
+        }
+        return true;
+    }
+
+    /** The {@code len} decimal digits at s[at], or -1. */
+    private static int digits(String s, int at, int len) {
+        int v = 0;
+        for (int i = at; i < at + len; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    // ---- Rater ----
+
+    private void rate() {
+        Due out = new Due();
+        try {
+            while (true) {
+                Chunk c = readings.poll();
+                if (c == null) {
+                    // nothing waiting: pass on what is closed so far rather than hold it for a full chunk
+                    out = send(out);
+                    c = readings.take();
+                }
+                if (c == END) break;
+                try (Metrics.Timing t = Metrics.INGEST.time()) {
+                    t.rows(c.size);
+                    for (int i = 0; i < c.size; i++) out = rate(c, i, out);
+                }
+            }
+            if (closeOpenMonths) {
+                for (Map.Entry<String, Meter> e : meters.entrySet()) {
+                    Meter m = e.getValue();
+                    if (m.month < 0) continue;
+                    if (m.customerId == UNRESOLVED) m.customerId = customerOf(e.getKey());
+                    if (m.customerId != UNRESOLVED) out = close(m, -1, out);
+                }
+            }
+            send(out);
+            due.put(END_DUE);
+        } catch (InterruptedException e) {
+            // stopped by abort()
+        } catch (RuntimeException | Error e) {
+            abort(e);
+        }
+    }
+
+    private Due rate(Chunk c, int i, Due out) throws InterruptedException {
+        String key = CustomerIndex.meterKey(c.meters[i]);
+        Meter m = meters.get(key);
+        if (m == null || m.customerId == UNRESOLVED) {
+            int id = customerOf(c.meters[i]);
+            if (id == UNRESOLVED) {
+                if (++unknownMeter <= MAX_REPORTED_SKIPS) System.err.println("Unknown meter: " + c.meters[i]);
+                return out;
+            }
+            if (m == null) meters.put(key, m = new Meter());
+            m.customerId = id;
+        }
+        long time = c.times[i];
+        long reading = c.readings[i];
+        if (time <= m.time) {
+            outOfOrder++;
+            return out;
+        }
+        long previous = m.reading;
+        m.time = time;
+        m.reading = reading;
+        if (previous < 0) return out; // baseline
+        if (reading < previous) {
+            meterResets++;
+            return out;
+        }
+        int month = c.months[i];
+        if (m.month >= 0 && m.month != month) out = close(m, month, out);
+        m.month = month;
+        m.pending += reading - previous;
+        return out;
+    }
+
+    /** Queues the bill for {@code m}'s open month and starts {@code next}, or none if -1. */
+    private Due close(Meter m, int next, Due out) throws InterruptedException {
+        long units = m.pending / 1000;
+        if (units <= Integer.MAX_VALUE) {
+            out.customers[out.size] = m.customerId;
+            out.months[out.size] = m.month;
+            out.units[out.size] = (int) units;
+            if (++out.size == CHUNK) out = send(out);
+        } else {
+            System.err.println("Not billing " + units + " units for customer " + m.customerId);
+        }
+        m.pending -= units * 1000;
+        m.month = next;
+        return out;
+    }
+
+    private Due send(Due out) throws InterruptedException {
+        if (out.size == 0) return out;
+        due.put(out);
+        return new Due();
+    }
+
+    private int customerOf(String meterNumber) {
+        List<Customer> found = repo.customersByMeter(meterNumber);
+        return found.size() == 1 ? found.get(0).id : UNRESOLVED; // unknown, or shared by several customers
+    }
+
+    // ---- Biller ----
+
+    private void bill() {
+        Map<Integer, String> monthNames = new HashMap<>();
+        try {
+            for (Due d; (d = due.take()) != END_DUE; ) {
+                for (int i = 0; i < d.size; i++) {
+                    String month = monthNames.computeIfAbsent(d.months[i], m -> YearMonth.of(m / 12, m % 12 + 1).toString());
+                    int customerId = d.customers[i];
+                    if (repo.billOf(customerId, month) != null) { // loads that month only
+                        alreadyBilled++;
+                        continue;
+                    }
+                    Bill b;
+                    try {
+                        b = repo.generateBill(customerId, month, d.units[i]);
+                    } catch (IllegalArgumentException e) {
+                        failed++; // customer removed since the meter was resolved
+                        continue;
+                    }
+                    storage.record(repo, b);
+                    billed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped by abort()
+        } catch (IOException | RuntimeException | Error e) {
+            abort(e);
+        }
+    }
+
+    /** Records the first failure and stops both stages; sources notice on their next hand-off. */
+    private void abort(Throwable e) {
+        if (!failure.compareAndSet(null, e)) return;
+        rater.interrupt();
+        biller.interrupt();
+    }
+
+    // ---- Meter state ----
+
+    private Path stateFile() {
+        return storage.dir().resolve(STATE_FILE);
+    }
+
+    private void loadState() throws IOException {
+        if (!Files.exists(stateFile())) return;
+        Chunk c = new Chunk();
+        try (BufferedReader in = Files.newBufferedReader(stateFile(), StandardCharsets.UTF_8)) {
+            String line = in.readLine(); // header
+            while ((line = in.readLine()) != null) {
+                String[] t = line.split(",", -1);
+                if (t.length < 5) continue;
+                long reading = parseReading(t[2], 0, t[2].length());
+                long pending = parseReading(t[4], 0, t[4].length());
+                if (reading < 0 || pending < 0 || !parseTime(t[1], 0, t[1].length(), c, 0)) {
+                    System.out.println("Skipping bad meter state: " + line);
+                    continue;
+                }
+                Meter m = new Meter();
+                m.time = c.times[0];
+                m.reading = reading;
+                m.pending = pending;
+                if (!t[3].isEmpty()) {
+                    YearMonth month = YearMonth.parse(t[3]);
+                    m.month = month.getYear() * 12 + month.getMonthValue() - 1;
+                }
+                meters.put(CustomerIndex.meterKey(t[0]), m);
+            }
+        }
+    }
+
+    private void saveState() throws IOException {
+        List<String> lines = new ArrayList<>(meters.size() + 1);
+        lines.add(STATE_HEADER);
+        for (Map.Entry<String, Meter> e : meters.entrySet()) {
+            Meter m = e.getValue();
+            String month = m.month < 0 ? "" : YearMonth.of(m.month / 12, m.month % 12 + 1).toString();
+            lines.add(e.getKey() + "," + Instant.ofEpochSecond(m.time) + "," + kwh(m.reading) + "," + month + ","
+                    + kwh(m.pending));
+        }
+        WriteAheadLog.writeAtomically(stateFile(), lines);
+    }
+
+    private static String kwh(long wh) {
+        return wh / 1000 + "." + String.format("%03d", wh % 1000);
+    }
+}
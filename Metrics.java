@@ -0,0 +1,388 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Process-wide counters and timers for the billing hot paths.
+ *
+ * A {@link Timer} records the latency of each operation in a
+ * {@link LatencyHistogram}, the rows and bytes it touched, and the bytes the
+ * calling thread allocated meanwhile (HotSpot's per-thread allocation
+ * counter; work handed to other threads is not included). Use it as
+ * <pre>
+ *   try (Metrics.Timing t = Metrics.SAVE.time()) {
+ *       ...
+ *       t.rows(n).bytes(size);
+ *   }
+ * </pre>
+ * Each timing is also a JFR event, "billing.Operation", created only while
+ * a recording has it enabled (it is on in the default profile), e.g.
+ * java -XX:StartFlightRecording=filename=billing.jfr ElectricityBillSystem.
+ * Otherwise timing allocates nothing: each thread reuses one
+ * {@link Timing} per timer, so the hot paths keep their allocation savings.
+ *
+ * Everything is published through the platform MBean server as
+ * "billing:type=Metrics", one attribute per statistic, and as text through
+ * {@link #dump}: GET /metrics on the HTTP API, or printed at exit with
+ * -Dbilling.metrics=true.
+ */
+final class Metrics {
+
+    private static final int STRIPES = 8; // power of two
+    private static final Map<String, Object> REGISTRY = new LinkedHashMap<>();
+    private static final long STARTED = System.nanoTime();
+
+    static final Timer BILL_GENERATE = timer("bill.generate");
+    static final Timer BATCH = timer("batch.run");
+    static final Timer LOAD = timer("storage.load");
+    static final Timer SAVE = timer("storage.save");
+    static final Timer JOURNAL_FLUSH = timer("journal.flush");
+    static final Timer EXPORT = timer("invoice.export");
+    static final Timer RERATE = timer("tariff.rerate");
+    static final Timer AUDIT = timer("bill.audit");
+    static final Timer REPORT = timer("report.query");
+    static final Timer INGEST = timer("ingest.rate");
+    static final Timer HTTP = timer("http.request");
+
+    static final Counter CALCULATIONS = counter("bill.calculations");
+    static final Counter JOURNAL_RECORDS = counter("journal.records");
+    static final Counter HTTP_ERRORS = counter("http.errors");
+    static final Counter INVOICE_CACHE_HITS = counter("invoice.cache.hits");
+    static final Counter INVOICE_CACHE_MISSES = counter("invoice.cache.misses");
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+    private static final OperationEvent EVENTS = new OperationEvent(); // never committed; asked whether recording is on
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new MBean(), new ObjectName("billing:type=Metrics"));
+        } catch (JMException e) {
+            System.out.println("Metrics not published over JMX: " + e.getMessage());
+        }
+        if (Boolean.getBoolean("billing.metrics")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(System.out), "metrics-dump"));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /** A monotonically increasing count. */
+    static final class Counter {
+        final String name;
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        void increment() {
+            count.increment();
+        }
+
+        void add(long n) {
+            count.add(n);
+        }
+
+        long count() {
+            return count.sum();
+        }
+    }
+
+    /** Latency, rows, bytes and allocation of one kind of operation. */
+    static final class Timer {
+        final String name;
+        // a few histograms behind separate locks, so concurrent callers rarely meet
+        private final LatencyHistogram[] nanos = new LatencyHistogram[STRIPES];
+        private final LatencyHistogram[] allocated = new LatencyHistogram[STRIPES];
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final ThreadLocal<Timing> reusable = ThreadLocal.withInitial(() -> new Timing(this));
+
+        private Timer(String name) {
+            this.name = name;
+            for (int i = 0; i < STRIPES; i++) {
+                nanos[i] = new LatencyHistogram();
+                allocated[i] = new LatencyHistogram();
+            }
+        }
+
+        /** Starts timing an operation; close the result when it is done, and do not keep it afterwards. */
+        Timing time() {
+            Timing t = reusable.get();
+            if (t.running) t = new Timing(this); // the same operation nested on this thread
+            t.start();
+            return t;
+        }
+
+        void record(long elapsedNanos, long allocatedBytes, long rowCount, long byteCount) {
+            int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            LatencyHistogram n = nanos[stripe];
+            synchronized (n) {
+                n.record(elapsedNanos);
+                if (allocatedBytes >= 0) allocated[stripe].record(allocatedBytes);
+            }
+            totalNanos.add(elapsedNanos);
+            rows.add(rowCount);
+            bytes.add(byteCount);
+        }
+
+        /** Latency in nanoseconds over every stripe. */
+        LatencyHistogram latency() {
+            return merged(nanos);
+        }
+
+        /** Bytes allocated per operation by the calling thread. */
+        LatencyHistogram allocation() {
+            return merged(allocated);
+        }
+
+        long rows() {
+            return rows.sum();
+        }
+
+        long bytes() {
+            return bytes.sum();
+        }
+
+        /** Rows per second of time spent inside the operation. */
+        double rowsPerSecond() {
+            long t = totalNanos.sum();
+            return t == 0 ? 0 : rows.sum() * 1e9 / t;
+        }
+
+        private LatencyHistogram merged(LatencyHistogram[] stripes) {
+            LatencyHistogram out = new LatencyHistogram();
+            for (int i = 0; i < STRIPES; i++) {
+                synchronized (nanos[i]) { // guards both histograms of the stripe
+                    out.add(stripes[i]);
+                }
+            }
+            return out;
+        }
+    }
+
+    /** One operation in progress; records itself on close. */
+    static final class Timing implements AutoCloseable {
+        private final Timer timer;
+        private OperationEvent event; // only while a recording has the event enabled
+        private long startNanos;
+        private long startAllocated;
+        private long rows;
+        private long bytes;
+        private boolean running;
+
+        private Timing(Timer timer) {
+            this.timer = timer;
+        }
+
+        private void start() {
+            running = true;
+            rows = 0;
+            bytes = 0;
+            if (EVENTS.isEnabled()) {
+                event = new OperationEvent();
+                event.begin();
+            }
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        Timing rows(long n) {
+            rows = n;
+            return this;
+        }
+
+        Timing bytes(long n) {
+            bytes = n;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - startNanos;
+            long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+            timer.record(elapsed, allocated, rows, bytes);
+            if (event != null && event.shouldCommit()) {
+                event.operation = timer.name;
+                event.rows = rows;
+                event.bytes = bytes;
+                event.commit();
+            }
+            event = null;
+            running = false;
+        }
+    }
+
+    @Name("billing.Operation")
+    @Label("Billing Operation")
+    @Category("Billing")
+    @Description("A timed load, save, export, bill generation or other billing operation")
+    static final class OperationEvent extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /** Writes every metric as one line of text. */
+    static void dump(PrintStream out) {
+        out.printf("# billing metrics after %.1f s%n", (System.nanoTime() - STARTED) / 1e9);
+        for (Object m : metrics()) {
+            if (m instanceof Counter) {
+                Counter c = (Counter) m;
+                out.printf("counter %-20s %d%n", c.name, c.count());
+                continue;
+            }
+            Timer t = (Timer) m;
+            LatencyHistogram h = t.latency();
+            if (h.count() == 0) {
+                out.printf("timer   %-20s count=0%n", t.name);
+                continue;
+            }
+            out.printf("timer   %-20s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", t.name, h.count(),
+                    h.mean() / 1e6, h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(99) / 1e6, h.max() / 1e6);
+            if (t.rows() > 0) out.printf(" rows=%d (%.0f rows/s)", t.rows(), t.rowsPerSecond());
+            if (t.bytes() > 0) out.printf(" bytes=%d", t.bytes());
+            LatencyHistogram a = t.allocation();
+            if (a.count() > 0) out.printf(" alloc/op=%.0fB", a.mean());
+            out.println();
+        }
+    }
+
+    private static Timer timer(String name) {
+        Timer t = new Timer(name);
+        synchronized (REGISTRY) {
+            REGISTRY.put(name, t);
+        }
+        return t;
+    }
+
+    private static Counter counter(String name) {
+        Counter c = new Counter(name);
+        synchronized (REGISTRY) {
+            REGISTRY.put(name, c);
+        }
+        return c;
+    }
+
+    private static List<Object> metrics() {
+        synchronized (REGISTRY) {
+            return new ArrayList<>(REGISTRY.values());
+        }
+    }
+
+    /** The calling thread's allocation counter, or -1 where the JVM has none. */
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return null;
+        return threads;
+    }
+
+    /**
+     * Read-only view of the registry: "name" for counters, and
+     * "name.count", "name.meanMillis", "name.p99Millis", "name.maxMillis",
+     * "name.rows", "name.rowsPerSecond", "name.bytes" and
+     * "name.allocatedBytesPerOp" for timers.
+     */
+    private static final class MBean implements DynamicMBean {
+        private static final String[] TIMER_STATS = {"count", "meanMillis", "p99Millis", "maxMillis",
+                "rows", "rowsPerSecond", "bytes", "allocatedBytesPerOp"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            int dot = attribute.lastIndexOf('.');
+            Object m;
+            synchronized (REGISTRY) {
+                m = REGISTRY.get(attribute);
+                if (m == null && dot > 0) m = REGISTRY.get(attribute.substring(0, dot));
+            }
+            if (m instanceof Counter) return ((Counter) m).count();
+            if (m instanceof Timer) {
+                Timer t = (Timer) m;
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return t.latency().count();
+                    case "meanMillis": return t.latency().mean() / 1e6;
+                    case "p99Millis": return t.latency().valueAtPercentile(99) / 1e6;
+                    case "maxMillis": return t.latency().max() / 1e6;
+                    case "rows": return t.rows();
+                    case "rowsPerSecond": return t.rowsPerSecond();
+                    case "bytes": return t.bytes();
+                    case "allocatedBytesPerOp": return t.allocation().mean();
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList out = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    out.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                    // left out, as the DynamicMBean contract allows
+                }
+            }
+            return out;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (Object m : metrics()) {
+                if (m instanceof Counter) {
+                    attrs.add(attribute(((Counter) m).name, "long"));
+                    continue;
+                }
+                for (String stat : TIMER_STATS) {
+                    boolean integral = stat.equals("count") || stat.equals("rows") || stat.equals("bytes");
+                    attrs.add(attribute(((Timer) m).name + "." + stat, integral ? "long" : "double"));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Billing counters and timers",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private static MBeanAttributeInfo attribute(String name, String type) {
+            return new MBeanAttributeInfo(name, type, name, true, false, false);
+        }
+    }
+}
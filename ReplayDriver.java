@@ -0,0 +1,204 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Replays a JSONL file of billing operations through the billing core and
+ * reports throughput and latency.
+ *
+ * Usage: java ReplayDriver &lt;ops.jsonl&gt; [-c threads] [-data dir]
+ *
+ * One JSON object per line:
+ * <pre>
+ *   {"op":"addCustomer","name":..,"address":..,"meterNumber":..,"phone":..}
+ *   {"op":"generateBill","customerId":1,"month":"2025-09","units":120}
+ *   {"op":"viewBill","billId":1}      renders the invoice text
+ *   {"op":"export","billId":1}        renders and encodes the invoice, as the export menu does, without the file write
+ * </pre>
+ * Lines with another or no "op" are counted as skipped; operations that
+ * throw or refer to a missing customer or bill are counted as failed.
+ *
+ * The file is streamed: a reader thread hands lines to the workers through a
+ * bounded queue, so captures larger than the heap can be replayed. Each
+ * worker parses its line outside the timed region and records the time of the
+ * operation itself into its own {@link LatencyHistogram}. With -data the
+ * customers and bills of that directory are loaded first (read-only).
+ * SyntheticData writes a matching operations.jsonl.
+ */
+public class ReplayDriver {
+
+    private static final String[] OPS = {"addCustomer", "generateBill", "viewBill", "export"};
+    private static final String END = new String("end of input"); // compared by identity
+    private static final int QUEUE = 8192;
+
+    /** Per-worker tallies, merged once all workers are done. */
+    private static final class Stats {
+        final LatencyHistogram[] byOp = new LatencyHistogram[OPS.length];
+        final LatencyHistogram all = new LatencyHistogram();
+        long failed;
+        long skipped;
+        long sink; // keeps rendered invoices reachable so the JIT cannot drop them
+
+        Stats() {
+            for (int i = 0; i < OPS.length; i++) byOp[i] = new LatencyHistogram();
+        }
+
+        void add(Stats o) {
+            for (int i = 0; i < OPS.length; i++) byOp[i].add(o.byOp[i]);
+            all.add(o.all);
+            failed += o.failed;
+            skipped += o.skipped;
+            sink += o.sink;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java ReplayDriver <ops.jsonl> [-c threads] [-data dir]");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        int threads = 1;
+        Path data = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-c": threads = Integer.parseInt(args[++i]); break;
+                case "-data": data = Paths.get(args[++i]); break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        BillingRepository repo = new ConcurrentBillingRepository();
+        if (data != null) {
+            new BillingStorage(data, false).load(repo, stage -> { });
+            System.out.printf("Loaded %d customers and %d bills from %s%n", repo.customerCount(), repo.billCount(), data);
+        }
+
+        long start = System.nanoTime();
+        Stats total = threads <= 1 ? replaySingle(file, repo) : replayConcurrent(file, repo, threads);
+        long elapsed = System.nanoTime() - start;
+        report(total, threads, elapsed);
+    }
+
+    private static Stats replaySingle(Path file, BillingRepository repo) throws IOException {
+        Stats s = new Stats();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) execute(line, repo, s);
+        }
+        return s;
+    }
+
+    private static Stats replayConcurrent(Path file, BillingRepository repo, int threads) throws Exception {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE);
+        Stats[] stats = new Stats[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Stats s = stats[t] = new Stats();
+            workers[t] = new Thread(() -> {
+                try {
+                    for (String line; (line = queue.take()) != END; ) execute(line, repo, s);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "replay-" + t);
+            workers[t].start();
+        }
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) queue.put(line);
+        } finally {
+            for (int t = 0; t < threads; t++) queue.put(END);
+        }
+        Stats total = new Stats();
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total.add(stats[t]);
+        }
+        return total;
+    }
+
+    private static void execute(String line, BillingRepository repo, Stats s) {
+        if (line.isBlank()) return;
+        Map<String, Object> op;
+        int kind;
+        try {
+            op = Json.parseObject(line);
+            kind = Arrays.asList(OPS).indexOf(String.valueOf(op.get("op")));
+        } catch (IllegalArgumentException e) {
+            kind = -1;
+            op = null;
+        }
+        if (kind < 0) {
+            s.skipped++;
+            return;
+        }
+        long t0 = System.nanoTime();
+        boolean ok;
+        try {
+            ok = run(kind, op, repo, s);
+        } catch (RuntimeException e) {
+            ok = false;
+        }
+        long t = System.nanoTime() - t0;
+        if (!ok) {
+            s.failed++;
+            return;
+        }
+        s.byOp[kind].record(t);
+        s.all.record(t);
+    }
+
+    private static boolean run(int kind, Map<String, Object> op, BillingRepository repo, Stats s) {
+        switch (kind) {
+            case 0:
+                return repo.addCustomer(text(op, "name"), text(op, "address"), text(op, "meterNumber"),
+                        text(op, "phone")) != null;
+            case 1:
+                return repo.generateBill(number(op, "customerId"), text(op, "month"), number(op, "units")) != null;
+            default: {
+                Bill b = repo.bill(number(op, "billId"));
+                if (b == null) return false;
+                Customer c = repo.customer(b.customerId);
+                String text = b.toInvoiceText(c != null ? c : new Customer(0, "Unknown", "", "", ""));
+                s.sink += kind == 3 ? text.getBytes(StandardCharsets.UTF_8).length : text.length();
+                return true;
+            }
+        }
+    }
+
+    private static String text(Map<String, Object> op, String field) {
+        Object v = op.get(field);
+        return v == null ? "" : v.toString();
+    }
+
+    private static int number(Map<String, Object> op, String field) {
+        Object v = op.get(field);
+        if (v instanceof Long) return Math.toIntExact((Long) v);
+        return Integer.parseInt(String.valueOf(v));
+    }
+
+    private static void report(Stats s, int threads, long elapsedNanos) {
+        long ops = s.all.count();
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Replayed %d ops (%d failed, %d skipped) on %d thread%s in %.3f s: %.1f ops/sec%n",
+                ops, s.failed, s.skipped, threads, threads == 1 ? "" : "s", seconds, ops / Math.max(seconds, 1e-9));
+        System.out.printf("%n%-14s %10s %10s %10s %10s %10s  (latency in us)%n", "op", "count", "p50", "p99", "p999", "max");
+        for (int i = 0; i < OPS.length; i++) printRow(OPS[i], s.byOp[i]);
+        printRow("all", s.all);
+        System.out.println();
+        s.all.printPercentiles(System.out, 1000.0);
+    }
+
+    private static void printRow(String name, LatencyHistogram h) {
+        if (h.count() == 0) return;
+        System.out.printf("%-14s %10d %10.1f %10.1f %10.1f %10.1f%n", name, h.count(), h.valueAtPercentile(50) / 1e3,
+                h.valueAtPercentile(99) / 1e3, h.valueAtPercentile(99.9) / 1e3, h.max() / 1e3);
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Re-prices stored bills after a tariff change.
+ *
+ * Only months whose tariff differs between the old and the new schedule are
+ * touched. Their bills are recalculated in parallel; bills whose amounts
+ * change are stored, journaled and reported in the delta. A bill edited while
+ * the job runs keeps the edit, which was already priced with the new tariff.
+ */
+final class Rerating {
+
+    /** One re-priced bill. */
+    static final class Change {
+        final int billId;
+        final int customerId;
+        final String month;
+        final BigDecimal oldTotal;
+        final BigDecimal newTotal;
+
+        Change(Bill before, Bill after) {
+            billId = after.billId;
+            customerId = after.customerId;
+            month = after.month;
+            oldTotal = before.total;
+            newTotal = after.total;
+        }
+
+        String toCSV() {
+            return billId + "," + customerId + "," + Customer.escape(month) + "," + oldTotal.toPlainString() + ","
+                    + newTotal.toPlainString() + "," + newTotal.subtract(oldTotal).toPlainString();
+        }
+    }
+
+    /** Summary of one run. */
+    static final class Result {
+        final List<String> months;
+        final int examined;
+        final List<Change> changes;
+
+        Result(List<String> months, int examined, List<Change> changes) {
+            this.months = months;
+            this.examined = examined;
+            this.changes = changes;
+        }
+
+        BigDecimal netChange() {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (Change c : changes) sum = sum.add(c.newTotal.subtract(c.oldTotal));
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Months affected: %d, bills examined: %d, re-priced: %d, net change: %s",
+                    months.size(), examined, changes.size(), netChange().toPlainString());
+        }
+    }
+
+    static final String DELTA_HEADER = "billId,customerId,month,oldTotal,newTotal,difference";
+
+    private Rerating() {
+    }
+
+    /**
+     * Re-prices the bills in every month that {@code previous} and {@code next}
+     * price differently. Changed bills are stored in {@code repo} and recorded in
+     * {@code storage}. Install {@code next} first, so bills generated meanwhile use it too.
+     */
+    static Result run(BillingRepository repo, BillingStorage storage, TariffSchedule previous,
+                      TariffSchedule next, int threads) throws IOException {
+        try (Metrics.Timing t = Metrics.RERATE.time()) {
+            List<String> months = new ArrayList<>();
+            List<Bill> bills = new ArrayList<>();
+            for (String m : repo.billMonths()) {
+                if (previous.samePricing(next, m)) continue;
+                months.add(m);
+                bills.addAll(repo.billsForMonth(m));
+            }
+            months.sort(Comparator.comparingInt(TariffSchedule::monthKey).thenComparing(Comparator.naturalOrder()));
+
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+            List<Change> changes;
+            try {
+                changes = pool.submit(() -> bills.parallelStream()
+                        .map(b -> reprice(repo, next, b))
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Re-rating interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Re-rating failed: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            changes.sort(Comparator.comparingInt(c -> c.billId));
+            for (Change c : changes) storage.record(repo, repo.bill(c.billId));
+            t.rows(bills.size());
+            return new Result(months, bills.size(), changes);
+        }
+    }
+
+    static void writeDelta(Path file, List<Change> changes) throws IOException {
+        List<String> lines = new ArrayList<>(changes.size() + 1);
+        lines.add(DELTA_HEADER);
+        for (Change c : changes) lines.add(c.toCSV());
+        WriteAheadLog.writeAtomically(file, lines);
+    }
+
+    private static Change reprice(BillingRepository repo, TariffSchedule schedule, Bill b) {
+        Bill n = new Bill(b.billId, b.customerId, b.month, b.units);
+        n.calculate(schedule.tableFor(b.month));
+        if (sameAmounts(b, n)) return null;
+        if (!repo.replaceBill(b, n)) return null; // edited meanwhile, and so priced with the new schedule
+        return new Change(b, n);
+    }
+
+    private static boolean sameAmounts(Bill a, Bill b) {
+        return a.total.compareTo(b.total) == 0 && a.tax.compareTo(b.tax) == 0
+                && a.energyCharge.compareTo(b.energyCharge) == 0 && a.fixedCharge.compareTo(b.fixedCharge) == 0
+                && a.meterRent.compareTo(b.meterRent) == 0;
+    }
+}
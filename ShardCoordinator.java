@@ -0,0 +1,474 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Billing split across N worker processes ("shards"), behind one HTTP
+ * front end with the same API as {@link BillingServer}.
+ *
+ * Start with: java ElectricityBillSystem --coordinate &lt;shards&gt; [port] [-dir path] [-attach]
+ *
+ * Each worker is an ordinary "--serve" process with its own data directory
+ * and -Dbilling.shard=k/N, so every customer and bill ID it hands out is k
+ * mod N (see {@link ConcurrentBillingRepository#fromSystemProperties}). IDs
+ * are unique without a shared counter, and an ID alone says where its record
+ * lives: customer c on shard c % N, and a bill, created on its customer's
+ * shard, on shard billId % N.
+ * <ul>
+ *   <li>Requests for one customer or bill go to its shard as they are, and
+ *       the shard's answer comes back as it is.</li>
+ *   <li>A new customer goes to the next shard in turn; a new bill to its
+ *       customer's shard. A bill cannot be moved to a customer on another
+ *       shard: that shard does not know the customer.</li>
+ *   <li>Lists and searches ask every shard at once and merge the answers in
+ *       ID order; a search keeps the first {@code limit} matches by ID.</li>
+ *   <li>Reports are combined: revenue and slab totals are added up, top
+ *       consumers merged, and percentiles computed from the shards' units
+ *       distributions (/reports/units), so all are exact.</li>
+ * </ul>
+ * A shard that cannot be reached fails the request with 503.
+ *
+ * Workers are launched as child JVMs on ports port+1 .. port+N with their
+ * data under dir/shard-k and their output in dir/shard-k/worker.log; the
+ * coordinator's -Dbilling.* settings are passed on, and
+ * -Dbilling.workerOpts adds JVM options such as -Xmx. With -attach the
+ * workers are expected to be running on those ports already, e.g. started
+ * by hand. On shutdown launched workers get SIGTERM, so they save their data
+ * as a plain --serve does, and the coordinator waits for them.
+ */
+final class ShardCoordinator {
+
+    static final String SHARD_DIR_PREFIX = "shard-";
+    static final String WORKER_LOG = "worker.log";
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(10); // a big shard takes a while to load
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration STOP_TIMEOUT = Duration.ofMinutes(2);
+
+    /** One worker and where it listens. */
+    static final class Shard {
+        final int index;
+        final URI uri;
+        final Process process; // null when attached
+        final Path log;
+
+        Shard(int index, URI uri, Process process, Path log) {
+            this.index = index;
+            this.uri = uri;
+            this.process = process;
+            this.log = log;
+        }
+    }
+
+    /** A worker's answer, passed on as is. */
+    private static final class Reply {
+        final int status;
+        final String body;
+
+        Reply(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private final List<Shard> shards;
+    private final HttpClient client;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger nextShard = new AtomicInteger(); // placement of new customers
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    ShardCoordinator(List<Shard> shards, int port) throws IOException {
+        this.shards = shards;
+        this.executor = BillingServer.newExecutor();
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(CONNECT_TIMEOUT)
+                .executor(executor).build();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    // ---- Workers ----
+
+    /** Starts {@code count} workers as child JVMs on ports firstPort, firstPort + 1, ... */
+    static List<Shard> launch(int count, Path dir, int firstPort) throws IOException {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        List<Shard> out = new ArrayList<>(count);
+        try {
+            for (int k = 0; k < count; k++) {
+                Path data = dir.resolve(SHARD_DIR_PREFIX + k);
+                Files.createDirectories(data);
+                List<String> cmd = new ArrayList<>();
+                cmd.add(java);
+                String opts = System.getProperty("billing.workerOpts", "").trim();
+                if (!opts.isEmpty()) cmd.addAll(Arrays.asList(opts.split("\\s+")));
+                cmd.add("-cp");
+                cmd.add(System.getProperty("java.class.path"));
+                for (String name : new TreeSet<>(System.getProperties().stringPropertyNames())) {
+                    if (name.startsWith("billing.") && !name.equals("billing.dir") && !name.equals("billing.shard")
+                            && !name.equals("billing.workerOpts")) {
+                        cmd.add("-D" + name + "=" + System.getProperty(name));
+                    }
+                }
+                cmd.add("-Dbilling.dir=" + data);
+                cmd.add("-Dbilling.shard=" + k + "/" + count);
+                cmd.add("ElectricityBillSystem");
+                cmd.add("--serve");
+                cmd.add(String.valueOf(firstPort + k));
+                Path log = data.resolve(WORKER_LOG);
+                Process p = new ProcessBuilder(cmd).redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile())).start();
+                p.getOutputStream().close(); // a worker never reads its input
+                out.add(new Shard(k, workerUri(firstPort + k), p, log));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Shard s : out) s.process.destroyForcibly();
+            throw e;
+        }
+        return out;
+    }
+
+    /** Workers started elsewhere on ports firstPort, firstPort + 1, ... */
+    static List<Shard> attach(int count, int firstPort) {
+        List<Shard> out = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) out.add(new Shard(k, workerUri(firstPort + k), null, null));
+        return out;
+    }
+
+    private static URI workerUri(int port) {
+        InetAddress loopback = InetAddress.getLoopbackAddress(); // where BillingServer listens
+        String host = loopback instanceof Inet6Address ? "[" + loopback.getHostAddress() + "]" : loopback.getHostAddress();
+        return URI.create("http://" + host + ":" + port);
+    }
+
+    /** Waits until every worker answers, which is once it has loaded its data. */
+    void awaitWorkers() throws IOException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        for (Shard s : shards) {
+            while (true) {
+                try {
+                    if (send(s, "GET", "/metrics", null).status == 200) break;
+                } catch (IOException | BillingServer.HttpError e) {
+                    // not listening yet
+                }
+                if (s.process != null && !s.process.isAlive()) {
+                    throw new IOException("Shard " + s.index + " exited with status " + s.process.exitValue() + "; see " + s.log);
+                }
+                if (System.nanoTime() > deadline) throw new IOException("Shard " + s.index + " did not start at " + s.uri);
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for shard " + s.index, e);
+                }
+            }
+        }
+    }
+
+    void start() {
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stops taking requests, then stops the launched workers and waits while they save. Safe to call twice. */
+    void stop() {
+        if (!stopped.compareAndSet(false, true)) return;
+        server.stop(1);
+        executor.shutdown();
+        for (Shard s : shards) {
+            if (s.process != null) s.process.destroy(); // SIGTERM: the worker's shutdown hook saves
+        }
+        for (Shard s : shards) {
+            if (s.process == null) continue;
+            try {
+                if (!s.process.waitFor(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) s.process.destroyForcibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // ---- Routing ----
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (Metrics.Timing t = Metrics.HTTP.time()) {
+            t.bytes(respond(ex));
+        }
+    }
+
+    private long respond(HttpExchange ex) throws IOException {
+        int status;
+        String body;
+        String contentType = "application/json; charset=utf-8";
+        try {
+            String[] path = BillingServer.segments(ex.getRequestURI().getRawPath());
+            String method = ex.getRequestMethod();
+            if (path.length == 1 && path[0].equals("metrics")) {
+                if (!method.equals("GET")) throw BillingServer.notAllowed();
+                ByteArrayOutputStream text = new ByteArrayOutputStream();
+                Metrics.dump(new PrintStream(text, true, StandardCharsets.UTF_8));
+                status = 200;
+                body = text.toString(StandardCharsets.UTF_8);
+                contentType = "text/plain; charset=utf-8";
+            } else {
+                Reply r = route(method, path, ex);
+                status = r.status;
+                body = r.body;
+            }
+        } catch (BillingServer.HttpError e) {
+            status = e.status;
+            body = BillingServer.error(e.getMessage());
+        } catch (IllegalArgumentException | ClassCastException e) { // bad numbers or JSON of the wrong shape
+            status = 400;
+            body = BillingServer.error(e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+            body = BillingServer.error(String.valueOf(e.getMessage()));
+        }
+        if (status >= 400) Metrics.HTTP_ERRORS.increment();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+        return bytes.length;
+    }
+
+    private Reply route(String method, String[] path, HttpExchange ex) throws IOException {
+        String target = ex.getRequestURI().getRawPath()
+                + (ex.getRequestURI().getRawQuery() == null ? "" : "?" + ex.getRequestURI().getRawQuery());
+        byte[] body = readBody(ex);
+        if (path.length >= 1 && path[0].equals("customers")) {
+            if (path.length > 1) return send(shardOf(BillingServer.id(path[1])), method, target, body);
+            switch (method) {
+                case "GET":
+                    int limit = Integer.MAX_VALUE;
+                    if (BillingServer.queryParam(ex, "q") != null) {
+                        String l = BillingServer.queryParam(ex, "limit");
+                        limit = l == null ? BillingServer.SEARCH_LIMIT : Integer.parseInt(l);
+                    }
+                    return merged(target, "id", limit);
+                case "POST":
+                    return send(shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size())), method, target, body);
+                default:
+                    throw BillingServer.notAllowed();
+            }
+        }
+        if (path.length >= 1 && path[0].equals("bills")) {
+            if (path.length > 1) return send(shardOf(BillingServer.id(path[1])), method, target, body);
+            switch (method) {
+                case "GET":
+                    return merged(target, "billId", Integer.MAX_VALUE);
+                case "POST":
+                    Object customerId = Json.parseObject(new String(body, StandardCharsets.UTF_8)).get("customerId");
+                    if (!(customerId instanceof Long)) throw new IllegalArgumentException("\"customerId\" must be an integer");
+                    return send(shardOf((int) (long) (Long) customerId), method, target, body);
+                default:
+                    throw BillingServer.notAllowed();
+            }
+        }
+        if (path.length == 2 && path[0].equals("reports")) {
+            if (!method.equals("GET")) throw BillingServer.notAllowed();
+            return new Reply(200, report(path[1], ex));
+        }
+        throw new BillingServer.HttpError(404, "No such resource");
+    }
+
+    private Shard shardOf(int id) {
+        return shards.get(Math.floorMod(id, shards.size()));
+    }
+
+    /** Every shard's array for {@code target}, merged by the numeric field {@code key}; the first {@code limit}. */
+    private Reply merged(String target, String key, int limit) throws IOException {
+        List<Map<String, Object>> all = new ArrayList<>();
+        for (Object array : askAll(target)) {
+            for (Object o : (List<?>) array) all.add(object(o));
+        }
+        all.sort(Comparator.comparingLong(m -> (Long) m.get(key)));
+        return new Reply(200, Json.write(all.size() > limit ? all.subList(0, limit) : all));
+    }
+
+    // ---- Reports ----
+
+    private String report(String name, HttpExchange ex) throws IOException {
+        String query = ex.getRequestURI().getRawQuery() == null ? "" : "?" + ex.getRequestURI().getRawQuery();
+        switch (name) {
+            case "revenue": {
+                Map<String, long[]> byMonth = new HashMap<>(); // bills, units, energy, tax, total
+                for (Object r : askAll("/reports/revenue")) {
+                    for (Object o : (List<?>) object(r).get("months")) {
+                        Map<String, Object> m = object(o);
+                        long[] acc = byMonth.computeIfAbsent((String) m.get("month"), k -> new long[5]);
+                        acc[0] += (Long) m.get("bills");
+                        acc[1] += (Long) m.get("units");
+                        acc[2] += (Long) m.get("energy");
+                        acc[3] += (Long) m.get("tax");
+                        acc[4] += (Long) m.get("total");
+                    }
+                }
+                List<BillingReports.MonthTotals> months = new ArrayList<>();
+                byMonth.forEach((month, a) -> months.add(new BillingReports.MonthTotals(month, (int) a[0], a[1], a[2], a[3], a[4])));
+                months.sort(Comparator.comparingInt((BillingReports.MonthTotals t) -> TariffSchedule.monthKey(t.month))
+                        .thenComparing(t -> t.month));
+                return BillingServer.revenueJson(months);
+            }
+            case "slabs": {
+                Map<String, long[]> byBand = new LinkedHashMap<>(); // units, bills; every shard has the same bands
+                for (Object r : askAll("/reports/slabs")) {
+                    for (Object o : (List<?>) r) {
+                        Map<String, Object> b = object(o);
+                        long[] acc = byBand.computeIfAbsent((String) b.get("band"), k -> new long[2]);
+                        acc[0] += (Long) b.get("units");
+                        acc[1] += (Long) b.get("bills");
+                    }
+                }
+                List<BillingReports.SlabBand> bands = new ArrayList<>();
+                byBand.forEach((label, a) -> {
+                    boolean open = label.endsWith("+");
+                    String[] range = (open ? label.substring(0, label.length() - 1) : label).split("-");
+                    bands.add(new BillingReports.SlabBand(Integer.parseInt(range[0]),
+                            open ? Integer.MAX_VALUE : Integer.parseInt(range[1]), a[0], (int) a[1]));
+                });
+                return BillingServer.slabsJson(bands);
+            }
+            case "top": {
+                String n = BillingServer.queryParam(ex, "n");
+                int limit = n == null ? 10 : Integer.parseInt(n);
+                List<BillingReports.Consumer> top = new ArrayList<>();
+                for (Object r : askAll("/reports/top" + query)) { // each shard's own top n, over its own customers
+                    for (Object o : (List<?>) r) {
+                        Map<String, Object> c = object(o);
+                        top.add(new BillingReports.Consumer((int) (long) (Long) c.get("customerId"), (Long) c.get("units"),
+                                (Long) c.get("total"), (int) (long) (Long) c.get("bills")));
+                    }
+                }
+                top.sort(Comparator.comparingLong((BillingReports.Consumer c) -> -c.units).thenComparingInt(c -> c.customerId));
+                return BillingServer.topJson(top.subList(0, Math.min(Math.max(0, limit), top.size())));
+            }
+            case "percentiles":
+                return BillingServer.percentilesJson(BillingReports.percentiles(units(query), BillingServer.PERCENTILES));
+            case "units":
+                return BillingServer.unitsJson(units(query));
+            default:
+                throw new BillingServer.HttpError(404, "No such report: " + name);
+        }
+    }
+
+    /** The shards' units distributions added up. */
+    private BillingReports.Distribution units(String query) throws IOException {
+        TreeMap<Long, Long> counts = new TreeMap<>();
+        for (Object r : askAll("/reports/units" + query)) {
+            for (Object o : (List<?>) object(r).get("units")) {
+                List<?> pair = (List<?>) o;
+                counts.merge((Long) pair.get(0), (Long) pair.get(1), Long::sum);
+            }
+        }
+        int[] units = new int[counts.size()];
+        long[] bills = new long[counts.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> e : counts.entrySet()) {
+            units[i] = (int) (long) e.getKey();
+            bills[i++] = e.getValue();
+        }
+        return new BillingReports.Distribution(units, bills);
+    }
+
+    // ---- Talking to workers ----
+
+    /** Sends one GET to every shard at once; the parsed answers in shard order, or the first failure. */
+    private List<Object> askAll(String target) throws IOException {
+        List<CompletableFuture<HttpResponse<String>>> calls = new ArrayList<>(shards.size());
+        for (Shard s : shards) {
+            calls.add(client.sendAsync(request(s, "GET", target, null), HttpResponse.BodyHandlers.ofString()));
+        }
+        List<Object> out = new ArrayList<>(shards.size());
+        for (int k = 0; k < calls.size(); k++) {
+            HttpResponse<String> r;
+            try {
+                r = calls.get(k).join();
+            } catch (CompletionException e) {
+                throw unavailable(shards.get(k), e.getCause());
+            }
+            if (r.statusCode() != 200) throw new BillingServer.HttpError(r.statusCode(), "Shard " + k + ": " + errorOf(r.body()));
+            out.add(Json.parse(r.body()));
+        }
+        return out;
+    }
+
+    private Reply send(Shard s, String method, String target, byte[] body) throws IOException {
+        try {
+            HttpResponse<String> r = client.send(request(s, method, target, body), HttpResponse.BodyHandlers.ofString());
+            return new Reply(r.statusCode(), r.body());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (IOException e) {
+            throw unavailable(s, e);
+        }
+    }
+
+    private static HttpRequest request(Shard s, String method, String target, byte[] body) {
+        return HttpRequest.newBuilder(s.uri.resolve(target))
+                .method(method, body == null || body.length == 0 ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .build();
+    }
+
+    private static BillingServer.HttpError unavailable(Shard s, Throwable cause) {
+        String why = cause instanceof ConnectException ? "not reachable" : String.valueOf(cause);
+        return new BillingServer.HttpError(503, "Shard " + s.index + " at " + s.uri + " unavailable: " + why);
+    }
+
+    private static byte[] readBody(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readNBytes(BillingServer.MAX_BODY + 1);
+            if (bytes.length > BillingServer.MAX_BODY) throw new BillingServer.HttpError(413, "Request body too large");
+            return bytes;
+        }
+    }
+
+    private static String errorOf(String body) {
+        try {
+            return String.valueOf(Json.parseObject(body).get("error"));
+        } catch (IllegalArgumentException e) {
+            return body;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object o) {
+        return (Map<String, Object>) o;
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic customers, bills and meter readings for
+ * benchmarks and load tests.
+ *
+ * Usage: java SyntheticData &lt;dir&gt; &lt;customers&gt; &lt;bills&gt; [seed]
+ * writes customers.csv, bills.csv, readings.csv, meter-readings.csv and
+ * operations.jsonl into dir.
+ */
+public class SyntheticData {
+
+    /** How monthly consumption is spread across customers. */
+    enum Distribution {
+        /** Mostly within the first two slabs. */
+        LOW,
+        /** Household-like: most bills in the lower slabs with a long tail. */
+        MIXED,
+        /** Everything beyond the last slab. */
+        HIGH
+    }
+
+    private static final String[] STREETS = {"Mirpur Road", "Station Road", "Lake Circus", "College Para",
+            "Kazi Nazrul Islam Ave", "Green Road", "Jail Road", "New Market", "Court Para", "Hospital Road"};
+    private static final String[] CITIES = {"Dhaka", "Rajshahi", "Khulna", "Sylhet", "Chattogram", "Rangpur"};
+    private static final String[] FIRST = {"Arnob", "Rahim", "Karim", "Fatema", "Ayesha", "Nusrat", "Tanvir",
+            "Sadia", "Imran", "Mitu", "Shakil", "Rupa"};
+    private static final String[] LAST = {"Sarker", "Hossain", "Rahman", "Ahmed", "Islam", "Khan", "Chowdhury",
+            "Das", "Roy", "Akter"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java SyntheticData <dir> <customers> <bills> [seed]");
+            return;
+        }
+        Path dir = Paths.get(args[0]);
+        int customers = Integer.parseInt(args[1]);
+        int bills = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        Files.createDirectories(dir);
+        writeCustomersCsv(dir.resolve("customers.csv"), customers, seed);
+        writeBillsCsv(dir.resolve("bills.csv"), bills, customers, seed);
+        writeReadingsCsv(dir.resolve("readings.csv"), bills, customers, seed);
+        writeMeterReadingsCsv(dir.resolve("meter-readings.csv"), bills, customers, seed);
+        writeOperationsJsonl(dir.resolve("operations.jsonl"), bills, customers, seed);
+        System.out.printf("Wrote %d customers and %d bills to %s%n", customers, bills, dir);
+    }
+
+    /** Units for one month under the given distribution. */
+    static int units(SplittableRandom rnd, Distribution d) {
+        switch (d) {
+            case LOW:
+                return rnd.nextInt(151);
+            case HIGH:
+                return 251 + rnd.nextInt(2000);
+            default:
+                // roughly log-normal: median around 120 units, occasional heavy users
+                double u = Math.exp(4.8 + 0.6 * rnd.nextDouble() * (rnd.nextBoolean() ? 1 : -1) + 0.25 * rnd.nextInt(4));
+                return (int) Math.min(u, 5000);
+        }
+    }
+
+    static int[] unitsArray(int n, Distribution d, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = units(rnd, d);
+        return out;
+    }
+
+    static String month(int billIndex, int customers) {
+        int m = billIndex / Math.max(1, customers); // one bill per customer per month
+        return String.format("%04d-%02d", 2020 + (m / 12) % 30, m % 12 + 1);
+    }
+
+    static List<Customer> customers(int n, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        List<Customer> out = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) out.add(customer(i, rnd));
+        return out;
+    }
+
+    static List<Bill> bills(int n, int customers, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        List<Bill> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(bill(i, customers, rnd));
+        return out;
+    }
+
+    static void writeCustomersCsv(Path file, int n, long seed) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write(Customer.CSV_HEADER);
+            w.newLine();
+            for (int i = 1; i <= n; i++) {
+                w.write(customer(i, rnd).toCSV());
+                w.newLine();
+            }
+        }
+    }
+
+    static void writeBillsCsv(Path file, int n, int customers, long seed) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write(Bill.CSV_HEADER);
+            w.newLine();
+            for (int i = 0; i < n; i++) {
+                w.write(bill(i, customers, rnd).toCSV());
+                w.newLine();
+            }
+        }
+    }
+
+    /** Meter-reading input for --batch: customerId,month,units. */
+    static void writeReadingsCsv(Path file, int n, int customers, long seed) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("customerId,month,units");
+            w.newLine();
+            for (int i = 0; i < n; i++) {
+                w.write((i % customers + 1) + "," + month(i, customers) + "," + units(rnd, Distribution.MIXED));
+                w.newLine();
+            }
+        }
+    }
+
+    /**
+     * Cumulative readings for --ingest that add up to the units of bills.csv:
+     * a baseline before the first month, then each customer's meter read on
+     * the 14th and the last day of every month, in time order.
+     */
+    static void writeMeterReadingsCsv(Path file, int n, int customers, long seed) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        long[] kwh = new long[customers];
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("meterNumber,timestamp,reading");
+            w.newLine();
+            YearMonth first = YearMonth.parse(month(0, customers));
+            for (int c = 0; c < customers; c++) {
+                w.write(String.format("MTR%09d,%sT23:00+06:00,0", c + 1, first.minusMonths(1).atEndOfMonth()));
+                w.newLine();
+            }
+            for (int start = 0; start < n; start += customers) {
+                YearMonth month = YearMonth.parse(month(start, customers));
+                int end = Math.min(n, start + customers);
+                int[] units = new int[end - start];
+                for (int i = start; i < end; i++) units[i - start] = units(rnd, Distribution.MIXED); // as bill() draws them
+                for (int half = 0; half < 2; half++) {
+                    String at = half == 0 ? month.atDay(14) + "T12:00+06:00" : month.atEndOfMonth() + "T23:00+06:00";
+                    for (int i = start; i < end; i++) {
+                        int c = i - start;
+                        kwh[c] += half == 0 ? units[c] / 2 : units[c] - units[c] / 2;
+                        w.write(String.format("MTR%09d,%s,%d", c + 1, at, kwh[c]));
+                        w.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Operation log for ReplayDriver: adds {@code customers} customers, then
+     * {@code n} operations, 60% generateBill, 30% viewBill and 10% export.
+     * Views and exports only refer to bills generated earlier in the file.
+     */
+    static void writeOperationsJsonl(Path file, int n, int customers, long seed) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed ^ 0x2545F491L);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= customers; i++) {
+                Customer c = customer(i, rnd);
+                w.write(new Json.Builder().field("op", "addCustomer").field("name", c.name).field("address", c.address)
+                        .field("meterNumber", c.meterNumber).field("phone", c.phone).build());
+                w.newLine();
+            }
+            int billed = 0;
+            for (int i = 0; i < n; i++) {
+                int pick = rnd.nextInt(10);
+                if (billed == 0 || pick < 6) {
+                    w.write(new Json.Builder().field("op", "generateBill").field("customerId", billed % customers + 1)
+                            .field("month", month(billed, customers)).field("units", units(rnd, Distribution.MIXED)).build());
+                    billed++;
+                } else {
+                    w.write(new Json.Builder().field("op", pick < 9 ? "viewBill" : "export")
+                            .field("billId", 1 + rnd.nextInt(billed)).build());
+                }
+                w.newLine();
+            }
+        }
+    }
+
+    private static Customer customer(int id, SplittableRandom rnd) {
+        String name = FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)];
+        String address = (1 + rnd.nextInt(200)) + " " + STREETS[rnd.nextInt(STREETS.length)] + " "
+                + CITIES[rnd.nextInt(CITIES.length)];
+        String meter = String.format("MTR%09d", id);
+        String phone = String.format("01%d%08d", 3 + rnd.nextInt(7), rnd.nextInt(100_000_000));
+        return new Customer(id, name, address, meter, phone);
+    }
+
+    private static Bill bill(int index, int customers, SplittableRandom rnd) {
+        Bill b = new Bill(index + 1, index % customers + 1,
+                month(index, customers), units(rnd, Distribution.MIXED));
+        b.calculate();
+        return b;
+    }
+}
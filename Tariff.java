@@ -0,0 +1,43 @@
+import java.math.BigDecimal;
+
+/**
+ * Tariff configuration shared by every front end.
+ *
+ * The constants below are the built-in tariff. A tariffs.csv in the data
+ * directory replaces it with versions effective from given months; see
+ * {@link TariffSchedule}.
+ */
+final class Tariff {
+
+    // slabLimits = first slabs (units), last slab is "rest"
+    static final int[] SLAB_LIMITS = {50, 100, 100}; // last one handled separately
+    static final BigDecimal[] SLAB_RATES = {
+            new BigDecimal("3.00"),   // first 50 units
+            new BigDecimal("5.50"),   // next 100 units
+            new BigDecimal("7.00")    // next 100 units
+    };
+    static final BigDecimal RATE_ABOVE = new BigDecimal("9.00"); // units above sum(SLAB_LIMITS)
+
+    static final BigDecimal FIXED_CHARGE = new BigDecimal("50.00");
+    static final BigDecimal METER_RENT = new BigDecimal("20.00");
+    static final BigDecimal TAX_RATE = new BigDecimal("0.05"); // 5%
+
+    // Tariff above compiled to integer paisa arithmetic
+    static final TariffTable TABLE = TariffTable.compile(SLAB_LIMITS, SLAB_RATES, RATE_ABOVE,
+            FIXED_CHARGE, METER_RENT, TAX_RATE);
+
+    // Schedule in force, used by Bill.calculate(); must come after the constants it reads
+    private static volatile TariffSchedule schedule = TariffSchedule.defaults();
+
+    static TariffSchedule schedule() {
+        return schedule;
+    }
+
+    /** Prices bills calculated from now on with {@code s}; stored bills keep their amounts until re-rated. */
+    static void install(TariffSchedule s) {
+        schedule = s;
+    }
+
+    private Tariff() {
+    }
+}
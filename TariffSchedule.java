@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tariff versions, each effective from a billing month.
+ *
+ * A bill is priced with the newest version whose effective-from month is not
+ * after the bill's month. Months are understood as "2025-09", "September 2025"
+ * or "Sep 2025"; bills in months that cannot be read, or that fall before
+ * the first version, use the first version.
+ *
+ * File format (tariffs.csv), one version per line, lists separated by '|':
+ * <pre>
+ *   effectiveFrom,slabLimits,slabRates,rateAbove,fixedCharge,meterRent,taxRate
+ *   2020-01,50|100|100,3.00|5.50|7.00,9.00,50.00,20.00,0.05
+ * </pre>
+ * Schedules are immutable; install a new one with {@link Tariff#install}.
+ */
+final class TariffSchedule {
+
+    static final String FILE = "tariffs.csv";
+    static final String HEADER = "effectiveFrom,slabLimits,slabRates,rateAbove,fixedCharge,meterRent,taxRate";
+
+    private static final String[] MONTH_NAMES = {"jan", "feb", "mar", "apr", "may", "jun",
+            "jul", "aug", "sep", "oct", "nov", "dec"};
+
+    /** One tariff and the first month it applies to. */
+    static final class Version {
+        final String effectiveFrom;
+        final int fromKey;
+        /** The tariff columns of the file line; two versions with equal rates have equal specs. */
+        final String rates;
+        final int[] slabLimits;
+        final TariffTable table;
+        /** Tax rate as printed on invoices, e.g. "5.00". */
+        final String taxPercent;
+
+        Version(String effectiveFrom, int[] slabLimits, BigDecimal[] slabRates, BigDecimal rateAbove,
+                BigDecimal fixedCharge, BigDecimal meterRent, BigDecimal taxRate) {
+            this.effectiveFrom = effectiveFrom;
+            this.fromKey = monthKey(effectiveFrom);
+            if (fromKey < 0) throw new IllegalArgumentException("Unreadable effective-from month: " + effectiveFrom);
+            this.slabLimits = slabLimits.clone();
+            this.table = TariffTable.compile(slabLimits, slabRates, rateAbove, fixedCharge, meterRent, taxRate);
+            StringJoiner limits = new StringJoiner("|");
+            for (int l : slabLimits) limits.add(String.valueOf(l));
+            StringJoiner rs = new StringJoiner("|");
+            for (BigDecimal r : slabRates) rs.add(r.toPlainString());
+            this.rates = limits + "," + rs + "," + rateAbove.toPlainString() + "," + fixedCharge.toPlainString() + ","
+                    + meterRent.toPlainString() + "," + taxRate.toPlainString();
+            this.taxPercent = String.format("%.2f", taxRate.multiply(new BigDecimal("100")).doubleValue());
+        }
+
+        String toCSV() {
+            return effectiveFrom + "," + rates;
+        }
+
+        static Version fromCSV(String line) {
+            String[] t = line.split(",", -1);
+            if (t.length != 7) throw new IllegalArgumentException("Expected 7 fields");
+            String[] ls = t[1].split("\\|");
+            String[] rs = t[2].split("\\|");
+            int[] limits = new int[ls.length];
+            BigDecimal[] rates = new BigDecimal[rs.length];
+            for (int i = 0; i < ls.length; i++) limits[i] = Integer.parseInt(ls[i].trim());
+            for (int i = 0; i < rs.length; i++) rates[i] = new BigDecimal(rs[i].trim());
+            return new Version(t[0].trim(), limits, rates, new BigDecimal(t[3].trim()), new BigDecimal(t[4].trim()),
+                    new BigDecimal(t[5].trim()), new BigDecimal(t[6].trim()));
+        }
+    }
+
+    private final Version[] versions; // by fromKey
+    private final Map<String, Version> byMonth = new ConcurrentHashMap<>();
+
+    TariffSchedule(Collection<Version> versions) {
+        if (versions.isEmpty()) throw new IllegalArgumentException("A tariff schedule needs at least one version");
+        this.versions = versions.toArray(new Version[0]);
+        Arrays.sort(this.versions, Comparator.comparingInt(v -> v.fromKey));
+        for (int i = 1; i < this.versions.length; i++) {
+            if (this.versions[i].fromKey == this.versions[i - 1].fromKey) {
+                throw new IllegalArgumentException("Two tariffs effective from " + this.versions[i].effectiveFrom);
+            }
+        }
+    }
+
+    /** The compiled-in tariff from {@link Tariff}, for every month. */
+    static TariffSchedule defaults() {
+        return new TariffSchedule(List.of(new Version("2000-01", Tariff.SLAB_LIMITS, Tariff.SLAB_RATES,
+                Tariff.RATE_ABOVE, Tariff.FIXED_CHARGE, Tariff.METER_RENT, Tariff.TAX_RATE)));
+    }
+
+    static TariffSchedule load(Path file) throws IOException {
+        List<Version> versions = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("effectiveFrom")) continue;
+            try {
+                versions.add(Version.fromCSV(line));
+            } catch (IllegalArgumentException e) { // includes NumberFormatException
+                throw new IOException(file + " line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        try {
+            return new TariffSchedule(versions);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (Version v : versions) lines.add(v.toCSV());
+        WriteAheadLog.writeAtomically(file, lines);
+    }
+
+    List<Version> versions() {
+        return List.of(versions);
+    }
+
+    Version versionFor(String month) {
+        Version v = byMonth.get(month);
+        if (v == null) {
+            v = lookup(monthKey(month));
+            byMonth.put(month, v);
+        }
+        return v;
+    }
+
+    /** The version in force for the newest months. */
+    Version latest() {
+        return versions[versions.length - 1];
+    }
+
+    TariffTable tableFor(String month) {
+        return versionFor(month).table;
+    }
+
+    /** True if a bill for {@code month} is priced the same under both schedules. */
+    boolean samePricing(TariffSchedule other, String month) {
+        return versionFor(month).rates.equals(other.versionFor(month).rates);
+    }
+
+    /** Months since year 0 (year * 12 + month - 1), or -1 if the text is not a month. */
+    static int monthKey(String month) {
+        String s = month.trim().toLowerCase(Locale.ROOT);
+        try {
+            int dash = s.indexOf('-');
+            if (dash > 0 && Character.isDigit(s.charAt(0))) { // 2025-09
+                int year = Integer.parseInt(s.substring(0, dash));
+                int m = Integer.parseInt(s.substring(dash + 1));
+                return m >= 1 && m <= 12 ? year * 12 + m - 1 : -1;
+            }
+            String[] parts = s.split("[\\s,]+"); // September 2025, Sep 2025
+            if (parts.length != 2 || parts[0].length() < 3) return -1;
+            for (int m = 0; m < 12; m++) {
+                if (parts[0].startsWith(MONTH_NAMES[m])) return Integer.parseInt(parts[1]) * 12 + m;
+            }
+            return -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Version lookup(int key) {
+        Version found = versions[0];
+        for (Version v : versions) {
+            if (v.fromKey <= key) found = v;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,133 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Slab tariff compiled into integer form.
+ *
+ * All rates and charges are scaled to a common minor unit (at least paisa,
+ * finer if a rate has more than two decimals) and the energy charge at every
+ * slab boundary is precomputed once. Evaluating a bill is then a binary search
+ * over the boundaries plus one multiply-add, all in {@code long} arithmetic
+ * with no allocation. Rounding to two decimals is HALF_UP, so results match
+ * the BigDecimal calculation exactly.
+ */
+final class TariffTable {
+
+    /** Results are always reported in paisa (scale 2). */
+    static final int RESULT_SCALE = 2;
+
+    private final int scale;             // scale of the internal minor unit
+    private final long[] boundaries;     // units at the start of each slab, boundaries[0] == 0
+    private final long[] chargeAt;       // energy charge (internal scale) at each boundary
+    private final long[] rates;          // rate (internal scale) for units past each boundary
+    private final long fixed;            // fixed charge + meter rent (internal scale)
+    private final long fixedPaisa;
+    private final long meterRentPaisa;
+    private final long taxNumerator;     // tax rate = taxNumerator / 10^taxScale
+    private final long taxOne;           // 10^taxScale, i.e. a tax rate of 1
+    private final long toResultDivisor;  // 10^(scale - 2)
+    private final long taxedDivisor;     // 10^(scale + taxScale - 2)
+
+    private TariffTable(int[] slabLimits, BigDecimal[] slabRates, BigDecimal rateAbove,
+                        BigDecimal fixedCharge, BigDecimal meterRent, BigDecimal taxRate) {
+        if (slabLimits.length != slabRates.length) {
+            throw new IllegalArgumentException("Each slab needs a rate");
+        }
+        int s = RESULT_SCALE;
+        for (BigDecimal r : slabRates) s = Math.max(s, r.stripTrailingZeros().scale());
+        s = Math.max(s, rateAbove.stripTrailingZeros().scale());
+        s = Math.max(s, fixedCharge.stripTrailingZeros().scale());
+        s = Math.max(s, meterRent.stripTrailingZeros().scale());
+        scale = s;
+
+        int n = slabLimits.length + 1;
+        boundaries = new long[n];
+        chargeAt = new long[n];
+        rates = new long[n];
+        for (int i = 0; i < slabLimits.length; i++) {
+            if (slabLimits[i] < 0) throw new IllegalArgumentException("Negative slab limit: " + slabLimits[i]);
+            rates[i] = unscaled(slabRates[i], scale);
+            boundaries[i + 1] = boundaries[i] + slabLimits[i];
+            chargeAt[i + 1] = chargeAt[i] + slabLimits[i] * rates[i];
+        }
+        rates[n - 1] = unscaled(rateAbove, scale);
+
+        fixed = unscaled(fixedCharge, scale) + unscaled(meterRent, scale);
+        fixedPaisa = unscaled(fixedCharge.setScale(RESULT_SCALE, RoundingMode.HALF_UP), RESULT_SCALE);
+        meterRentPaisa = unscaled(meterRent.setScale(RESULT_SCALE, RoundingMode.HALF_UP), RESULT_SCALE);
+
+        BigDecimal t = taxRate.stripTrailingZeros();
+        int taxScale = Math.max(0, t.scale());
+        taxNumerator = unscaled(taxRate, taxScale);
+        taxOne = pow10(taxScale);
+        toResultDivisor = pow10(scale - RESULT_SCALE);
+        taxedDivisor = pow10(scale + taxScale - RESULT_SCALE);
+    }
+
+    static TariffTable compile(int[] slabLimits, BigDecimal[] slabRates, BigDecimal rateAbove,
+                               BigDecimal fixedCharge, BigDecimal meterRent, BigDecimal taxRate) {
+        return new TariffTable(slabLimits, slabRates, rateAbove, fixedCharge, meterRent, taxRate);
+    }
+
+    /** Energy charge in paisa. Zero or negative units cost nothing. */
+    long energyChargePaisa(int units) {
+        return roundHalfUp(energyExact(units), toResultDivisor);
+    }
+
+    long fixedChargePaisa() {
+        return fixedPaisa;
+    }
+
+    long meterRentPaisa() {
+        return meterRentPaisa;
+    }
+
+    /** Writes energy, fixed, meter rent, tax and total (paisa) into {@code out[0..4]}. */
+    void evaluate(int units, long[] out) {
+        long energy = energyExact(units);
+        long subtotal = energy + fixed;
+        long taxExact = subtotal * taxNumerator;
+        out[0] = roundHalfUp(energy, toResultDivisor);
+        out[1] = fixedPaisa;
+        out[2] = meterRentPaisa;
+        out[3] = roundHalfUp(taxExact, taxedDivisor);
+        out[4] = roundHalfUp(subtotal * taxOne + taxExact, taxedDivisor);
+    }
+
+    private long energyExact(int units) {
+        if (units <= 0) return 0;
+        int i = slabFor(units);
+        return chargeAt[i] + (units - boundaries[i]) * rates[i];
+    }
+
+    /** Index of the last boundary strictly below {@code units}. */
+    private int slabFor(int units) {
+        int lo = 0, hi = boundaries.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (boundaries[mid] < units) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private static long roundHalfUp(long value, long divisor) {
+        if (divisor == 1) return value;
+        long half = divisor / 2;
+        return value >= 0 ? (value + half) / divisor : -((-value + half) / divisor);
+    }
+
+    private static long unscaled(BigDecimal v, int scale) {
+        return v.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    private static long pow10(int n) {
+        long r = 1;
+        for (int i = 0; i < n; i++) r *= 10;
+        return r;
+    }
+
+    /** Converts a paisa amount back to a scale-2 BigDecimal. */
+    static BigDecimal toAmount(long paisa) {
+        return BigDecimal.valueOf(paisa, RESULT_SCALE);
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of customer and bill mutations.
+ *
+ * Every add or edit is appended as one line, "C,&lt;customer csv&gt;" or
+ * "B,&lt;bill csv&gt;", and a removed customer as "D,&lt;id&gt;", instead of
+ * rewriting customers.csv and bills.csv. Each line ends in ",&lt;crc&gt;", the
+ * CRC32C of the rest of the line in eight hex digits, so a line cut short by
+ * a crash is recognised even where what is left would still parse.
+ * Appends are buffered and written with a single fsync every
+ * {@link #FLUSH_INTERVAL_MS} ms (group commit), so a caller never waits on
+ * the disk, but once a write has failed every further append throws. The
+ * CSV files act as snapshots: {@link #compact} rotates the journal to a new
+ * generation, writes the snapshot and then deletes the journal generations
+ * it covers, all in the background.
+ *
+ * All disk work runs on one writer thread. Compactions requested while an
+ * earlier one is still queued are coalesced: the first to run captures its
+ * snapshot after every request made so far and completes them all.
+ *
+ * On startup, load the snapshot CSVs and then {@link #replay} the journal.
+ * Records are upserts by id, so replaying a generation that is already
+ * contained in the snapshot is harmless.
+ */
+final class WriteAheadLog implements Closeable {
+
+    /** Captures the data and writes a snapshot; runs on the writer thread once the journal is rotated. */
+    interface SnapshotWriter {
+        void write() throws IOException;
+    }
+
+    /** Opens a generation's file for appending; replaceable so a failing disk can be simulated. */
+    interface ChannelOpener {
+        FileChannel open(Path file) throws IOException;
+    }
+
+    static final ChannelOpener FILES = file -> FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+    static final char CUSTOMER = 'C';
+    static final char BILL = 'B';
+    static final char CUSTOMER_REMOVED = 'D';
+
+    static final long FLUSH_INTERVAL_MS = 50;
+    static final int COMPACT_THRESHOLD = 10_000;
+
+    private static final String PREFIX = "journal.";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final ChannelOpener opener;
+    private final Object lock = new Object();       // guards pending and records
+    private final Object writeLock = new Object();  // guards channel and generation
+    private final StringBuilder pending = new StringBuilder();
+    private final ScheduledExecutorService writer;
+    private final List<CompletableFuture<Void>> compactions = new ArrayList<>(); // requested, not yet started; guarded by lock
+    private FileChannel channel;
+    private long generation;
+    private int records;
+    private volatile IOException failure;
+
+    WriteAheadLog(Path dir) throws IOException {
+        this(dir, FILES);
+    }
+
+    WriteAheadLog(Path dir, ChannelOpener opener) throws IOException {
+        this.dir = dir;
+        this.opener = opener;
+        long latest = 1;
+        for (long g : generations(dir)) latest = Math.max(latest, g);
+        generation = latest; // keep appending to the newest generation
+
+        channel = open(generation);
+        if (endsTorn(journalFile(dir, generation))) pending.append('\n'); // keep new records off the torn line
+        writer = Executors.newSingleThreadScheduledExecutor(daemon("journal-writer"));
+        writer.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues one record; it is durable after the next group flush.
+     *
+     * @throws IOException if an earlier write failed, as nothing appended since has reached the disk
+     */
+    void append(char type, String csv) throws IOException {
+        if (failure != null) throw new IOException("Journal stopped after a failed write: " + failure.getMessage(), failure);
+        String record = type + "," + csv;
+        String crc = checksum(record);
+        synchronized (lock) {
+            pending.append(record).append(',').append(crc).append('\n');
+            records++;
+        }
+        Metrics.JOURNAL_RECORDS.increment();
+    }
+
+    /** True once enough records have accumulated that a compaction is worthwhile. */
+    boolean needsCompaction() {
+        synchronized (lock) {
+            return records >= COMPACT_THRESHOLD;
+        }
+    }
+
+    /**
+     * Writes out everything appended so far and forces it to disk. If that
+     * fails, the records stay pending and the journal stops: this and every
+     * later append or flush throws.
+     */
+    void flush() throws IOException {
+        synchronized (writeLock) {
+            if (failure != null) throw failure;
+            String batch;
+            synchronized (lock) {
+                if (pending.length() == 0) return;
+                batch = pending.toString();
+                pending.setLength(0);
+            }
+            try (Metrics.Timing t = Metrics.JOURNAL_FLUSH.time()) {
+                ByteBuffer buf = StandardCharsets.UTF_8.encode(batch);
+                t.bytes(buf.remaining());
+                while (buf.hasRemaining()) channel.write(buf);
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    pending.insert(0, batch); // ahead of anything appended meanwhile
+                }
+                failure = e;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Starts a new journal generation and runs {@code snapshot} in the
+     * background; the caller does not wait for either. The snapshot is
+     * captured after the rotation, so it reflects every record appended
+     * before this call. Returns a future that completes once that snapshot
+     * is written, possibly by a compaction requested earlier.
+     */
+    Future<?> compact(SnapshotWriter snapshot) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (lock) {
+            records = 0;
+            compactions.add(done);
+        }
+        writer.execute(() -> {
+            List<CompletableFuture<Void>> covered;
+            synchronized (lock) {
+                if (compactions.isEmpty()) return; // covered by an earlier compaction
+                covered = new ArrayList<>(compactions);
+                compactions.clear();
+            }
+            try {
+                long oldest;
+                synchronized (writeLock) {
+                    flush();
+                    channel.close();
+                    oldest = generation;
+                    generation++;
+                    channel = open(generation);
+                }
+                snapshot.write();
+                for (long g : generations(dir)) {
+                    if (g <= oldest) Files.deleteIfExists(journalFile(dir, g));
+                }
+                for (CompletableFuture<Void> f : covered) f.complete(null);
+            } catch (IOException | RuntimeException e) {
+                for (CompletableFuture<Void> f : covered) f.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    /** Waits for queued compactions, flushes pending records and releases the file. */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown(); // also cancels the periodic flush
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            if (!channel.isOpen()) return;
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Feeds every journal record, oldest generation first, to {@code apply}
+     * as (type, csv). A record whose checksum does not match, such as a torn
+     * last line from a crash, is reported and skipped.
+     */
+    static int replay(Path dir, BiConsumer<Character, String> apply) throws IOException {
+        int n = 0;
+        for (long g : generations(dir)) {
+            try (BufferedReader in = Files.newBufferedReader(journalFile(dir, g), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    int comma = line.lastIndexOf(',');
+                    String record = comma < 0 ? line : line.substring(0, comma);
+                    if (comma < 2 || record.charAt(1) != ',' || !checksum(record).equals(line.substring(comma + 1))) {
+                        System.out.println("Skipping damaged journal record in " + journalFile(dir, g) + ": " + line);
+                        continue;
+                    }
+                    try {
+                        apply.accept(record.charAt(0), record.substring(2));
+                        n++;
+                    } catch (RuntimeException e) {
+                        System.out.println("Skipping bad journal record in " + journalFile(dir, g) + ": " + line);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    private void flushQuietly() {
+        if (failure != null) return; // reported already; append and flush throw from now on
+        try {
+            flush();
+        } catch (IOException e) {
+            System.out.println("Failed to write journal: " + e.getMessage());
+        }
+    }
+
+    /** CRC32C of the record's UTF-8 bytes as eight lower-case hex digits. */
+    private static String checksum(String record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        String hex = Long.toHexString(crc.getValue());
+        return "00000000".substring(hex.length()) + hex;
+    }
+
+    /** True if the file does not end in a newline, i.e. the last write was cut short. */
+    private static boolean endsTorn(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return false;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last, size - 1);
+            return last.get(0) != '\n';
+        }
+    }
+
+    private FileChannel open(long gen) throws IOException {
+        return opener.open(journalFile(dir, gen));
+    }
+
+    /** Writes text lines to a temporary file, syncs it and moves it over {@code target}. */
+    static void writeAtomically(Path target, List<String> lines) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path journalFile(Path dir, long gen) {
+        return dir.resolve(PREFIX + gen + SUFFIX);
+    }
+
+    private static long[] generations(Path dir) throws IOException {
+        List<Long> gens = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    gens.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        return gens.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
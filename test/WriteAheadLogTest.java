@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(dir)) {
+            log.append(WriteAheadLog.CUSTOMER, "1,A,x,m1,p1");
+            log.append(WriteAheadLog.BILL, "7,1,2024-01,120");
+            log.append(WriteAheadLog.CUSTOMER_REMOVED, "1");
+        }
+        assertEquals(List.of("C:1,A,x,m1,p1", "B:7,1,2024-01,120", "D:1"), replay());
+    }
+
+    @Test
+    void skipsTornAndCorruptedRecords() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(dir)) {
+            log.append(WriteAheadLog.BILL, "7,1,2024-01,120");
+        }
+        Path file = onlyJournalFile();
+        String good = Files.readString(file);
+        Files.writeString(file, good + good.replace("120", "121") + "B,8,1,2024-0", StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertEquals(List.of("B:7,1,2024-01,120"), replay());
+
+        try (WriteAheadLog log = new WriteAheadLog(dir)) { // appends after the torn line, not onto it
+            log.append(WriteAheadLog.BILL, "9,1,2024-02,80");
+        }
+        assertEquals(List.of("B:7,1,2024-01,120", "B:9,1,2024-02,80"), replay());
+    }
+
+    @Test
+    void compactionDeletesCoveredGenerations() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(dir)) {
+            log.append(WriteAheadLog.BILL, "7,1,2024-01,120");
+            List<String> seen = new ArrayList<>();
+            log.compact(() -> seen.addAll(replay())).get(10, TimeUnit.SECONDS);
+            assertEquals(List.of("B:7,1,2024-01,120"), seen); // flushed before the snapshot
+            log.append(WriteAheadLog.BILL, "9,1,2024-02,80");
+        }
+        assertEquals(List.of("B:9,1,2024-02,80"), replay());
+    }
+
+    @Test
+    void failedFlushStopsTheJournal() throws IOException {
+        FailingChannel[] channel = new FailingChannel[1];
+        WriteAheadLog log = new WriteAheadLog(dir, file -> channel[0] = new FailingChannel(WriteAheadLog.FILES.open(file)));
+        log.append(WriteAheadLog.BILL, "7,1,2024-01,120");
+        log.flush();
+
+        channel[0].failing = true;
+        log.append(WriteAheadLog.BILL, "8,1,2024-01,90");
+        assertThrows(IOException.class, log::flush);
+        assertThrows(IOException.class, () -> log.append(WriteAheadLog.BILL, "9,1,2024-02,80"));
+
+        channel[0].failing = false; // a later flush must not write past the lost record
+        assertThrows(IOException.class, log::flush);
+        assertThrows(IOException.class, log::close);
+        assertEquals(List.of("B:7,1,2024-01,120"), replay());
+    }
+
+    @Test
+    void failedGroupCommitStopsAppends() throws Exception {
+        FailingChannel[] channel = new FailingChannel[1];
+        WriteAheadLog log = new WriteAheadLog(dir, file -> channel[0] = new FailingChannel(WriteAheadLog.FILES.open(file)));
+        channel[0].failing = true;
+        log.append(WriteAheadLog.BILL, "7,1,2024-01,120");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        IOException thrown = null;
+        while (thrown == null && System.nanoTime() < deadline) {
+            try {
+                log.append(WriteAheadLog.BILL, "8,1,2024-01,90");
+                Thread.sleep(WriteAheadLog.FLUSH_INTERVAL_MS);
+            } catch (IOException e) {
+                thrown = e;
+            }
+        }
+        assertNotNull(thrown, "append kept succeeding after the periodic flush failed");
+
+        ExecutionException compaction = assertThrows(ExecutionException.class,
+                () -> log.compact(() -> { }).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, compaction.getCause());
+        assertThrows(IOException.class, log::close);
+    }
+
+    private List<String> replay() throws IOException {
+        List<String> out = new ArrayList<>();
+        WriteAheadLog.replay(dir, (type, csv) -> out.add(type + ":" + csv));
+        return out;
+    }
+
+    private Path onlyJournalFile() throws IOException {
+        try (var files = Files.list(dir)) {
+            List<Path> journals = files.filter(p -> p.getFileName().toString().startsWith("journal.")).toList();
+            assertEquals(1, journals.size());
+            return journals.get(0);
+        }
+    }
+
+    /** Passes through to a real file until {@link #failing} is set, then fails every write and force. */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel file;
+        volatile boolean failing;
+
+        FailingChannel(FileChannel file) {
+            this.file = file;
+        }
+
+        private void check() throws IOException {
+            if (failing) throw new IOException("disk full");
+        }
+
+        @Override public int write(ByteBuffer src) throws IOException { check(); return file.write(src); }
+        @Override public long write(ByteBuffer[] srcs, int offset, int length) throws IOException { check(); return file.write(srcs, offset, length); }
+        @Override public int write(ByteBuffer src, long position) throws IOException { check(); return file.write(src, position); }
+        @Override public void force(boolean metaData) throws IOException { check(); file.force(metaData); }
+        @Override public int read(ByteBuffer dst) throws IOException { return file.read(dst); }
+        @Override public long read(ByteBuffer[] dsts, int offset, int length) throws IOException { return file.read(dsts, offset, length); }
+        @Override public int read(ByteBuffer dst, long position) throws IOException { return file.read(dst, position); }
+        @Override public long position() throws IOException { return file.position(); }
+        @Override public FileChannel position(long newPosition) throws IOException { file.position(newPosition); return this; }
+        @Override public long size() throws IOException { return file.size(); }
+        @Override public FileChannel truncate(long size) throws IOException { file.truncate(size); return this; }
+        @Override public long transferTo(long position, long count, WritableByteChannel target) throws IOException { return file.transferTo(position, count, target); }
+        @Override public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException { check(); return file.transferFrom(src, position, count); }
+        @Override public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException { return file.map(mode, position, size); }
+        @Override public FileLock lock(long position, long size, boolean shared) throws IOException { return file.lock(position, size, shared); }
+        @Override public FileLock tryLock(long position, long size, boolean shared) throws IOException { return file.tryLock(position, size, shared); }
+        @Override protected void implCloseChannel() throws IOException { file.close(); }
+    }
+}